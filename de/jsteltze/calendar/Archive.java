@@ -0,0 +1,464 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.config.Const;
+import de.jsteltze.calendar.exceptions.CannotParseException;
+import de.jsteltze.common.calendar.Date;
+
+/**
+ * Archive of past one-off events in the directory Kalender.archive.
+ * The events of each year are kept in a compressed segment (e.g. 2010.z,
+ * calendar xml compressed by java.util.zip.Deflater). For every segment
+ * the number of events and the range of dates is kept in memory, so
+ * segments are only decompressed when a query reaches into their range.
+ * Decompressed segments are kept in a cache of limited size (number of
+ * events), the least recently used segments are dropped first.
+ * @author Johannes Steltzer
+ *
+ */
+public class Archive {
+
+    /** maximum number of archived events kept decompressed */
+    public static final int CACHE_SIZE = 10000;
+
+    /** name of the index file */
+    private static final String INDEX_FILE = "archive.idx";
+
+    /** key of the next free ID in the index */
+    private static final String NEXT_ID = "next";
+
+    /**
+     * Summary of a segment.
+     */
+    public static class Summary {
+
+        /** number of events */
+        public int count;
+
+        /** first and last day of all events */
+        public Date first, last;
+    }
+
+    /** directory of the segments */
+    private File dir;
+
+    /** summary of each segment (key: year) */
+    private TreeMap<Integer, Summary> summaries;
+
+    /** ID above all archived IDs */
+    private int nextID;
+
+    /** decompressed segments, least recently used first */
+    private LinkedHashMap<Integer, Vector<Event>> cache;
+
+    /** number of events in the cache */
+    private int cached;
+
+    private static Logger logger = Logger.getLogger(Archive.class);
+
+    /**
+     * Construct an archive and read the summaries of its segments.
+     * @param dir - Directory of the archive
+     */
+    public Archive(File dir) {
+        this.dir = dir;
+        this.summaries = new TreeMap<Integer, Summary>();
+        this.nextID = 0;
+        this.cache = new LinkedHashMap<Integer, Vector<Event>>(16, 0.75f, true);
+        this.cached = 0;
+
+        File f = new File(dir, INDEX_FILE);
+        if (!f.exists())
+            return;
+
+        Properties index = new Properties();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(f);
+            index.load(in);
+        } catch (IOException e) {
+            logger.error("cannot read archive index", e);
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException e) {}
+        }
+
+        for (String key : index.stringPropertyNames())
+            try {
+                if (key.equals(NEXT_ID)) {
+                    nextID = Integer.parseInt(index.getProperty(key));
+                    continue;
+                }
+                String[] array = index.getProperty(key).split(";");
+                Summary s = new Summary();
+                s.count = Integer.parseInt(array[0]);
+                s.first = new Date(array[1]);
+                s.last = new Date(array[2]);
+                summaries.put(Integer.parseInt(key), s);
+            } catch (Exception e) {
+                logger.error("invalid archive index entry: " + key);
+            }
+    }
+
+    /**
+     *
+     * @param e - Event
+     * @return Last day of an event.
+     */
+    private static Date getLastDay(Event e) {
+        return e.getEndDate() != null ? e.getEndDate() : e.getDate();
+    }
+
+    /**
+     *
+     * @param year - Year
+     * @return File of a segment.
+     */
+    private File getFile(int year) {
+        return new File(dir, year + ".z");
+    }
+
+    /**
+     *
+     * @return Number of archived events.
+     */
+    public synchronized int getNumberOfEvents() {
+        int num = 0;
+        for (Summary s : summaries.values())
+            num += s.count;
+        return num;
+    }
+
+    /**
+     *
+     * @return ID above all archived IDs.
+     */
+    public synchronized int getNextID() {
+        return nextID;
+    }
+
+    /**
+     *
+     * @return Summaries of all segments (key: year).
+     */
+    public synchronized TreeMap<Integer, Summary> getSummaries() {
+        return new TreeMap<Integer, Summary>(summaries);
+    }
+
+    /**
+     * Returns the archived events of all segments reaching into a range
+     * of dates. Only those segments are decompressed.
+     * @param from - First day of the range
+     * @param to - Last day of the range
+     * @return Events of the segments concerned (may contain events
+     *         outside the range).
+     */
+    public synchronized Vector<Event> getEvents(Date from, Date to) {
+        Vector<Event> v = new Vector<Event>();
+        for (Map.Entry<Integer, Summary> entry : summaries.entrySet())
+            if (entry.getValue().first.dayDiff(to) <= 0 &&
+                    entry.getValue().last.dayDiff(from) >= 0)
+                addSegment(v, entry.getKey());
+        return v;
+    }
+
+    /**
+     * Returns all archived events (e.g. for searching).
+     * @return All events of all segments.
+     */
+    public synchronized Vector<Event> getAllEvents() {
+        Vector<Event> v = new Vector<Event>();
+        for (int year : summaries.keySet())
+            addSegment(v, year);
+        return v;
+    }
+
+    /**
+     * Returns an archived event.
+     * @param ID - ID of the event
+     * @return Event or null if not archived.
+     */
+    public synchronized Event getEventByID(int ID) {
+        for (int year : summaries.keySet()) {
+            Vector<Event> v = getSegment(year);
+            if (v != null)
+                for (Event e : v)
+                    if (e.getID() == ID)
+                        return e;
+        }
+        return null;
+    }
+
+    /**
+     * Adds the events of a segment to a list, if it can be read.
+     * @param v - List of events
+     * @param year - Year of the segment
+     */
+    private void addSegment(Vector<Event> v, int year) {
+        Vector<Event> segment = getSegment(year);
+        if (segment != null)
+            v.addAll(segment);
+    }
+
+    /**
+     * Returns the events of a segment, decompressed if not cached. A
+     * segment that cannot be read is not cached, so it is neither taken
+     * for empty nor overwritten.
+     * @param year - Year of the segment
+     * @return Events of the segment (not to be modified) or null if the
+     *         segment cannot be read.
+     */
+    private Vector<Event> getSegment(int year) {
+        Vector<Event> v = cache.get(year);
+        if (v != null)
+            return v;
+
+        v = new Vector<Event>();
+        File f = getFile(year);
+        if (f.exists()) {
+            logger.debug("decompress archive segment " + year);
+            XMLParser parser = new XMLParser();
+            try {
+                parser.parse(new InflaterInputStream(new BufferedInputStream(
+                        new FileInputStream(f))), f.getPath(), true);
+                v = parser.getEvents();
+            } catch (CannotParseException e) {
+                logger.error("cannot parse archive segment " + year + ": " + e.getMessage());
+                return null;
+            } catch (IOException e) {
+                logger.error("cannot read archive segment " + year, e);
+                return null;
+            }
+        }
+        putSegment(year, v);
+        return v;
+    }
+
+    /**
+     * Puts a segment into the cache and drops least recently used
+     * segments if the cache is full.
+     * @param year - Year of the segment
+     * @param v - Events of the segment
+     */
+    private void putSegment(int year, Vector<Event> v) {
+        Vector<Event> old = cache.put(year, v);
+        if (old != null)
+            cached -= old.size();
+        cached += v.size();
+
+        Iterator<Map.Entry<Integer, Vector<Event>>> it = cache.entrySet().iterator();
+        while (cached > CACHE_SIZE && it.hasNext()) {
+            Map.Entry<Integer, Vector<Event>> entry = it.next();
+            if (entry.getKey() == year)
+                continue;
+            cached -= entry.getValue().size();
+            it.remove();
+        }
+    }
+
+    /**
+     * Moves events into the archive. Archived events with the same ID
+     * are replaced. Nothing is archived if a segment concerned cannot be
+     * read.
+     * @param events - One-off events to archive
+     * @return True if all segments were written.
+     */
+    public synchronized boolean add(Vector<Event> events) {
+        HashMap<Integer, Vector<Event>> byYear = new HashMap<Integer, Vector<Event>>();
+        for (Event e : events) {
+            int year = e.getDate().get(java.util.Calendar.YEAR);
+            Vector<Event> v = byYear.get(year);
+            if (v == null) {
+                v = new Vector<Event>();
+                byYear.put(year, v);
+            }
+            v.add(e);
+        }
+
+        HashMap<Integer, Vector<Event>> archived = new HashMap<Integer, Vector<Event>>();
+        for (int year : byYear.keySet()) {
+            Vector<Event> v = getSegment(year);
+            if (v == null) {
+                logger.error("archive segment " + year + " cannot be read, nothing archived");
+                return false;
+            }
+            archived.put(year, v);
+        }
+
+        boolean ok = true;
+        for (Map.Entry<Integer, Vector<Event>> entry : byYear.entrySet()) {
+            HashMap<Integer, Event> merged = new HashMap<Integer, Event>();
+            for (Event e : archived.get(entry.getKey()))
+                merged.put(e.getID(), e);
+            for (Event e : entry.getValue())
+                merged.put(e.getID(), e);
+            ok &= writeSegment(entry.getKey(), new Vector<Event>(merged.values()));
+        }
+        for (Event e : events)
+            if (e.getID() >= nextID)
+                nextID = e.getID() + 1;
+        return writeIndex() && ok;
+    }
+
+    /**
+     * Removes an event from the archive (e.g. when edited or deleted).
+     * @param ID - ID of the event
+     * @return Removed event or null if not archived.
+     */
+    public synchronized Event remove(int ID) {
+        for (int year : summaries.keySet()) {
+            Vector<Event> segment = getSegment(year);
+            if (segment == null)
+                continue;
+            for (Event e : segment)
+                if (e.getID() == ID) {
+                    Vector<Event> v = new Vector<Event>(segment);
+                    v.remove(e);
+                    writeSegment(year, v);
+                    writeIndex();
+                    return e;
+                }
+        }
+        return null;
+    }
+
+    /**
+     * Writes a segment and updates its summary. Empty segments are
+     * deleted.
+     * @param year - Year of the segment
+     * @param v - All events of the segment
+     * @return True if written.
+     */
+    private boolean writeSegment(int year, Vector<Event> v) {
+        File f = getFile(year);
+        if (v.isEmpty()) {
+            summaries.remove(year);
+            cached -= cache.containsKey(year) ? cache.remove(year).size() : 0;
+            return !f.exists() || f.delete();
+        }
+
+        if (!dir.exists() && !dir.mkdir()) {
+            logger.error("cannot create " + dir.getPath());
+            return false;
+        }
+
+        File tmp = new File(dir, year + ".z.tmp");
+        try {
+            FileOutputStream stream = new FileOutputStream(tmp);
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                XMLWriter out = new XMLWriter(new BufferedWriter(new OutputStreamWriter(
+                        new DeflaterOutputStream(stream, deflater), Const.ENCODING)));
+                out.writeHeader(0);
+                out.write("  <Events>\n");
+                for (Event e : v)
+                    e.write(out);
+                out.write("  </Events>\n</Calendar>");
+                out.close();
+            } finally {
+                deflater.end();
+                stream.close();
+            }
+            try {
+                Files.move(tmp.toPath(), f.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.error("cannot write archive segment " + year, e);
+            tmp.delete();
+            return false;
+        }
+
+        Summary s = new Summary();
+        s.count = v.size();
+        for (Event e : v) {
+            if (s.first == null || e.getDate().before(s.first))
+                s.first = e.getDate();
+            if (s.last == null || getLastDay(e).after(s.last))
+                s.last = getLastDay(e);
+        }
+        summaries.put(year, s);
+        putSegment(year, v);
+        logger.debug("archive segment " + year + " written: " + v.size() + " events");
+        return true;
+    }
+
+    /**
+     * Writes the index file.
+     * @return True if written.
+     */
+    private boolean writeIndex() {
+        Properties index = new Properties();
+        index.setProperty(NEXT_ID, "" + nextID);
+        for (Map.Entry<Integer, Summary> entry : summaries.entrySet())
+            index.setProperty("" + entry.getKey(), entry.getValue().count + ";"
+                    + entry.getValue().first.dateToString(true) + ";"
+                    + entry.getValue().last.dateToString(true));
+
+        File f = new File(dir, INDEX_FILE);
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                index.store(out, "events per segment: count;first day;last day");
+                out.getChannel().force(true);
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tmp.toPath(), f.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("cannot write archive index", e);
+            return false;
+        }
+    }
+}
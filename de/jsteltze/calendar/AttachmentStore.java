@@ -0,0 +1,562 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar;
+
+import java.awt.Desktop;
+import java.awt.Window;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.config.Const;
+import de.jsteltze.common.ProgressBar;
+
+/**
+ * Store of attached files (copies, not links) of a workspace. Every
+ * content is stored once in Const.BLOB_DIR, named by its SHA-256 hash.
+ * The attachment in the folder of an event is a hard link to the stored
+ * file (a copy where the file system has no hard links), so copying an
+ * event does not copy any bytes. The stored files are read-only, since
+ * they are shared. Before an attachment is opened (and maybe edited),
+ * the event gets a private, writable copy instead of the link (see
+ * open). Which event refers to which content is recorded in
+ * Const.BLOB_INDEX, a content is deleted when no event refers to it
+ * anymore. Files are hashed and copied by one background thread.
+ * @author Johannes Steltzer
+ *
+ */
+public class AttachmentStore {
+
+    /** size of the buffer for copying and hashing */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** files larger than this (bytes) show a progress bar when attached */
+    private static final long PROGRESS_MIN_SIZE = 102400L;
+
+    /** thread hashing and copying files (created on demand) */
+    private static ExecutorService executor;
+
+    /** stores by workspace */
+    private static HashMap<String, AttachmentStore> stores = new HashMap<String, AttachmentStore>();
+
+    /** workspace directory */
+    private String workspace;
+
+    /** directory of the stored files */
+    private File dir;
+
+    /** hash of the attachment by event ID (null until loaded) */
+    private HashMap<Integer, String> refs;
+
+    /** number of events referring to a hash */
+    private HashMap<String, Integer> counts;
+
+    private static Logger logger = Logger.getLogger(AttachmentStore.class);
+
+    /**
+     * Construct a new attachment store.
+     * @param workspace - Workspace directory
+     */
+    private AttachmentStore(String workspace) {
+        this.workspace = workspace;
+        this.dir = new File(workspace + File.separator + Const.BLOB_DIR);
+    }
+
+    /**
+     * Gets the attachment store of a workspace.
+     * @param workspace - Workspace directory
+     * @return Store (created if not yet existing).
+     */
+    public static synchronized AttachmentStore get(String workspace) {
+        AttachmentStore store = stores.get(workspace);
+        if (store == null) {
+            store = new AttachmentStore(workspace);
+            stores.put(workspace, store);
+        }
+        return store;
+    }
+
+    /**
+     *
+     * @return Thread hashing and copying files.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            ThreadPoolExecutor e = new ThreadPoolExecutor(1, 1,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "attach");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            e.allowCoreThreadTimeOut(true);
+            executor = e;
+        }
+        return executor;
+    }
+
+    /**
+     * Reads the references (if not yet read).
+     */
+    private void load() {
+        if (refs != null)
+            return;
+        refs = new HashMap<Integer, String>();
+        counts = new HashMap<String, Integer>();
+
+        File f = new File(dir, Const.BLOB_INDEX);
+        if (!f.exists())
+            return;
+        Properties index = new Properties();
+        try {
+            FileInputStream in = new FileInputStream(f);
+            try {
+                index.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            logger.error("cannot read " + f.getPath(), e);
+            return;
+        }
+        for (Map.Entry<Object, Object> e : index.entrySet())
+            try {
+                addRef(Integer.parseInt((String) e.getKey()), (String) e.getValue());
+            } catch (NumberFormatException ex) {
+                logger.warn("bad entry in " + Const.BLOB_INDEX + ": " + e.getKey());
+            }
+    }
+
+    /**
+     * Writes the references.
+     */
+    private void writeIndex() {
+        Properties index = new Properties();
+        for (Map.Entry<Integer, String> e : refs.entrySet())
+            index.setProperty(String.valueOf(e.getKey()), e.getValue());
+
+        File f = new File(dir, Const.BLOB_INDEX);
+        File tmp = new File(dir, Const.BLOB_INDEX + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                index.store(out, "hash of the attachment per event ID");
+            } finally {
+                out.close();
+            }
+            move(tmp, f);
+        } catch (IOException e) {
+            logger.error("cannot write " + f.getPath(), e);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Records that an event refers to a content.
+     * @param ID - Event ID
+     * @param hash - Hash of the content
+     */
+    private void addRef(int ID, String hash) {
+        if (hash.equals(refs.get(ID)))
+            return;
+        removeRef(ID);
+        refs.put(ID, hash);
+        Integer n = counts.get(hash);
+        counts.put(hash, n == null ? 1 : n + 1);
+    }
+
+    /**
+     * Removes the reference of an event. Deletes the content if no
+     * other event refers to it.
+     * @param ID - Event ID
+     */
+    private void removeRef(int ID) {
+        String hash = refs.remove(ID);
+        if (hash == null)
+            return;
+        Integer n = counts.get(hash);
+        if (n != null && n > 1) {
+            counts.put(hash, n - 1);
+            return;
+        }
+        counts.remove(hash);
+        File blob = new File(dir, hash);
+        blob.setWritable(true);
+        if (!blob.delete())
+            logger.warn("cannot delete " + blob.getPath());
+        else
+            logger.debug("deleted unreferenced content " + hash);
+    }
+
+    /**
+     * Moves a file, atomically if possible.
+     * @param from - Source file
+     * @param to - Destination file (replaced if existing)
+     * @throws IOException
+     */
+    static void move(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Puts a file into the store (copying and hashing it in one pass)
+     * and makes it the attachment of events. The file is copied without
+     * holding the lock of the store; storing the content, linking and
+     * recording the references happen at once holding it, so the content
+     * cannot be deleted in between.
+     * @param orig - File to store
+     * @param pbar - Progress bar or null (updated on the event dispatch thread)
+     * @param IDs - IDs of the events
+     * @param targets - Attachment files within the folders of the events
+     * @return Hash of the file or null if cancelled.
+     * @throws IOException
+     */
+    private String put(File orig, final ProgressBar pbar, int[] IDs, File[] targets)
+            throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.toString());
+        }
+
+        if (!dir.exists() && !dir.mkdir())
+            throw new IOException("cannot create " + dir.getPath());
+        File tmp = File.createTempFile("put", ".tmp", dir);
+        try {
+            FileChannel in = new FileInputStream(orig).getChannel();
+            FileChannel out = new FileOutputStream(tmp).getChannel();
+            try {
+                long length = in.size(), done = 0;
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE,
+                        Math.max(length, 1)));
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    digest.update(buffer.array(), 0, buffer.limit());
+                    done += buffer.limit();
+                    while (buffer.hasRemaining())
+                        out.write(buffer);
+                    buffer.clear();
+                    if (pbar != null) {
+                        final int value = (int) (100 * done / Math.max(length, 1));
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                pbar.setValue(value);
+                            }
+                        });
+                        if (pbar.isCancelled())
+                            return null;
+                    }
+                }
+                out.force(false);
+            } finally {
+                in.close();
+                out.close();
+            }
+
+            StringBuilder hash = new StringBuilder(64);
+            for (byte b : digest.digest())
+                hash.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+            String name = hash.toString();
+
+            synchronized (this) {
+                load();
+                File blob = new File(dir, name);
+                if (!blob.exists()) {
+                    move(tmp, blob);
+                    blob.setReadOnly();
+                }
+                for (int i = 0; i < IDs.length; i++) {
+                    link(name, targets[i]);
+                    addRef(IDs[i], name);
+                }
+                writeIndex();
+            }
+            return name;
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Makes a stored content the attachment of an event: creates a hard
+     * link (or a copy) in the folder of the event.
+     * @param hash - Hash of the content
+     * @param target - Attachment file within the folder of the event
+     * @throws IOException
+     */
+    private void link(String hash, File target) throws IOException {
+        File blob = new File(dir, hash);
+        target.getParentFile().mkdirs();
+        if (target.exists()) {
+            if (Files.isSameFile(target.toPath(), blob.toPath()))
+                return;
+            target.setWritable(true);
+            Files.delete(target.toPath());
+        }
+        try {
+            Files.createLink(target.toPath(), blob.toPath());
+        } catch (UnsupportedOperationException e) {
+            logger.debug("no hard links, copy " + hash);
+            Files.copy(blob.toPath(), target.toPath());
+        } catch (IOException e) {
+            logger.debug("cannot link " + target.getPath() + " (" + e.getMessage() + "), copy");
+            Files.copy(blob.toPath(), target.toPath());
+        }
+    }
+
+    /**
+     * Gets the hash of the stored attachment of an event.
+     * @param ID - Event ID
+     * @return Hash or null if the event has no stored attachment (e.g.
+     *      a link).
+     */
+    public synchronized String getHash(int ID) {
+        load();
+        return refs.get(ID);
+    }
+
+    /**
+     * Attaches a file to an event in background. A progress bar is shown
+     * for large files. Call on the event dispatch thread.
+     * @param caller - Parent window for the progress bar or null
+     * @param orig - File to attach
+     * @param ID - Event ID
+     */
+    public void attach(final Window caller, final File orig, final int ID) {
+        final ProgressBar pbar = orig.length() > PROGRESS_MIN_SIZE && caller != null ?
+                new ProgressBar(caller, "Kopiere \"" + orig.getName() + "\"...", false) : null;
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean failed = false;
+                try {
+                    put(orig, pbar, new int[] {ID}, 
+                            new File[] {getTarget(ID, orig.getName())});
+                } catch (IOException e) {
+                    logger.error("cannot attach " + orig.getPath(), e);
+                    failed = true;
+                }
+                EventFiles.get(workspace).invalidate(ID);
+
+                final boolean showError = failed;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pbar != null)
+                            pbar.close();
+                        if (showError)
+                            JOptionPane.showMessageDialog(caller,
+                                    "Das Kopieren ist fehlgeschlagen!", "Fehler...",
+                                    JOptionPane.ERROR_MESSAGE);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Copies the folder of an event (notes, link and attachment) in
+     * background. The attachment is not copied but linked to the stored
+     * content; an attachment of older versions is put into the store
+     * first.
+     * @param fromID - ID of the event to copy
+     * @param toID - ID of the copy
+     */
+    public void copy(final int fromID, final int toID) {
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                copyFolder(fromID, toID);
+            }
+        });
+    }
+
+    /**
+     * Copies the folder of an event (on the background thread).
+     * @param fromID - ID of the event to copy
+     * @param toID - ID of the copy
+     */
+    private void copyFolder(int fromID, int toID) {
+        File from = new File(workspace + File.separator + Const.EVENT_DIR +
+                File.separator + fromID);
+        File[] files = from.listFiles();
+        if (files == null)
+            return;
+
+        for (File f : files)
+            try {
+                if (EventFiles.isTemporary(f))
+                    continue;
+                File target = getTarget(toID, f.getName());
+                if (f.getName().equals(Const.NOTES_FILE) || f.getName().equals(Const.LINK_FILE)) {
+                    target.getParentFile().mkdirs();
+                    Files.copy(f.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    continue;
+                }
+
+                synchronized (this) {
+                    load();
+                    String hash = refs.get(fromID);
+                    if (hash != null && new File(dir, hash).exists()) {
+                        link(hash, target);
+                        addRef(toID, hash);
+                        writeIndex();
+                        continue;
+                    }
+                }
+                put(f, null, new int[] {fromID, toID}, new File[] {f, target});
+            } catch (IOException e) {
+                logger.error("cannot copy " + f.getPath(), e);
+            }
+        EventFiles.get(workspace).invalidate(toID);
+    }
+
+    /**
+     * Opens the attachment of an event with the associated program in
+     * background. A stored (shared) attachment is replaced by a private,
+     * writable copy first, so editing it changes neither the events
+     * sharing the content nor the stored content.
+     * @param ID - Event ID
+     * @param attachment - Attachment file within the folder of the event
+     */
+    public void open(final int ID, final File attachment) {
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    unshare(ID, attachment);
+                    Desktop.getDesktop().open(attachment);
+                } catch (IOException e) {
+                    logger.error("cannot open attachment " + attachment.getPath(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces the link to the stored content by a private copy and
+     * removes the reference of the event.
+     * @param ID - Event ID
+     * @param attachment - Attachment file within the folder of the event
+     * @throws IOException
+     */
+    private synchronized void unshare(int ID, File attachment) throws IOException {
+        load();
+        if (!refs.containsKey(ID) || !attachment.exists())
+            return;
+
+        File tmp = File.createTempFile("open", ".tmp", attachment.getParentFile());
+        try {
+            Files.copy(attachment.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            tmp.setWritable(true);
+            attachment.setWritable(true);
+            move(tmp, attachment);
+        } finally {
+            tmp.delete();
+        }
+        String hash = refs.get(ID);
+        removeRef(ID);
+        if (counts.containsKey(hash))
+            new File(dir, hash).setReadOnly();
+        writeIndex();
+        EventFiles.get(workspace).invalidate(ID);
+        logger.debug("private copy of the attachment of event " + ID);
+    }
+
+    /**
+     * Moves the reference of an event to its new ID (the folder of the
+     * event has been renamed).
+     * @param fromID - Old ID of the event
+     * @param toID - New ID of the event
+     */
+    public synchronized void renumber(int fromID, int toID) {
+        load();
+        String hash = refs.get(fromID);
+        if (hash == null)
+            return;
+        addRef(toID, hash);
+        removeRef(fromID);
+        writeIndex();
+    }
+
+    /**
+     * Deletes the attachment of an event (not a link). The stored
+     * content is deleted if no other event refers to it.
+     * @param ID - Event ID
+     * @param attachment - Attachment file within the folder of the event
+     * @return True if the attachment was deleted.
+     */
+    public synchronized boolean delete(int ID, File attachment) {
+        attachment.setWritable(true);
+        boolean ok = attachment.delete();
+        load();
+        if (refs.containsKey(ID)) {
+            String hash = refs.get(ID);
+            removeRef(ID);
+            if (counts.containsKey(hash))
+                new File(dir, hash).setReadOnly();
+            writeIndex();
+        }
+        EventFiles.get(workspace).invalidate(ID);
+        return ok;
+    }
+
+    /**
+     *
+     * @param ID - Event ID
+     * @param name - File name
+     * @return File within the folder of the event.
+     */
+    private File getTarget(int ID, String name) {
+        return new File(workspace + File.separator + Const.EVENT_DIR + File.separator +
+                ID + File.separator + name);
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.config.Const;
+import de.jsteltze.common.calendar.Date;
+
+/**
+ * Compact binary copy of the user events of the calendar XML file, which
+ * is loaded through a memory mapped file at startup instead of parsing
+ * the XML file. The XML file stays the master and exchange format; the
+ * binary snapshot is only used if it was written for exactly the XML
+ * file present (same revision, length and modification time).<br><br>
+ *
+ * Layout (big endian):
+ * <li>header (HEADER_SIZE bytes): magic, version, XML length and
+ *     modification time, number of events and strings, offsets of the
+ *     sections, XML revision
+ * <li>string table: offset of each string, then each string as
+ *     length + UTF-8 bytes
+ * <li>event records (RECORD_SIZE bytes each): ID, name index, start
+ *     date, start time, frequency, end date, reminder, index of the
+ *     further reminders (-1 if none)
+ * <li>index: (ID, record number) pairs sorted by ID
+ * @author Johannes Steltzer
+ *
+ */
+public class BinarySnapshot {
+
+    /** file identification "KALB" and format version */
+    private static final int MAGIC = 0x4B414C42, VERSION = 3;
+
+    /** size of the header and of one event record in bytes */
+    private static final int HEADER_SIZE = 64, RECORD_SIZE = 28;
+
+    /** header positions */
+    private static final int POS_XML_LENGTH = 8, POS_XML_MODIFIED = 16,
+            POS_EVENTS = 24, POS_STRINGS = 28, POS_STRING_TABLE = 32,
+            POS_RECORDS = 36, POS_INDEX = 40, POS_XML_REVISION = 44;
+
+    /** charset of the string table */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** mapped snapshot file */
+    private MappedByteBuffer buffer;
+
+    /** number of events and strings */
+    private int numEvents, numStrings;
+
+    /** section offsets */
+    private int stringTable, records, index;
+
+    /** decoded strings (decoded on first access) */
+    private String[] strings;
+
+    private static Logger logger = Logger.getLogger(BinarySnapshot.class);
+
+    /**
+     * Map a binary snapshot.
+     * @param buffer - Mapped file
+     * @throws IOException if the file is no valid snapshot
+     */
+    private BinarySnapshot(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION)
+            throw new IOException("no binary snapshot");
+        numEvents = buffer.getInt(POS_EVENTS);
+        numStrings = buffer.getInt(POS_STRINGS);
+        stringTable = buffer.getInt(POS_STRING_TABLE);
+        records = buffer.getInt(POS_RECORDS);
+        index = buffer.getInt(POS_INDEX);
+        if (numEvents < 0 || numStrings < 0
+                || records + (long) numEvents * RECORD_SIZE > buffer.capacity()
+                || index + (long) numEvents * 8 > buffer.capacity())
+            throw new IOException("binary snapshot truncated");
+        strings = new String[numStrings];
+    }
+
+    /**
+     * Opens the binary snapshot if it belongs to the XML file specified.
+     * @param binFile - Binary snapshot file
+     * @param xmlFile - Calendar XML file
+     * @return Snapshot or null if there is no valid, up-to-date snapshot.
+     */
+    public static BinarySnapshot open(File binFile, File xmlFile) {
+        if (!binFile.exists() || !xmlFile.exists())
+            return null;
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(binFile, "r");
+            FileChannel channel = raf.getChannel();
+            BinarySnapshot snapshot = new BinarySnapshot(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            if (snapshot.buffer.getLong(POS_XML_LENGTH) != xmlFile.length()
+                    || snapshot.buffer.getLong(POS_XML_MODIFIED) != xmlFile.lastModified()
+                    || snapshot.buffer.getLong(POS_XML_REVISION) 
+                        != XMLParser.readRevision(xmlFile.getPath())) {
+                logger.info("binary snapshot outdated");
+                return null;
+            }
+            return snapshot;
+        } catch (IOException e) {
+            logger.warn("cannot use binary snapshot: " + e.toString());
+            return null;
+        } finally {
+            /* the mapping stays valid after closing */
+            if (raf != null)
+                try {
+                    raf.close();
+                } catch (IOException e) {}
+        }
+    }
+
+    /**
+     *
+     * @return Number of events in this snapshot.
+     */
+    public int size() {
+        return numEvents;
+    }
+
+    /**
+     * Returns a string of the string table.
+     * @param i - Index
+     * @return String.
+     */
+    private String getString(int i) {
+        if (strings[i] == null) {
+            int pos = buffer.getInt(stringTable + 4 * i);
+            byte[] bytes = new byte[buffer.getInt(pos)];
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(pos + 4);
+            dup.get(bytes);
+            strings[i] = new String(bytes, UTF8);
+        }
+        return strings[i];
+    }
+
+    /**
+     * Converts a packed date (YYYYMMDD) to a date.
+     * @param packed - Packed date
+     * @return Date object.
+     */
+    private static Date unpackDate(int packed) {
+        return new Date(packed / 10000, (packed / 100) % 100 - 1, packed % 100);
+    }
+
+    /**
+     * Converts a date to a packed date (YYYYMMDD).
+     * @param d - Date
+     * @return Packed date.
+     */
+    private static int packDate(Date d) {
+        return d.get(java.util.Calendar.YEAR) * 10000
+            + (d.get(java.util.Calendar.MONTH) + 1) * 100
+            + d.get(java.util.Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Creates the event of a record.
+     * @param i - Record number
+     * @return Event object.
+     */
+    public Event getEvent(int i) {
+        int pos = records + i * RECORD_SIZE;
+        Date start = unpackDate(buffer.getInt(pos + 8));
+        short time = buffer.getShort(pos + 12);
+        if (time >= 0) {
+            start.set(java.util.Calendar.HOUR_OF_DAY, time / 60);
+            start.set(java.util.Calendar.MINUTE, time % 60);
+            start.setHasTime(true);
+        }
+        else
+            start.setHasTime(false);
+        int end = buffer.getInt(pos + 16);
+
+        Event e = new Event(start, end == 0 ? null : unpackDate(end),
+                getString(buffer.getInt(pos + 4)), Event.HOLIDAY_NONE,
+                buffer.getShort(pos + 14), buffer.get(pos + 20), buffer.getInt(pos));
+        int reminders = buffer.getInt(pos + 24);
+        if (reminders != -1)
+            e.setReminders(Event.parseOffsets(getString(reminders)));
+        return e;
+    }
+
+    /**
+     * Looks up an event by its ID (binary search on the index).
+     * @param ID - Event ID
+     * @return Event or null if there is no event with this ID.
+     */
+    public Event getEventByID(int ID) {
+        int low = 0, high = numEvents - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midID = buffer.getInt(index + mid * 8);
+            if (midID < ID)
+                low = mid + 1;
+            else if (midID > ID)
+                high = mid - 1;
+            else
+                return getEvent(buffer.getInt(index + mid * 8 + 4));
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @return All events of this snapshot (in the order of the XML file).
+     */
+    public Vector<Event> getEvents() {
+        Vector<Event> events = new Vector<Event>(numEvents);
+        for (int i = 0; i < numEvents; i++)
+            events.add(getEvent(i));
+        return events;
+    }
+
+    /**
+     * Adds a string to the string table (if not yet contained).
+     * @param str - String
+     * @param stringIndex - Index of each string contained
+     * @param stringBytes - UTF-8 bytes of each string contained
+     * @return Index of the string.
+     */
+    private static int intern(String str, HashMap<String, Integer> stringIndex,
+            Vector<byte[]> stringBytes) {
+        Integer si = stringIndex.get(str);
+        if (si == null) {
+            si = stringBytes.size();
+            stringIndex.put(str, si);
+            stringBytes.add(str.getBytes(UTF8));
+        }
+        return si;
+    }
+
+    /**
+     * Writes a binary snapshot of the events specified. Must be called
+     * while the XML file is still locked after writing it, since the
+     * snapshot is bound to its revision, length and modification time.
+     * @param events - Events to write (events without ID are skipped)
+     * @param binFile - Binary snapshot file to write
+     * @param xmlLength - Length of the XML file containing the same events
+     * @param xmlModified - Modification time of this XML file
+     * @param xmlRevision - Revision of this XML file
+     * @return True if the snapshot was written.
+     */
+    public static boolean write(Vector<Event> events, File binFile, long xmlLength,
+            long xmlModified, long xmlRevision) {
+        /*
+         * Collect events and strings
+         */
+        Vector<Event> toWrite = new Vector<Event>(events.size());
+        for (Event e : events)
+            if (e.getID() != -1)
+                toWrite.add(e);
+        int n = toWrite.size();
+
+        HashMap<String, Integer> stringIndex = new HashMap<String, Integer>();
+        Vector<byte[]> stringBytes = new Vector<byte[]>();
+        int[] nameIndex = new int[n], remindersIndex = new int[n];
+        for (int i = 0; i < n; i++) {
+            Event e = toWrite.elementAt(i);
+            String reminders = e.getRemindersAsString();
+            nameIndex[i] = intern(e.getName(), stringIndex, stringBytes);
+            remindersIndex[i] = reminders.isEmpty() ? -1 :
+                intern(reminders, stringIndex, stringBytes);
+        }
+        int stringData = 0;
+        for (byte[] b : stringBytes)
+            stringData += 4 + b.length;
+
+        int stringTable = HEADER_SIZE;
+        int recordsPos = stringTable + 4 * stringBytes.size() + stringData;
+        int indexPos = recordsPos + n * RECORD_SIZE;
+        ByteBuffer out = ByteBuffer.allocate(indexPos + n * 8);
+
+        /*
+         * Header
+         */
+        out.putInt(0, MAGIC);
+        out.putInt(4, VERSION);
+        out.putLong(POS_XML_LENGTH, xmlLength);
+        out.putLong(POS_XML_MODIFIED, xmlModified);
+        out.putInt(POS_EVENTS, n);
+        out.putInt(POS_STRINGS, stringBytes.size());
+        out.putInt(POS_STRING_TABLE, stringTable);
+        out.putInt(POS_RECORDS, recordsPos);
+        out.putInt(POS_INDEX, indexPos);
+        out.putLong(POS_XML_REVISION, xmlRevision);
+
+        /*
+         * String table
+         */
+        int pos = stringTable + 4 * stringBytes.size();
+        for (int i = 0; i < stringBytes.size(); i++) {
+            byte[] b = stringBytes.elementAt(i);
+            out.putInt(stringTable + 4 * i, pos);
+            out.putInt(pos, b.length);
+            out.position(pos + 4);
+            out.put(b);
+            pos += 4 + b.length;
+        }
+
+        /*
+         * Event records
+         */
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            Event e = toWrite.elementAt(i);
+            pos = recordsPos + i * RECORD_SIZE;
+            out.putInt(pos, e.getID());
+            out.putInt(pos + 4, nameIndex[i]);
+            out.putInt(pos + 8, packDate(e.getDate()));
+            out.putShort(pos + 12, (short) (e.getDate().hasTime() ?
+                    e.getDate().get(java.util.Calendar.HOUR_OF_DAY) * 60
+                    + e.getDate().get(java.util.Calendar.MINUTE) : -1));
+            out.putShort(pos + 14, e.getFrequency());
+            out.putInt(pos + 16, e.getEndDate() == null ? 0 : packDate(e.getEndDate()));
+            out.put(pos + 20, (byte) e.getRemind());
+            out.putInt(pos + 24, remindersIndex[i]);
+            order[i] = i;
+        }
+
+        /*
+         * Index sorted by ID
+         */
+        final Vector<Event> sorted = toWrite;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                int id1 = sorted.elementAt(i1).getID(), id2 = sorted.elementAt(i2).getID();
+                return id1 < id2 ? -1 : (id1 > id2 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < n; i++) {
+            out.putInt(indexPos + i * 8, toWrite.elementAt(order[i]).getID());
+            out.putInt(indexPos + i * 8 + 4, order[i]);
+        }
+
+        /*
+         * Write to temporary file and replace the snapshot
+         */
+        File tmp = new File(binFile.getPath() + ".tmp");
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(tmp, "rw");
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            out.clear();
+            while (out.hasRemaining())
+                channel.write(out);
+            channel.force(true);
+            raf.close();
+            raf = null;
+            try {
+                Files.move(tmp.toPath(), binFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), binFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            /* not fatal, the XML file will be parsed next time */
+            logger.warn("cannot write binary snapshot: " + e.toString());
+            tmp.delete();
+            return false;
+        } finally {
+            if (raf != null)
+                try {
+                    raf.close();
+                } catch (IOException e) {}
+        }
+    }
+}
@@ -0,0 +1,492 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.config.Configuration;
+import de.jsteltze.calendar.config.Const;
+import de.jsteltze.calendar.exceptions.CannotParseException;
+import de.jsteltze.common.calendar.Date;
+
+/**
+ * Parser for CSV files (e.g. exported by a spreadsheet) with the columns
+ * name, date, time, end date, frequency and reminder. Only name and date
+ * are required. Fields are separated by semicolon, comma or tab (detected
+ * by the first line), a first line not containing a date is skipped as
+ * header.<br>
+ * The file is read record by record, every CHUNK_SIZE records are
+ * validated and converted in parallel while reading goes on. Events
+ * keep the order of the file.
+ * @author Johannes Steltzer
+ *
+ */
+public class CSVParser {
+
+    /** number of records converted by one task */
+    private static final int CHUNK_SIZE = 1024;
+
+    /** maximum number of invalid records listed in the error message */
+    private static final int MAX_ERRORS_SHOWN = 10;
+
+    /** patterns of time and date fields */
+    private static final Pattern TIME = Pattern.compile("(\\d{1,2})[:\\.](\\d{2})"),
+            DATE = Pattern.compile("(\\d{1,2})\\.(\\d{1,2})\\.(\\d{4})"),
+            DATE_ISO = Pattern.compile("(\\d{4})-(\\d{1,2})-(\\d{1,2})");
+
+    /** pool for converting records in parallel (created on demand) */
+    private static ForkJoinPool pool;
+
+    /** parsed events */
+    private Vector<Event> events;
+
+    /** invalid records */
+    private Vector<String> errors;
+
+    /** file parsed */
+    private String file;
+
+    /** field separator */
+    private char separator;
+
+    private static Logger logger = Logger.getLogger(CSVParser.class);
+
+    /**
+     * Records of a chunk and the events converted from them.
+     */
+    private static class Chunk
+        extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /** records (fields) and their line numbers */
+        private ArrayList<String[]> records;
+        private ArrayList<Integer> lines;
+
+        /** converted events (null for invalid records) */
+        private Event[] parsed;
+
+        /** error of each invalid record */
+        private String[] bad;
+
+        /**
+         * Construct a new chunk.
+         */
+        Chunk() {
+            this.records = new ArrayList<String[]>(CHUNK_SIZE);
+            this.lines = new ArrayList<Integer>(CHUNK_SIZE);
+        }
+
+        @Override
+        protected void compute() {
+            parsed = new Event[records.size()];
+            bad = new String[records.size()];
+            for (int i = 0; i < parsed.length; i++)
+                try {
+                    parsed[i] = convert(records.get(i));
+                } catch (CannotParseException e) {
+                    bad[i] = "Zeile " + lines.get(i) + ": " + e.getMessage();
+                }
+        }
+    }
+
+    /**
+     * Construct a new CSV parser.
+     * Call .parse to start parsing.
+     */
+    public CSVParser() {
+        this.events = new Vector<Event>();
+        this.errors = new Vector<String>();
+        this.separator = ';';
+    }
+
+    /**
+     * Imports all events of a CSV file into a calendar at once. Events
+     * existing already (same date, time and name) are skipped, invalid
+     * records are listed in one error message.
+     * @param file - File to read
+     * @param caller - Calendar to add the events to
+     * @return Number of events imported.
+     * @throws IOException
+     */
+    public static int read(String file, Calendar caller) throws IOException {
+        CSVParser parser = new CSVParser();
+        parser.parse(file);
+
+        HashSet<String> known = new HashSet<String>();
+        for (Event e : new Vector<Event>(caller.getAllEvents()))
+            known.add(e.getKey());
+        Vector<Event> v = new Vector<Event>();
+        for (Event e : parser.getEvents())
+            if (known.add(e.getKey()))
+                v.add(e);
+
+        caller.addEventsAndWait(v);
+        parser.showErrorMessage();
+        logger.info(v.size() + " events imported from " + file);
+        return v.size();
+    }
+
+    /**
+     * Parses a CSV file.
+     * @param file - File path to parse
+     * @throws IOException
+     */
+    public void parse(String file) throws IOException {
+        this.file = file;
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), Const.ENCODING));
+        ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+        try {
+            String line = in.readLine();
+            if (line == null)
+                return;
+            if (line.length() > 0 && line.charAt(0) == 0xfeff)
+                line = line.substring(1);
+            separator = detectSeparator(line);
+
+            int lineNo = 1;
+            Chunk chunk = new Chunk();
+            boolean first = true;
+            while (line != null) {
+                int start = lineNo;
+
+                /* quoted fields might span several lines */
+                StringBuilder record = new StringBuilder(line);
+                while (isQuoteOpen(record) && (line = in.readLine()) != null) {
+                    record.append('\n').append(line);
+                    lineNo++;
+                }
+
+                String[] fields = split(record.toString());
+                if (first && fields.length > 1 && !fields[1].trim().matches("[\\d\\.\\-]+"))
+                    logger.debug("skip header: " + record);
+                else if (record.toString().trim().length() > 0) {
+                    chunk.records.add(fields);
+                    chunk.lines.add(start);
+                    if (chunk.records.size() == CHUNK_SIZE) {
+                        getPool().execute(chunk);
+                        chunks.add(chunk);
+                        chunk = new Chunk();
+                    }
+                }
+                first = false;
+                line = in.readLine();
+                lineNo++;
+            }
+            chunk.invoke();
+            chunks.add(chunk);
+        } finally {
+            in.close();
+
+            /* collect in order of the file */
+            for (Chunk c : chunks) {
+                c.join();
+                for (int i = 0; i < c.parsed.length; i++)
+                    if (c.parsed[i] != null)
+                        events.add(c.parsed[i]);
+                    else
+                        errors.add(c.bad[i]);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param line - First line
+     * @return Separator occurring most often in the first line.
+     */
+    private static char detectSeparator(String line) {
+        char best = ';';
+        int max = 0;
+        for (char c : new char[] {';', ',', '\t'}) {
+            int num = 0;
+            for (int i = 0; i < line.length(); i++)
+                if (line.charAt(i) == c)
+                    num++;
+            if (num > max) {
+                max = num;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     *
+     * @param record - Record read so far
+     * @return True if a quoted field is not closed yet.
+     */
+    private static boolean isQuoteOpen(CharSequence record) {
+        boolean open = false;
+        for (int i = 0; i < record.length(); i++)
+            if (record.charAt(i) == '"')
+                open = !open;
+        return open;
+    }
+
+    /**
+     * Splits a record into fields. Quotes are removed, doubled quotes
+     * within quoted fields are unescaped.
+     * @param record - Record
+     * @return Fields.
+     */
+    private String[] split(String record) {
+        ArrayList<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                }
+                else
+                    quoted = !quoted;
+            }
+            else if (c == separator && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else
+                field.append(c);
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * Converts a record into an event.
+     * @param fields - Name, date, time, end date, frequency, reminder
+     * @return Event (without ID).
+     * @throws CannotParseException if the record is invalid
+     */
+    private static Event convert(String[] fields) throws CannotParseException {
+        String name = get(fields, 0).replace('\n', ' ');
+        if (name.length() == 0)
+            throw new CannotParseException("Name fehlt.");
+
+        Date date = parseDate(get(fields, 1));
+        String time = get(fields, 2);
+        if (time.length() > 0) {
+            Matcher m = TIME.matcher(time);
+            if (!m.matches())
+                throw new CannotParseException("Uhrzeit \"" + time + "\" ungltig.");
+            int hour = Integer.parseInt(m.group(1));
+            int min = Integer.parseInt(m.group(2));
+            if (hour > 23 || min > 59)
+                throw new CannotParseException("Uhrzeit \"" + time + "\" ungltig.");
+            date = new Date(date.get(java.util.Calendar.YEAR), date.get(java.util.Calendar.MONTH),
+                    date.get(java.util.Calendar.DAY_OF_MONTH), hour, min);
+        }
+
+        Date endDate = null;
+        if (get(fields, 3).length() > 0) {
+            endDate = parseDate(get(fields, 3));
+            if (endDate.dayDiff(date) < 0)
+                throw new CannotParseException("Enddatum liegt vor dem Datum.");
+            if (endDate.dayDiff(date) == 0)
+                endDate = null;
+        }
+
+        short frequency = parseFrequency(get(fields, 4));
+        if (frequency != Frequency.OCCUR_ONCE && endDate != null)
+            throw new CannotParseException("Mehrtgige Ereignisse knnen sich nicht wiederholen.");
+
+        return new Event(date, endDate, name, Event.HOLIDAY_NONE, frequency,
+                parseReminder(get(fields, 5)), -1);
+    }
+
+    /**
+     *
+     * @param fields - Fields of a record
+     * @param index - Column
+     * @return Trimmed field or "" if missing.
+     */
+    private static String get(String[] fields, int index) {
+        return index < fields.length ? fields[index].trim() : "";
+    }
+
+    /**
+     * Parses a date of the form DD.MM.YYYY or YYYY-MM-DD.
+     * @param s - Field
+     * @return Date.
+     * @throws CannotParseException if invalid
+     */
+    private static Date parseDate(String s) throws CannotParseException {
+        int day, month, year;
+        Matcher m = DATE.matcher(s);
+        Matcher iso = DATE_ISO.matcher(s);
+        if (m.matches()) {
+            day = Integer.parseInt(m.group(1));
+            month = Integer.parseInt(m.group(2));
+            year = Integer.parseInt(m.group(3));
+        }
+        else if (iso.matches()) {
+            year = Integer.parseInt(iso.group(1));
+            month = Integer.parseInt(iso.group(2));
+            day = Integer.parseInt(iso.group(3));
+        }
+        else
+            throw new CannotParseException("Datum \"" + s + "\" ungltig.");
+
+        Date date = new Date(year, month - 1, day);
+        if (date.get(java.util.Calendar.MONTH) != month - 1 ||
+                date.get(java.util.Calendar.DAY_OF_MONTH) != day)
+            throw new CannotParseException("Datum \"" + s + "\" existiert nicht.");
+        return date;
+    }
+
+    /**
+     * Parses a frequency, e.g. "jhrlich", "wchentlich, monatlich",
+     * "alle 2 Wochen" or "Monatsende".
+     * @param s - Field
+     * @return Frequency code (see Frequency).
+     * @throws CannotParseException if invalid
+     */
+    private static short parseFrequency(String s) throws CannotParseException {
+        s = s.toLowerCase().replace("(", "").replace(")", "").trim();
+        if (s.length() == 0 || s.equals("einmalig") || s.equals("once"))
+            return Frequency.OCCUR_ONCE;
+        if (s.contains("monatsende"))
+            return Frequency.OCCUR_BY_MONTHEND;
+
+        String[] words = s.split("[\\s,+/]+");
+        if (words.length == 3 && words[0].matches("alle|aller|every") && words[1].matches("\\d{1,4}")) {
+            int interval = Integer.parseInt(words[1]);
+            if (interval < 1 || interval > 1024)
+                throw new CannotParseException("Intervall \"" + s + "\" ungltig.");
+            String[] units = {"tag", "woche", "monat", "jahr"};
+            String[] unitsEn = {"day", "week", "month", "year"};
+            for (int unit = 0; unit < units.length; unit++)
+                if (words[2].startsWith(units[unit]) || words[2].startsWith(unitsEn[unit]))
+                    return Frequency.genByInterval(interval, unit);
+        }
+
+        boolean w = false, m = false, y = false;
+        for (String word : words) {
+            if (word.startsWith("wchentl") || word.equals("weekly"))
+                w = true;
+            else if (word.startsWith("monatl") || word.equals("monthly"))
+                m = true;
+            else if (word.startsWith("jhrl") || word.equals("yearly"))
+                y = true;
+            else
+                throw new CannotParseException("Wiederholung \"" + s + "\" unbekannt.");
+        }
+        return Frequency.bool2short(w, m, y);
+    }
+
+    /**
+     * Parses a reminder, either in minutes or as text (e.g. "1h" or
+     * "1 Tag vorher").
+     * @param s - Field
+     * @return Reminder (see Event.REMIND_XXX), default if empty.
+     * @throws CannotParseException if invalid
+     */
+    private static byte parseReminder(String s) throws CannotParseException {
+        if (s.length() == 0)
+            return Configuration.defaultConfig.getReminder();
+        if (s.matches("\\d+"))
+            try {
+                return Event.getReminderByMinutes(Integer.parseInt(s));
+            } catch (NumberFormatException e) {
+                throw new CannotParseException("Erinnerung \"" + s + "\" ungltig.");
+            }
+        if (s.equalsIgnoreCase("nie"))
+            return Event.NO_REMIND;
+        for (byte i = 0; i < Event.NUMBER_REMINDS; i++)
+            if (s.equalsIgnoreCase(Event.getReminderAsString(i, true)) ||
+                    s.equalsIgnoreCase(Event.getReminderAsString(i, false)))
+                return i;
+        throw new CannotParseException("Erinnerung \"" + s + "\" unbekannt.");
+    }
+
+    /**
+     *
+     * @return Pool for converting in parallel.
+     */
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null)
+            pool = new ForkJoinPool();
+        return pool;
+    }
+
+    /**
+     * Shows one error message listing the records that could not be
+     * converted (if any). The message is shown on the event dispatch
+     * thread, so this may be called while importing in background.
+     */
+    public void showErrorMessage() {
+        if (errors.isEmpty())
+            return;
+        logger.warn(errors.size() + " records of " + file + " skipped");
+
+        String lines = "";
+        for (int i = 0; i < errors.size() && i < MAX_ERRORS_SHOWN; i++)
+            lines += errors.get(i) + "\n";
+        if (errors.size() > MAX_ERRORS_SHOWN)
+            lines += "...\n";
+
+        boolean single = errors.size() == 1;
+        final String msg = (single ? "Der folgende Eintrag " :
+                "Die folgenden " + errors.size() + " Eintrge ") + "aus der Datei \""
+                + file + "\" " + (single ? "ist" : "sind") + " ungltig und "
+                + (single ? "wird" : "werden") + " bersprungen:\n" + lines;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                JOptionPane.showMessageDialog(null, msg, "Fehler beim Lesen...",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+
+    /**
+     *
+     * @return Parsed events (without IDs).
+     */
+    public Vector<Event> getEvents() {
+        return this.events;
+    }
+
+    /**
+     *
+     * @return Records which could not be converted.
+     */
+    public Vector<String> getErrors() {
+        return this.errors;
+    }
+}
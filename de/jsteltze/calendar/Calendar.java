@@ -19,17 +19,33 @@
 package de.jsteltze.calendar;
 
 import java.awt.Dimension;
-import java.io.BufferedWriter;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Timer;
-import java.util.TimerTask;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.Level;
@@ -48,10 +64,16 @@ import de.jsteltze.calendar.frames.EditEvent;
 import de.jsteltze.calendar.frames.Notification;
 import de.jsteltze.calendar.frames.TableOfEventsSingleDay;
 import de.jsteltze.calendar.frames.TableOfNotifications;
+import de.jsteltze.calendar.tasks.AlarmScheduler;
 import de.jsteltze.calendar.tasks.AlarmTask;
 import de.jsteltze.calendar.tasks.AutoUpdateTask;
+import de.jsteltze.calendar.tasks.PollTask;
+import de.jsteltze.calendar.tasks.ReminderPlanner;
+import de.jsteltze.calendar.tasks.SaveTask;
 import de.jsteltze.calendar.tasks.SingletonTask;
-import de.jsteltze.common.Copy;
+import de.jsteltze.calendar.tasks.WatchTask;
+import de.jsteltze.common.Clock;
+import de.jsteltze.common.ClockListener;
 import de.jsteltze.common.Math;
 import de.jsteltze.common.Trans;
 import de.jsteltze.common.calendar.Date;
@@ -73,10 +95,12 @@ public class Calendar {
     private Date viewedDate;
 
     /**
-     * List of AlarmTasks that will pop up soon for notifying (timer thread is
-     * started already).
+     * Scheduler of the AlarmTasks that will pop up soon for notifying.
      */
-    private Vector<AlarmTask> pendingAlarms;
+    private AlarmScheduler alarms;
+
+    /** Planner of the reminders of all events. */
+    private ReminderPlanner planner;
 
     /** List of open notifications (actual frames waiting for user input). */
     private Vector<Notification> notis;
@@ -93,14 +117,14 @@ public class Calendar {
     /** True if application is yet fully started and everything loaded. */
     private boolean fullyLaunched;
 
-    /** Refresh date and notifications at midnight. */
-    private Timer refreshAtMidnight; 
-    
     /**
      * Make sure this application is only launched once in order
      * to prevent inconsistency.
      */
-    private SingletonTask singletonThread;
+    private SingletonTask singletonTask;
+    
+    /** Looks for the maximize file each second if the workspace cannot be watched. */
+    private javax.swing.Timer maximizeTimer;
     
     /** Auto update timer. */
     private Timer autoUpdateTimer;
@@ -111,9 +135,72 @@ public class Calendar {
     /** Working directory (not changeable). */
     private String workspace;
     
+    /** change journal next to the XML file (null in applet mode) */
+    private Journal journal;
+    
+    /** thread for saving in background (null in applet mode) */
+    private SaveTask saveTask;
+    
+    /** thread watching the workspace for external changes (null in applet mode) */
+    private WatchTask watchTask;
+    
+    /** modification time and length of the xml-file as last read or written */
+    private volatile long xmlModified, xmlLength;
+    
+    /** revision of the xml-file as last read or written */
+    private long xmlRevision;
+    
+    /** events (by ID) as in the xml-file last read or written, for merging */
+    private HashMap<Integer, Event> savedEvents;
+    
+    /** lock for writing the xml-file and for xmlRevision and savedEvents */
+    private final Object saveLock = new Object();
+    
+    /** year segments (null unless events are stored in segments) */
+    private SegmentStore segments;
+    
+    /** archive of past events (null unless archived events exist or archiving is enabled) */
+    private Archive archive;
+    
+    /** event database (null unless events are stored in the database) */
+    private EventDatabase database;
+    
+    /** database server (null unless this calendar offers its database) */
+    private DatabaseServer server;
+    
+    /** database version known (for polling changes) */
+    private volatile long databaseVersion;
+    
+    /** timer for polling changes of a shared database */
+    private Timer pollTimer;
+    
+    /** thread writing changes to the database (created on demand) */
+    private ExecutorService databaseWriter;
+    
+    /** 
+     * local events not stored on the database server, to be written
+     * to Const.LOCAL_XMLFILE (null if none)
+     */
+    private Vector<Event> localEvents;
+    
     /** Command line arguments used. */
     private static String[] cmdArgs;
     
+    /**
+     * Copy of the events and settings taken for saving in background.
+     */
+    public static class Snapshot {
+        /** copy of all events */
+        private Vector<Event> events;
+        /** copy of the configuration */
+        private Configuration config;
+        /** generation of the journal rotated when copying (0 if none) */
+        private long generation;
+        /** segment store and its number of marks when copying (null if none) */
+        private SegmentStore segments;
+        private long segmentMarks;
+    }
+    
     private static Logger logger;
 
     /**
@@ -129,7 +216,8 @@ public class Calendar {
         this.viewedDate = new Date();
         this.firstStartup = false;
         this.fullyLaunched = false;
-        this.pendingAlarms = new Vector<AlarmTask>();
+        this.alarms = new AlarmScheduler();
+        this.planner = new ReminderPlanner(this, alarms);
         this.events = new Vector<Event>();
         this.notis = new Vector<Notification>();
         this.appletMode = asApplet;
@@ -137,6 +225,7 @@ public class Calendar {
         this.workspace = workspace;
 
         CalendarFrame mainFrame = null;
+        boolean archived = false;
         
         if (!asApplet) {
             /*
@@ -146,8 +235,21 @@ public class Calendar {
             XMLParser parser = new XMLParser();
     
             try {
-                parser.parse(getPath(Const.XMLFILE));
-                events = parser.getEvents();
+                /*
+                 * Use the binary snapshot if it matches the xml file,
+                 * then only the config section needs to be parsed
+                 */
+                BinarySnapshot snapshot = BinarySnapshot.open(
+                        new File(getPath(Const.BINFILE)), new File(getPath(Const.XMLFILE)));
+                if (snapshot != null) {
+                    logger.debug("load " + snapshot.size() + " events from binary snapshot");
+                    parser.parse(getPath(Const.XMLFILE), false);
+                    events = snapshot.getEvents();
+                }
+                else {
+                    parser.parse(getPath(Const.XMLFILE));
+                    events = parser.getEvents();
+                }
             } catch (CannotParseException e) {
                 JOptionPane.showMessageDialog(gui.getFrame(), 
                         Trans.getMessage("errorMessageCannotParseXML", new String[] {getPath(Const.XMLFILE), e.getMessage()}),
@@ -159,6 +261,20 @@ public class Calendar {
             }
 
             this.config = parser.getConfig();
+            this.xmlRevision = parser.getRevision();
+            rememberSavedEvents(events);
+            
+            /*
+             * Replay changes not yet folded into the xml file
+             */
+            journal = new Journal(this);
+            journal.replay(events);
+            
+            if (this.config.getStorage() == Configuration.STORAGE_SEGMENTS)
+                openSegments(true);
+            else if (this.config.getStorage() != Configuration.STORAGE_XML)
+                openDatabase(true);
+            archived = openArchive();
     
             mainFrame = new CalendarFrame(size, view == Configuration.VIEW_DEFAULT ? 
                     this.config.getView() : view, this);
@@ -204,31 +320,67 @@ public class Calendar {
              */
             for (Event e : events) {
                 logger.debug("check event: " + e.getName());
-                long notifyTimer = checkNotification(e);
-                if (notifyTimer == 0) {
+                if (planner.isDue(e)) {
                     logger.debug("notify!");
                     events2notify.add(e);
                 }
-                else if (notifyTimer != -1) {
-                    logger.debug("set timer for: " + e.getName());
-                    Timer timer = new Timer(true);
-                    timer.schedule(new AlarmTask(this, e), notifyTimer);
-                }
+                planner.plan(e);
             }
+            planner.start();
             gui.updateStatusBar();
             gui.update();
     
             /*
-             * Refresh at midnight (task)
+             * Refresh at midnight
+             */
+            Clock.get().addListener(new ClockListener() {
+                private Date today = new Date();
+                
+                @Override
+                public void minuteChanged(Date now) {
+                    if (now.sameDateAs(today))
+                        return;
+                    today = now;
+                    gui.update();
+                }
+            });
+            
+            singletonTask = new SingletonTask(mainFrame);
+            singletonTask.checkMaximize();
+            
+            saveTask = new SaveTask(this);
+            saveTask.start();
+            
+            /*
+             * Index the files of events in background
              */
-            Date midnight = new Date(0, 0);
-            midnight.add(java.util.Calendar.DAY_OF_MONTH, 1);
-            refreshAtMidnight = new Timer(true);
-            refreshAtMidnight.schedule(new RefreshTask(gui),
-                    midnight.minDiff(viewedDate) * 60 * 1000 + 10 * 1000);
+            Thread indexThread = new Thread("index") {
+                @Override
+                public void run() {
+                    EventFiles.get(workspace).loadAll();
+                }
+            };
+            indexThread.setDaemon(true);
+            indexThread.setPriority(Thread.MIN_PRIORITY);
+            indexThread.start();
             
-            singletonThread = new SingletonTask(mainFrame);
-            singletonThread.start();
+            /*
+             * Watch the workspace for changes made by other programs
+             */
+            rememberXMLFile();
+            try {
+                watchTask = new WatchTask(this);
+                watchTask.start();
+            } catch (IOException e) {
+                logger.warn("cannot watch workspace: " + e.getMessage());
+                maximizeTimer = new javax.swing.Timer(1000, new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent a) {
+                        singletonTask.checkMaximize();
+                    }
+                });
+                maximizeTimer.start();
+            }
             
             /*
              * Start auto update after 5 minutes
@@ -246,12 +398,19 @@ public class Calendar {
                 @Override
                 public void run() {
                     logger.info("shutdown, remove lock, cancel all tasks");
+                    if (watchTask != null)
+                        watchTask.stopit();
+                    if (saveTask != null) {
+                        saveTask.stopit();
+                        saveTask.flush();
+                    }
+                    EventFiles.flush();
+                    closeDatabase();
+                    if (singletonTask != null)
+                        singletonTask.stopit();
                     lockFile.delete();
                     gui.shutdown();
-                    if (singletonThread != null)
-                        singletonThread.stopit();
-                    for (AlarmTask at : pendingAlarms)
-                        at.cancel();
+                    alarms.shutdown();
                     if (autoUpdateTimer != null);
                         autoUpdateTimer.cancel();
                 }
@@ -266,6 +425,11 @@ public class Calendar {
         
         fullyLaunched = true;
         logger.info("calendar started");
+        
+        /* fold replayed changes (and removal of archived events) into a new xml file */
+        if (archived || (journal != null && journal.size() > 0))
+            save();
+        keepLocalEvents();
     }
 
     /**
@@ -543,41 +707,55 @@ public class Calendar {
      */
     public void setViewedDate(Date x) {
         this.viewedDate = x;
+        if (segments != null)
+            loadSegments(x);
     }
 
     /**
      * 
-     * @return List of running alarm tasks.
+     * @return List of running alarm tasks (ordered by the time they fire).
      */
     public Vector<AlarmTask> getAlarmTasks() {
-        return pendingAlarms;
+        return alarms.getAlarms();
     }
 
     /**
-     * Add an alarm task to the list of running alarm tasks.
-     * If there is already a task with for the same event, this
+     * 
+     * @return Number of running alarm tasks.
+     */
+    public int getNumberOfAlarmTasks() {
+        return alarms.size();
+    }
+
+    /**
+     * 
+     * @return Scheduler of the running alarm tasks.
+     */
+    public AlarmScheduler getAlarmScheduler() {
+        return alarms;
+    }
+
+    /**
+     * 
+     * @return Planner of the reminders of all events.
+     */
+    public ReminderPlanner getReminderPlanner() {
+        return planner;
+    }
+
+    /**
+     * Schedule an alarm task set by the user.
+     * If there is already a task for the same event, this
      * task will be replaced.
      * @param x - AlarmTask to add
+     * @param delay - Delay in milliseconds
      */
-    public void addAlarmTask(AlarmTask x) {
+    public void addAlarmTask(AlarmTask x, long delay) {
         logger.debug("[addPendingEvent] " + x.getEvent().getName());
-        if (pendingAlarms.contains(x))
-            return;
-        
-        /* remove duplicate alarm task */
-        int i, size = pendingAlarms.size();
-        for (i = 0; i < size; i++)
-            if (pendingAlarms.get(i).getEvent().equals(x.getEvent())) {
-                pendingAlarms.get(i).cancel();
-                pendingAlarms.remove(i);
-                gui.putMessage(Trans.getMessage("guiMessageAlarmChanged", new String[] {x.getEvent().getName()}));
-                break;
-            }
-        
-        if (i == size)
+        if (alarms.schedule(x, delay) != null)
+            gui.putMessage(Trans.getMessage("guiMessageAlarmChanged", new String[] {x.getEvent().getName()}));
+        else
             gui.putMessage(Trans.getMessage("guiMessageAlarmSet", new String[] {x.getEvent().getName()}));
-        
-        pendingAlarms.add(x);
         gui.updateStatusBar();
     }
 
@@ -587,8 +765,13 @@ public class Calendar {
      * @param x - AlarmTask to remove
      */
     public void removeAlarmTask(AlarmTask x) {
-        pendingAlarms.remove(x);
-        gui.updateStatusBar();
+        alarms.remove(x);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                gui.updateStatusBar();
+            }
+        });
     }
     
     /**
@@ -666,9 +849,9 @@ public class Calendar {
         cmdArgs = args;
         
         /*
-         * Check if lock file exists
+         * Check if lock file is locked
          */
-        if (new File(workspaceArg + File.separator + Const.LOCKFILE).exists()) {
+        if (SingletonTask.isRunning(workspaceArg)) {
             /*
              * Call running calendar to appear
              */
@@ -810,7 +993,8 @@ public class Calendar {
      */
     public void editEvent(int oldID, Event newEvent) {
         logger.debug("EDIT EVENT: ID=" + oldID + " new name="
-                + newEvent.getName() + " remind=" + newEvent.getRemind());
+                + newEvent.getName() + " remind=" + newEvent.getRemind()
+                + " reminders=" + newEvent.getRemindersAsString());
         
         /* 
          * Avoid corruption if not yet fully launched 
@@ -836,23 +1020,26 @@ public class Calendar {
          * Remove old event, copy the ID, add new event
          */
         Event oldEvent = getEventByID(oldID);
+        if (oldEvent == null && archive != null)
+            oldEvent = archive.remove(oldID);
         events.remove(oldEvent);
+        if (segments != null)
+            segments.markDirty(SegmentStore.getSegment(oldEvent));
         newEvent.setID(oldID);
         events.add(newEvent);
 
         /*
          * Update alarm task if exists
          */
-        for (AlarmTask a : pendingAlarms)
-            if (a.getEvent().equals(oldEvent))
-                a.setEvent(newEvent);
+        alarms.setEvent(oldEvent, newEvent);
+        planner.plan(newEvent);
 
         logger.debug("old event was: " + oldEvent.getName());
         gui.update();
         gui.putMessage(Trans.getMessage("guiMessageEventEdited", new String[] {oldEvent.getName()}));
         logger.debug("new date=" + newEvent.getDate().dateToString(true));
 
-        save();
+        saveChange(newEvent, false);
     }
     
     /**
@@ -862,15 +1049,14 @@ public class Calendar {
      */
     public void copyEvent(Event event) {
         /* Check if event to copy has attachments */
+        int oldID = event.getID();
         File srcEventDir = new File(workspace + File.separator +
-                Const.EVENT_DIR + File.separator + event.getID());
+                Const.EVENT_DIR + File.separator + oldID);
         int newID = genID();
         event.setID(newID);
         if (srcEventDir.exists()) {
-            /* Copy attachments */
-            File dstEventDir = new File(workspace + File.separator +
-                    Const.EVENT_DIR + File.separator + newID);
-            Copy.copyAll(gui.getFrame(), srcEventDir, dstEventDir);
+            /* Copy notes, link the attachment */
+            AttachmentStore.get(workspace).copy(oldID, newID);
         }
         
         addEvent(event, true);
@@ -886,6 +1072,82 @@ public class Calendar {
         gui.putMessage(Trans.getMessage("guiMessageEventAdded", new String[] {event.getName()}));
     }
 
+    /**
+     * Adds a batch of new events (e.g. from an import) without asking
+     * for duplicates and without notifying past events. The events
+     * get new IDs and are saved at once.
+     * @param v - New events to add
+     */
+    public void addEvents(Vector<Event> v) {
+        if (v.isEmpty())
+            return;
+
+        if (segments != null) {
+            HashSet<String> names = new HashSet<String>();
+            for (Event e : v)
+                names.add(SegmentStore.getSegment(e));
+            for (String name : names)
+                addLoadedEvents(segments.load(name));
+        }
+
+        /* allocate a range of IDs at once, unless the database allocates them */
+        if (database != null)
+            for (Event e : v)
+                e.setID(genID());
+        else {
+            int ID = genID();
+            for (Event e : events)
+                if (e.getID() >= ID)
+                    ID = e.getID() + 1;
+            for (Event e : v)
+                e.setID(ID++);
+            if (segments != null)
+                segments.reserveIDs(ID);
+        }
+        addLoadedEvents(v);
+        gui.update();
+        logger.debug(v.size() + " events added");
+
+        if (segments != null)
+            segments.merge(v);
+        else if (database != null) {
+            writeDatabase(v, -1);
+            return;
+        }
+        else if (config.getStorage() == Configuration.STORAGE_CLIENT) {
+            localEvents = new Vector<Event>(v);
+            keepLocalEvents();
+        }
+        save();
+    }
+
+    /**
+     * Adds a batch of new events from a background thread (e.g. an
+     * import) on the event dispatch thread, see addEvents. The calling
+     * thread waits until the events are added.
+     * @param v - New events to add
+     * @throws IOException if interrupted or adding failed
+     */
+    public void addEventsAndWait(final Vector<Event> v) throws IOException {
+        if (SwingUtilities.isEventDispatchThread()) {
+            addEvents(v);
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    addEvents(v);
+                }
+            });
+        } catch (InterruptedException e) {
+            throw new IOException("Import abgebrochen.");
+        } catch (InvocationTargetException e) {
+            logger.error("cannot add imported events", e.getCause());
+            throw new IOException(e.getCause().toString());
+        }
+    }
+
     /**
      * Register a new event.
      * @param event - New event to add. Automatically checks if this event is
@@ -934,16 +1196,12 @@ public class Calendar {
         /*
          * If time to wait matches the config, launch a new notification
          */
-        long notifyTimer = checkNotification(event);
-        if (notifyTimer == 0)
+        if (planner.isDue(event))
             new Notification(this, event);
-        else if (notifyTimer != -1) {
-            Timer timer = new Timer(true);
-            timer.schedule(new AlarmTask(this, event), notifyTimer);
-        }
+        planner.plan(event);
 
         if (saveAfter)
-            save();
+            saveChange(event, false);
     }
 
     /**
@@ -955,9 +1213,13 @@ public class Calendar {
         logger.debug("REMOVE EVENT: " + e.getDate().dateToString(true)
                 + " -> " + e.getName());
 
+        boolean archived = false;
         if (!events.contains(e)) {
-            logger.error("NO SUCH EVENT TO REMOVE: " + e.getName());
-            return false;
+            archived = archive != null && archive.getEventByID(e.getID()) != null;
+            if (!archived) {
+                logger.error("NO SUCH EVENT TO REMOVE: " + e.getName());
+                return false;
+            }
         }
         
         if (appletMode) {
@@ -1007,7 +1269,7 @@ public class Calendar {
             /*
              * Warn if there are notes to delete.
              */
-            if (!e.getNotes(workspace).equals("")) {
+            if (e.hasNotes(workspace)) {
                 if (JOptionPane.showConfirmDialog(gui.getFrame(),
                         Trans.getMessage("questionRemoveEventNotes"),
                         Trans.getMessage("questionRemoveEventTitle", new String[] {e.getName()}),
@@ -1028,7 +1290,7 @@ public class Calendar {
                         JOptionPane.YES_NO_OPTION,
                         JOptionPane.WARNING_MESSAGE) != JOptionPane.YES_OPTION)
                     return false;
-                e.getAttachment(workspace).delete();
+                AttachmentStore.get(workspace).delete(e.getID(), e.getAttachment(workspace));
             }
 
             /*
@@ -1042,41 +1304,847 @@ public class Calendar {
                 if (!folder.delete())
                     logger.debug("WARNING: folder for event " + e.getID() + "still exists!");
             }
+            EventFiles.get(workspace).invalidate(e.getID());
         }
 
         /*
          * Remove this event from the list of events to notify.
          */
+        if (archived)
+            archive.remove(e.getID());
         events.remove(e);
-        for (AlarmTask a : pendingAlarms)
-            if (a.getEvent().equals(e)) {
-                a.cancel();
-                pendingAlarms.remove(a);
-                break;
-            }
+        alarms.cancel(e);
 
         gui.update();
         gui.updateStatusBar();
         gui.putMessage(Trans.getMessage("guiMessageEventRemoved", new String[] {e.getName()}));
 
-        save();
+        saveChange(e, true);
         return true;
     }
+    
+    /**
+     * Opens the year segments. On startup, only the segments of recurring
+     * events, the current year and the next year (for reminders) are loaded.
+     * @param startup - True on startup: events left in the xml-file are
+     *         merged into their segments. False for switching from the
+     *         xml-file to segments: all segments are replaced by the current
+     *         events.
+     */
+    private void openSegments(boolean startup) {
+        segments = new SegmentStore(this);
+        Vector<Event> own = new Vector<Event>();
+        for (Event e : events)
+            if (e.getID() != -1)
+                own.add(e);
+        
+        if (!startup)
+            segments.replaceAll(own);
+        else if (!own.isEmpty()) {
+            /* events of the xml-file replace those of the segments */
+            HashSet<Integer> IDs = new HashSet<Integer>();
+            for (Event e : own)
+                IDs.add(e.getID());
+            HashSet<String> names = new HashSet<String>();
+            for (Event e : own)
+                names.add(SegmentStore.getSegment(e));
+            for (String name : names)
+                for (Event e : segments.load(name))
+                    if (!IDs.contains(e.getID()))
+                        events.add(e);
+            segments.merge(own);
+        }
+        
+        int year = new Date().get(java.util.Calendar.YEAR);
+        events.addAll(segments.load(SegmentStore.RECURRING));
+        events.addAll(segments.load(SegmentStore.getSegment(year)));
+        events.addAll(segments.load(SegmentStore.getSegment(year + 1)));
+        if (startup && !own.isEmpty())
+            logger.info(own.size() + " events of the xml-file moved to segments");
+    }
+    
+    /**
+     * Opens the archive and moves one-off events older than the archive
+     * age (see Configuration.getArchiveAge) from the live events into
+     * the archive. Events are only archived if stored in the xml-file or
+     * in segments, old segments not loaded yet are loaded for this. The
+     * caller has to save the remaining events.
+     * @return True if events were archived.
+     */
+    private boolean openArchive() {
+        File dir = new File(getPath(Const.ARCHIVE_DIR));
+        int age = config.getArchiveAge();
+        if (archive == null && (age > 0 || dir.exists()))
+            archive = new Archive(dir);
+        if (age == 0 || (config.getStorage() != Configuration.STORAGE_XML &&
+                config.getStorage() != Configuration.STORAGE_SEGMENTS))
+            return false;
+        
+        Date today = new Date();
+        Date limit = new Date(today.get(java.util.Calendar.YEAR) - age, 
+                today.get(java.util.Calendar.MONTH), today.get(java.util.Calendar.DAY_OF_MONTH));
+        
+        if (segments != null)
+            for (String name : segments.getUnloadedSegments())
+                if (!name.equals(SegmentStore.RECURRING) && 
+                        Integer.parseInt(name) < limit.get(java.util.Calendar.YEAR))
+                    events.addAll(segments.load(name));
+        
+        Vector<Event> live = new Vector<Event>();
+        Vector<Event> old = new Vector<Event>();
+        for (Event e : events)
+            if (e.getID() != -1 && e.getFrequency() == Frequency.OCCUR_ONCE &&
+                    (e.getEndDate() != null ? e.getEndDate() : e.getDate()).before(limit))
+                old.add(e);
+            else
+                live.add(e);
+        if (old.isEmpty() || !archive.add(old))
+            return false;
+        
+        events = live;
+        if (segments != null)
+            for (Event e : old)
+                segments.markDirty(SegmentStore.getSegment(e));
+        logger.info(old.size() + " events archived");
+        return true;
+    }
+    
+    /**
+     * Returns the archived events of the year of a date (and of the
+     * adjacent days of the previous and next year).
+     * @param d - Date
+     * @return Archived events, empty if there is no archive.
+     */
+    public Vector<Event> getArchivedEvents(Date d) {
+        if (archive == null)
+            return new Vector<Event>();
+        int year = d.get(java.util.Calendar.YEAR);
+        return archive.getEvents(new Date(year - 1, java.util.Calendar.DECEMBER, 24),
+                new Date(year + 1, java.util.Calendar.JANUARY, 7));
+    }
+    
+    /**
+     * Returns all archived events (e.g. for searching or exporting).
+     * @return Archived events, empty if there is no archive.
+     */
+    public Vector<Event> getArchivedEvents() {
+        if (archive == null)
+            return new Vector<Event>();
+        return archive.getAllEvents();
+    }
+    
+    /**
+     * Loads the segments needed for viewing a date: the year of the date
+     * and the adjacent year in January and December (week view).
+     * @param d - Date to view
+     */
+    private void loadSegments(Date d) {
+        int year = d.get(java.util.Calendar.YEAR);
+        int month = d.get(java.util.Calendar.MONTH);
+        Vector<Event> v = segments.load(SegmentStore.getSegment(year));
+        if (month == java.util.Calendar.JANUARY)
+            v.addAll(segments.load(SegmentStore.getSegment(year - 1)));
+        else if (month == java.util.Calendar.DECEMBER)
+            v.addAll(segments.load(SegmentStore.getSegment(year + 1)));
+        addLoadedEvents(v);
+    }
+    
+    /**
+     * Loads all segments not loaded yet (e.g. for listing or exporting
+     * all events).
+     */
+    public void loadAllEvents() {
+        if (segments == null)
+            return;
+        Vector<Event> v = new Vector<Event>();
+        for (String name : segments.getUnloadedSegments())
+            v.addAll(segments.load(name));
+        addLoadedEvents(v);
+    }
+    
+    /**
+     * Adds events of segments loaded later on.
+     * @param v - Events loaded
+     */
+    private void addLoadedEvents(Vector<Event> v) {
+        if (v.isEmpty())
+            return;
+        events.addAll(v);
+        for (Event e : v) {
+            planner.plan(e);
+        }
+        if (gui != null)
+            gui.updateStatusBar();
+    }
+    
+    /**
+     * Opens the event database as specified by the configuration
+     * (embedded, offered by a server or on a server). When offering or
+     * using a server, changes of other calendars are polled.
+     * @param startup - True on startup: events are loaded from the database,
+     *         events left in the xml-file (e.g. saved while the database was
+     *         not available) are merged into the database before. False for
+     *         switching from the xml-file to the database: the stored events
+     *         are replaced by the current ones. An empty database is always
+     *         filled with the current events. Local events are never written
+     *         to a database server, but kept in Const.LOCAL_XMLFILE.
+     * @return True if the database is open.
+     */
+    private boolean openDatabase(boolean startup) {
+        byte storage = config.getStorage();
+        try {
+            if (storage == Configuration.STORAGE_SERVER)
+                server = new DatabaseServer(workspace, config.getServerHost(), 
+                        config.getServerPort());
+            database = storage == Configuration.STORAGE_CLIENT ? 
+                    new EventDatabase(workspace, config.getServerHost(), config.getServerPort()) :
+                    new EventDatabase(workspace);
+            
+            if (storage == Configuration.STORAGE_CLIENT) {
+                localEvents = new Vector<Event>();
+                for (Event e : events)
+                    if (e.getID() != -1)
+                        localEvents.add(e);
+            }
+            else if (!startup || database.isEmpty())
+                database.replaceAll(events);
+            else
+                database.storeAll(events);
+            
+            EventDatabase.Changes all = database.loadAll();
+            databaseVersion = all.version;
+            if (startup)
+                events = all.events;
+            else {
+                HashSet<Integer> stored = new HashSet<Integer>();
+                for (Event e : all.events)
+                    stored.add(e.getID());
+                for (Event e : events)
+                    if (e.getID() != -1 && !stored.contains(e.getID()))
+                        all.removed.add(e.getID());
+                applyChanges(all);
+                keepLocalEvents();
+            }
+            
+            if (storage != Configuration.STORAGE_DATABASE) {
+                pollTimer = new Timer(true);
+                pollTimer.schedule(new PollTask(this), PollTask.INTERVAL, PollTask.INTERVAL);
+            }
+            logger.info("events stored in database");
+            return true;
+        } catch (SQLException e) {
+            localEvents = null;
+            databaseFailed(e);
+            return false;
+        }
+    }
+    
+    /**
+     * Writes added, edited or removed events to the database in background
+     * (in the order of the calls). If writing fails, the database is
+     * closed and the events are saved as if there was no database.
+     * @param v - Added or edited events (copied), or the removed event
+     * @param removed - ID of the removed event, -1 for storing the events
+     */
+    private void writeDatabase(Vector<Event> v, final int removed) {
+        final EventDatabase db = database;
+        final Vector<Event> copy = new Vector<Event>(v.size());
+        for (Event e : v)
+            copy.add(e.clone());
+        
+        getDatabaseWriter().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (removed != -1)
+                        db.delete(removed);
+                    else
+                        db.storeAll(copy);
+                } catch (final SQLException ex) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            /* closed or replaced meanwhile, the events in memory are stored there */
+                            if (database != db)
+                                return;
+                            databaseFailed(ex);
+                            if (config.getStorage() == Configuration.STORAGE_CLIENT && removed == -1) {
+                                localEvents = new Vector<Event>();
+                                for (Event e : copy) {
+                                    Event current = getEventByID(e.getID());
+                                    if (current != null)
+                                        localEvents.add(current);
+                                }
+                                keepLocalEvents();
+                            }
+                            save();
+                        }
+                    });
+                }
+            }
+        });
+    }
+    
+    /**
+     * 
+     * @return Thread writing changes to the database (created on demand).
+     */
+    private synchronized ExecutorService getDatabaseWriter() {
+        if (databaseWriter == null) {
+            ThreadPoolExecutor e = new ThreadPoolExecutor(1, 1,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "database");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            e.allowCoreThreadTimeOut(true);
+            databaseWriter = e;
+        }
+        return databaseWriter;
+    }
+    
+    /**
+     * Closes the database (and the server if running). Changes not yet
+     * written by the database thread are written before (waiting 10
+     * seconds at most).
+     */
+    private void closeDatabase() {
+        if (pollTimer != null)
+            pollTimer.cancel();
+        pollTimer = null;
+        ExecutorService writer;
+        synchronized (this) {
+            writer = databaseWriter;
+            databaseWriter = null;
+        }
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                if (!writer.awaitTermination(10, TimeUnit.SECONDS))
+                    logger.warn("changes not yet written to the database");
+            } catch (InterruptedException e) {
+                logger.warn("interrupted while writing to the database");
+            }
+        }
+        if (database != null)
+            database.close();
+        database = null;
+        if (server != null)
+            server.shutdown();
+        server = null;
+    }
+    
+    /**
+     * Closes the database after an error, events are saved to the
+     * xml-file from now on (except for a shared database on a server).
+     * @param e - Error occurred
+     */
+    private void databaseFailed(SQLException e) {
+        logger.error("database error, use xml-file", e);
+        closeDatabase();
+        JOptionPane.showMessageDialog(gui == null ? null : gui.getFrame(), 
+                Trans.getMessage("errorMessageDatabase", new String[] {e.getMessage()}),
+                Trans.getMessage("errorMessageDatabaseTitle"), 
+                JOptionPane.ERROR_MESSAGE);
+    }
+    
+    /**
+     * Fetches the changes other calendars made to a shared database.
+     * Called by PollTask.
+     */
+    public void pollDatabase() {
+        final EventDatabase db = database;
+        if (db == null)
+            return;
+        try {
+            final EventDatabase.Changes c = db.poll(databaseVersion);
+            if (c != null)
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (database == db)
+                            applyChanges(c);
+                    }
+                });
+        } catch (SQLException e) {
+            logger.warn("cannot poll database: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Applies changes read from the database or the xml-file.
+     * @param c - Changes
+     */
+    private void applyChanges(EventDatabase.Changes c) {
+        databaseVersion = java.lang.Math.max(databaseVersion, c.version);
+        boolean changed = false;
+        
+        for (Map.Entry<Integer, Integer> r : c.renumbered.entrySet())
+            changed |= renumber(r.getKey(), r.getValue());
+        
+        for (int ID : c.removed) {
+            Event e = getEventByID(ID);
+            if (e == null)
+                continue;
+            events.remove(e);
+            alarms.cancel(e);
+            changed = true;
+        }
+        
+        for (Event e : c.events) {
+            Event old = getEventByID(e.getID());
+            if (old != null) {
+                if (sameEvent(old, e))
+                    continue;
+                events.remove(old);
+                alarms.setEvent(old, e);
+            }
+            events.add(e);
+            
+            planner.plan(e);
+            changed = true;
+        }
+        
+        if (changed && gui != null) {
+            gui.update();
+            gui.updateStatusBar();
+            gui.putMessage(Trans.getMessage("guiMessageEventsSynchronized"));
+        }
+    }
+    
+    /**
+     * Gives an event in memory a new ID. The folder of the event (notes
+     * and attachment), its stored attachment and its alarm move along.
+     * @param oldID - ID of the event
+     * @param newID - New ID
+     * @return True if the event was renumbered.
+     */
+    private boolean renumber(int oldID, int newID) {
+        Event e = getEventByID(oldID);
+        if (e == null)
+            return false;
+        e.setID(newID);
+        
+        File from = new File(getPath(Const.EVENT_DIR) + File.separator + oldID);
+        if (from.exists())
+            try {
+                Files.move(from.toPath(), new File(getPath(Const.EVENT_DIR) + 
+                        File.separator + newID).toPath());
+                AttachmentStore.get(workspace).renumber(oldID, newID);
+            } catch (IOException ex) {
+                logger.error("cannot move the folder of event " + oldID + " to " + newID, ex);
+            }
+        EventFiles index = EventFiles.get(workspace);
+        index.invalidate(oldID);
+        index.invalidate(newID);
+        
+        alarms.renumber(oldID, e);
+        planner.plan(e);
+        
+        /* the copy written under the new ID stands for this event */
+        synchronized (saveLock) {
+            if (savedEvents != null && savedEvents.containsKey(newID) && 
+                    sameEvent(savedEvents.get(newID), e))
+                savedEvents.put(newID, e);
+        }
+        return true;
+    }
+    
+    /**
+     * 
+     * @param e1 - Event
+     * @param e2 - Other event
+     * @return True if both events would be saved the same way.
+     */
+    private static boolean sameEvent(Event e1, Event e2) {
+        try {
+            StringWriter s1 = new StringWriter(), s2 = new StringWriter();
+            XMLWriter out = new XMLWriter(s1);
+            e1.write(out);
+            out.flush();
+            out = new XMLWriter(s2);
+            e2.write(out);
+            out.flush();
+            return s1.toString().equals(s2.toString());
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * Remembers the events as written to (or read from) the xml-file.
+     * Edits replace events, so an event differing from the remembered
+     * one has been changed since.
+     * @param v - Events of the xml-file
+     */
+    private void rememberSavedEvents(Vector<Event> v) {
+        HashMap<Integer, Event> map = new HashMap<Integer, Event>();
+        for (Event e : v)
+            if (e.getID() != -1)
+                map.put(e.getID(), e);
+        savedEvents = map;
+    }
+    
+    /**
+     * Merges the events of the xml-file written by another program
+     * meanwhile into the events to save. Events changed here win, other
+     * events are taken from the file: events added or changed there are
+     * taken over, events removed there are dropped (unless changed here).
+     * Events added here and there with the same ID are kept both, the
+     * one added here gets a new ID. The events in memory are updated on
+     * the event dispatch thread (see applyChanges).
+     * @param v - Events to save, replaced by the merged events
+     */
+    private void mergeXMLFile(Vector<Event> v) {
+        XMLParser parser = new XMLParser();
+        try {
+            parser.parse(getPath(Const.XMLFILE));
+        } catch (Exception e) {
+            logger.error("cannot read " + Const.XMLFILE + " for merging, overwrite it", e);
+            return;
+        }
+        
+        final EventDatabase.Changes c = mergeEvents(v, parser.getEvents());
+        if (!c.events.isEmpty() || !c.removed.isEmpty() || !c.renumbered.isEmpty())
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    applyChanges(c);
+                }
+            });
+    }
+    
+    /**
+     * Merges the events of the xml-file into the events specified by
+     * comparing both to the events last written (see mergeXMLFile).
+     * Must be called holding saveLock.
+     * @param v - Events in memory, replaced by the merged events
+     * @param fileEvents - Events of the xml-file
+     * @return Changes to apply to the events in memory.
+     */
+    private EventDatabase.Changes mergeEvents(Vector<Event> v, Vector<Event> fileEvents) {
+        HashMap<Integer, Event> base = savedEvents == null ? 
+                new HashMap<Integer, Event>() : savedEvents;
+        HashMap<Integer, Event> stored = new HashMap<Integer, Event>();
+        int maxID = 0;
+        for (Event e : fileEvents)
+            if (e.getID() != -1) {
+                stored.put(e.getID(), e);
+                maxID = java.lang.Math.max(maxID, e.getID());
+            }
+        for (Event e : v)
+            maxID = java.lang.Math.max(maxID, e.getID());
+        if (archive != null)
+            maxID = java.lang.Math.max(maxID, archive.getNextID() - 1);
+        
+        EventDatabase.Changes c = new EventDatabase.Changes();
+        Vector<Event> merged = new Vector<Event>();
+        HashSet<Integer> done = new HashSet<Integer>();
+        for (Event mine : v) {
+            int ID = mine.getID();
+            if (ID == -1)
+                continue;
+            Event other = stored.get(ID);
+            
+            /* unchanged here */
+            if (base.get(ID) == mine) {
+                if (other == null)
+                    c.removed.add(ID);
+                else if (sameEvent(mine, other))
+                    merged.add(mine);
+                else {
+                    merged.add(other);
+                    c.events.add(other);
+                }
+                done.add(ID);
+                continue;
+            }
+            
+            /* added here and there, the event in memory is renumbered by applyChanges */
+            if (other != null && !base.containsKey(ID) && !sameEvent(mine, other)) {
+                logger.info("ID " + ID + " added twice, new ID for " + mine.getName());
+                mine = mine.clone();
+                mine.setID(++maxID);
+                c.renumbered.put(ID, maxID);
+                merged.add(other);
+                c.events.add(other);
+            }
+            done.add(ID);
+            merged.add(mine);
+        }
+        
+        /* added there, unless removed here */
+        for (Event other : fileEvents)
+            if (other.getID() != -1 && !done.contains(other.getID()) && 
+                    !base.containsKey(other.getID())) {
+                merged.add(other);
+                c.events.add(other);
+            }
+        
+        logger.info("merged " + Const.XMLFILE + ": " + c.events.size() + " events taken, " + 
+                c.removed.size() + " removed");
+        v.clear();
+        v.addAll(merged);
+        return c;
+    }
+    
+    /**
+     * Remembers modification time and length of the xml-file, so
+     * writes of this calendar are not taken for external changes.
+     */
+    private void rememberXMLFile() {
+        File f = new File(getPath(Const.XMLFILE));
+        xmlModified = f.lastModified();
+        xmlLength = f.length();
+    }
+    
+    /**
+     * Called by WatchTask when a maximize file was created (by a
+     * calendar launched on the same workspace).
+     */
+    public void maximizeRequested() {
+        if (singletonTask != null)
+            singletonTask.checkMaximize();
+    }
 
     /**
-     * Saves all settings and events to the default xml-file.
+     * Reloads the events after the xml-file was changed by another
+     * program. The file is merged with the events in memory like on
+     * saving (see mergeEvents): only the changes of the other program
+     * are applied (with their alarms), changes made here since the last
+     * write win and are written afterwards.
+     * Called by WatchTask.
+     */
+    public void reloadEvents() {
+        final File f = new File(getPath(Const.XMLFILE));
+        if (config.getStorage() != Configuration.STORAGE_XML || segments != null ||
+                database != null || !f.exists() ||
+                (f.lastModified() == xmlModified && f.length() == xmlLength))
+            return;
+        
+        logger.info("xml-file changed by another program, reload events");
+        final long stamp = xmlModified;
+        final long modified = f.lastModified(), length = f.length();
+        final XMLParser parser = new XMLParser();
+        try {
+            parser.parse(getPath(Const.XMLFILE));
+        } catch (Exception e) {
+            /* probably still being written, wait for the next change */
+            logger.warn("cannot reload " + Const.XMLFILE + ": " + e.getMessage());
+            return;
+        }
+        
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (config.getStorage() != Configuration.STORAGE_XML || segments != null)
+                    return;
+                boolean kept = false;
+                synchronized (saveLock) {
+                    /* saved meanwhile, the changes have been merged */
+                    if (xmlModified != stamp)
+                        return;
+                    
+                    Vector<Event> merged = new Vector<Event>(events);
+                    applyChanges(mergeEvents(merged, parser.getEvents()));
+                    
+                    /* the file is the new base, events equal to it count as unchanged */
+                    HashMap<Integer, Event> base = new HashMap<Integer, Event>();
+                    for (Event e : parser.getEvents())
+                        if (e.getID() != -1)
+                            base.put(e.getID(), e);
+                    kept = merged.size() != base.size();
+                    for (Event e : events) {
+                        Event other = base.get(e.getID());
+                        if (e.getID() == -1 || other == e)
+                            continue;
+                        if (other != null && sameEvent(other, e))
+                            base.put(e.getID(), e);
+                        else
+                            kept = true;
+                    }
+                    
+                    xmlModified = modified;
+                    xmlLength = length;
+                    xmlRevision = parser.getRevision();
+                    savedEvents = base;
+                }
+                
+                /* write the changes made here (journal records refer to the replaced file) */
+                if (kept || (journal != null && journal.size() > 0))
+                    save();
+            }
+        });
+    }
+    
+    /**
+     * Updates the index of event files and repaints the events after
+     * notes or attachments were changed (by another program).
+     * Called by WatchTask.
+     * @param IDs - IDs of the events whose folders changed, null for all
+     */
+    public void eventFilesChanged(HashSet<Integer> IDs) {
+        EventFiles index = EventFiles.get(workspace);
+        if (IDs == null)
+            index.invalidateAll();
+        else
+            for (int ID : IDs)
+                index.invalidate(ID);
+        
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (gui != null)
+                    gui.update();
+            }
+        });
+    }
+    
+    /**
+     * Writes the local events not stored on the database server to
+     * Const.LOCAL_XMLFILE (in addition to the events already there), so
+     * they can be imported later.
+     */
+    private void keepLocalEvents() {
+        if (localEvents == null || localEvents.isEmpty() || !fullyLaunched) {
+            if (localEvents != null && localEvents.isEmpty())
+                localEvents = null;
+            return;
+        }
+        
+        Vector<Event> v = new Vector<Event>(localEvents);
+        localEvents = null;
+        if (new File(getPath(Const.LOCAL_XMLFILE)).exists())
+            try {
+                XMLParser parser = new XMLParser();
+                parser.parse(getPath(Const.LOCAL_XMLFILE));
+                v.addAll(0, parser.getEvents());
+            } catch (Exception e) {
+                logger.error("cannot read " + Const.LOCAL_XMLFILE, e);
+            }
+        
+        if (save(v, Configuration.defaultConfig, getPath(Const.LOCAL_XMLFILE)))
+            gui.putMessage(Trans.getMessage("guiMessageLocalEventsKept", 
+                    new String[] {Const.LOCAL_XMLFILE}));
+    }
+    
+    /**
+     * Saves a single change. If events are stored in the database, only
+     * the rows of the event are changed (in background). If the database server is not
+     * available, added and edited events are kept in Const.LOCAL_XMLFILE.
+     * If the journal is enabled, the
+     * change is appended to the journal (and the journal is compacted in 
+     * background if it grew too large), otherwise all events are
+     * written to the xml-file.
+     * @param e - Added, edited or removed event
+     * @param removed - True if the event was removed
+     */
+    private void saveChange(Event e, boolean removed) {
+        if (segments != null) {
+            if (e.getID() != -1) {
+                String name = SegmentStore.getSegment(e);
+                addLoadedEvents(segments.load(name));
+                segments.markDirty(name);
+            }
+            save();
+            return;
+        }
+        
+        if (database != null && e.getID() != -1) {
+            Vector<Event> v = new Vector<Event>(1);
+            v.add(e);
+            writeDatabase(v, removed ? e.getID() : -1);
+            return;
+        }
+        
+        if (database == null && config.getStorage() == Configuration.STORAGE_CLIENT) {
+            if (!removed && e.getID() != -1) {
+                localEvents = new Vector<Event>();
+                localEvents.add(e);
+                keepLocalEvents();
+            }
+            save();
+            return;
+        }
+        
+        if (journal == null || !config.getJournal() || e.getID() == -1) {
+            save();
+            return;
+        }
+        
+        try {
+            if (removed)
+                journal.appendRemoval(e.getID());
+            else
+                journal.append(e);
+        } catch (IOException ex) {
+            logger.error("cannot write journal, save all", ex);
+            save();
+            return;
+        }
+        
+        /* compaction */
+        if (journal.size() >= Const.JOURNAL_MAX_RECORDS)
+            save();
+    }
+
+    /**
+     * Saves all settings and events to the default xml-file. The events
+     * and settings are copied on the calling thread (the one changing
+     * them), the copy is written in background. Requests in quick
+     * succession are written once.
      */
     public void save() {
-        save(this.events, this.config, getPath(Const.XMLFILE));
+        Snapshot x = new Snapshot();
+        x.events = new Vector<Event>(this.events);
+        x.config = this.config.clone();
+        x.generation = journal == null ? 0 : journal.rotate();
+        x.segments = segments;
+        x.segmentMarks = segments == null ? 0 : segments.getMarks();
+        if (saveTask != null)
+            saveTask.request(x);
+        else
+            saveNow(x);
+    }
+    
+    /**
+     * Saves a snapshot of the settings and events to the default xml-file
+     * on the calling thread. If events are stored in the database (or on a
+     * database server), only the settings are written.
+     * @param x - Snapshot taken by save
+     * @return True if the file was written successfully.
+     */
+    public boolean saveNow(Snapshot x) {
+        Vector<Event> v = database == null && x.segments == null &&
+                x.config.getStorage() != Configuration.STORAGE_CLIENT ? 
+                x.events : new Vector<Event>();
+        boolean ok = x.segments == null || x.segments.write(x.events, x.segmentMarks);
+        if (journal != null)
+            return journal.writeSnapshot(x.generation, v, x.config) && ok;
+        else
+            return save(v, x.config, getPath(Const.XMLFILE)) && ok;
     }
 
     /**
-     * Writes events and settings to the file specified.
-     * @param v - List of events to save
+     * Writes events and settings to the file specified. The data is
+     * written to a temporary file first, forced to disk and then moved
+     * over the file specified, so the file is either replaced completely
+     * or left untouched.<br>
+     * The default xml-file is written holding a lock, so other programs
+     * (or calendars) saving the same workspace wait. If the file has been
+     * written by another one since it was read, the events are merged
+     * (see mergeXMLFile) instead of overwriting the file.
+     * @param v - List of events to save (replaced by the merged events
+     *            when saving to the default xml-file)
      * @param c - Configuration (settings) to save
      * @param filename - File to write
+     * @return True if the file was written successfully.
      */
-    public void save(Vector<Event> v, Configuration c, String filename) {
+    public boolean save(Vector<Event> v, Configuration c, String filename) {
         logger.info("SAVE");
         
         /* 
@@ -1088,19 +2156,80 @@ public class Calendar {
                     Trans.getMessage("errorMessageNotYetFullyStarted"), 
                     Trans.getMessage("errorMessageNotYetFullyStartedTitle"), 
                     JOptionPane.WARNING_MESSAGE);
-            return;
+            return false;
         }
 
+        File target = new File(filename);
+        if (!target.getAbsoluteFile().equals(new File(getPath(Const.XMLFILE)).getAbsoluteFile()))
+            return write(v, c, target, 0);
+        
+        synchronized (saveLock) {
+            RandomAccessFile lockFile = null;
+            FileLock lock = null;
+            try {
+                lockFile = new RandomAccessFile(getPath(Const.SAVE_LOCKFILE), "rw");
+                lock = lockFile.getChannel().lock();
+            } catch (IOException e) {
+                logger.warn("cannot lock " + Const.SAVE_LOCKFILE + ": " + e.getMessage());
+            }
+            
+            try {
+                /*
+                 * Merge if written by someone else since read
+                 */
+                long revision = xmlRevision;
+                if (target.exists() && (target.lastModified() != xmlModified || 
+                        target.length() != xmlLength)) {
+                    long found = XMLParser.readRevision(filename);
+                    if (found != xmlRevision && config.getStorage() == Configuration.STORAGE_XML &&
+                            segments == null && database == null)
+                        mergeXMLFile(v);
+                    revision = java.lang.Math.max(found, revision);
+                }
+                
+                if (!write(v, c, target, revision + 1))
+                    return false;
+                xmlRevision = revision + 1;
+                rememberXMLFile();
+                rememberSavedEvents(v);
+
+                /* snapshot of exactly this file, before anyone else may write it */
+                if (journal != null)
+                    BinarySnapshot.write(v, new File(getPath(Const.BINFILE)),
+                            xmlLength, xmlModified, xmlRevision);
+                return true;
+            } finally {
+                try {
+                    if (lock != null)
+                        lock.release();
+                    if (lockFile != null)
+                        lockFile.close();
+                } catch (IOException e) {
+                    logger.warn("cannot release " + Const.SAVE_LOCKFILE + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Writes events and settings to a temporary file, forces it to disk
+     * and moves it over the file specified.
+     * @param v - List of events to save
+     * @param c - Configuration (settings) to save
+     * @param target - File to write
+     * @param revision - Revision of the file (0 for none)
+     * @return True if the file was written successfully.
+     */
+    private boolean write(Vector<Event> v, Configuration c, File target, long revision) {
+        File tmp = new File(target.getPath() + ".tmp");
         try {
-            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(new File(filename)), Const.ENCODING));
+            FileOutputStream stream = new FileOutputStream(tmp);
+            XMLWriter out = new XMLWriter(stream.getChannel());
 
             /*
              * Write XML header
              */
-            out.write("<?xml version=\"1.0\" encoding=\"" + Const.ENCODING
-                    + "\" standalone=\"yes\"?>\n<Calendar version=\"" + Const.VERSION
-                    + "\">\n");
+            out.writeHeader(revision);
 
             /*
              * Write config section
@@ -1120,10 +2249,26 @@ public class Calendar {
              * Write XML trailer
              */
             out.write("  </Events>\n</Calendar>");
+            out.flush();
+            stream.getChannel().force(true);
             out.close();
+            
+            /*
+             * Replace the file
+             */
+            try {
+                Files.move(tmp.toPath(), target.toPath(), 
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), target.toPath(), 
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
         } catch (Exception e) {
             logger.error("cannot save...", e);
+            tmp.delete();
+            return false;
         }
+        return true;
     }
 
     /**
@@ -1141,6 +2286,24 @@ public class Calendar {
     public void setConfig(Configuration x) {
         Configuration old = this.config;
         this.config = x;
+        if (!appletMode && (old.getStorage() != x.getStorage() || 
+                ((x.getStorage() == Configuration.STORAGE_SERVER || 
+                x.getStorage() == Configuration.STORAGE_CLIENT) && 
+                (!old.getServerHost().equals(x.getServerHost()) || 
+                old.getServerPort() != x.getServerPort())))) {
+            if (segments != null) {
+                loadAllEvents();
+                segments = null;
+            }
+            closeDatabase();
+            if (x.getStorage() == Configuration.STORAGE_SEGMENTS)
+                openSegments(false);
+            else if (x.getStorage() != Configuration.STORAGE_XML && !openDatabase(false))
+                x.setStorage(Configuration.STORAGE_XML);
+        }
+        if (!appletMode && (old.getArchiveAge() != x.getArchiveAge() || 
+                old.getStorage() != x.getStorage()))
+            openArchive();
         if (old.getHolidays() != x.getHolidays() || old.getSpecialDays() != x.getSpecialDays()) {
             updateFlexibleHolidays(this.viewedDate.get(java.util.Calendar.YEAR), true, true);
             updateStaticHolidays(true);
@@ -1174,11 +2337,25 @@ public class Calendar {
     }
 
     /**
-     * Find an empty ID.
+     * Find an empty ID. If events are stored in segments or in a database,
+     * the ID is allocated there (unique among all segments or all calendars
+     * sharing the database). IDs of archived events are not reused.
      * @return unused ID
      */
     public int genID() {
-        int ID = 0;
+        if (segments != null) {
+            if (archive != null)
+                segments.reserveIDs(archive.getNextID());
+            return segments.nextID(events);
+        }
+        if (database != null)
+            try {
+                return database.nextID();
+            } catch (SQLException e) {
+                logger.warn("cannot allocate ID: " + e.getMessage());
+            }
+        
+        int ID = archive == null ? 0 : archive.getNextID();
         for (int i = 0; i < events.size(); i++)
             if (ID == events.elementAt(i).getID()) {
                 ID++;
@@ -1226,7 +2403,9 @@ public class Calendar {
      * @return Number of non-holiday events.
      */
     public int getNumberOfEvents() {
-        int num = 0;
+        int num = segments == null ? 0 : segments.getNumberOfUnloadedEvents();
+        if (archive != null)
+            num += archive.getNumberOfEvents();
         for (Event e : events)
             if (!e.isHoliday() && !e.isSpecial())
                 num++;
@@ -1291,94 +2470,6 @@ public class Calendar {
         return notis.size();
     }
 
-    /**
-     * Checks if an event is close enough for notification.
-     * @param event - Event of interest
-     * @return Time in milliseconds to wait before a notification
-     *         is to be launched. 0 for immediate notification. -1
-     *         for no notification at all.
-     */
-    private long checkNotification(Event event) {
-        int dayDiff = (int) event.getNextDate().dayDiff(new Date());
-        int minDiff = -1;
-        if (dayDiff == 0)
-            minDiff = (int) event.getNextDate().minDiff(new Date());
-
-        int remind = event.getRemind();
-        if (remind == Configuration.defaultConfig.getReminder()) {
-            logger.debug("remind=DEFAULT");
-            remind = this.getConfig().getReminder();
-        }
-
-        logger.debug("remind=" + remind);
-
-        /*
-         * If no holiday: always notify if event is in past
-         */
-        if (dayDiff < 0) {
-            if (!event.isHoliday() && !event.isSpecial())
-                return 0;
-        }
-        else if (remind >= Event.REMIND_NOW && remind <= Event.REMIND_15MIN) {
-            if (minDiff <= 5 * (remind - Event.REMIND_NOW))
-                return 0;
-            else if (dayDiff <= 1)
-                return 1000 * 60 * minDiff - 5 * (remind - Event.REMIND_NOW);
-        } 
-        else if (remind == Event.REMIND_30MIN) {
-            if (minDiff <= 30)
-                return 0;
-            else if (dayDiff <= 1)
-                return 1000 * 60 * minDiff - 30;
-        } 
-        else if (remind >= Event.REMIND_1H && remind <= Event.REMIND_5H) {
-            if (minDiff <= 60 * (remind - Event.REMIND_1H + 1))
-                return 0;
-            else if (dayDiff <= 1)
-                return 1000 * 60 * minDiff - 60 * (remind - Event.REMIND_1H + 1);
-        } 
-        else if (remind >= Event.REMIND_1D && remind <= Event.REMIND_1W) {
-            if (dayDiff <= remind - Event.REMIND_1D + 1)
-                return 0;
-            else if (dayDiff == remind - Event.REMIND_1D + 2) {
-                Date test = new Date(0, 0);
-                test.add(java.util.Calendar.DAY_OF_MONTH, remind - Event.REMIND_1D + 1);
-                return 1000 * 60 * test.minDiff(new Date());
-            }
-        } 
-        else if (remind == Event.REMIND_10D) {
-            if (dayDiff <= 10)
-                return 0;
-            else if (dayDiff == 11) {
-                Date test = new Date(0, 0);
-                test.add(java.util.Calendar.DAY_OF_MONTH, 10);
-                return 1000 * 60 * test.minDiff(new Date());
-            }
-        } 
-        else if (remind == Event.REMIND_2W || remind == Event.REMIND_3W) {
-            if (dayDiff <= 7 * (remind - Event.REMIND_2W + 2))
-                return 0;
-            else if (dayDiff == 7 * (remind - Event.REMIND_2W + 2) + 1) {
-                Date test = new Date(0, 0);
-                test.add(java.util.Calendar.DAY_OF_MONTH, 7 * (remind - Event.REMIND_2W + 2));
-                return 1000 * 60 * test.minDiff(new Date());
-            }
-        } 
-        else if (remind >= Event.REMIND_1M && remind <= Event.REMIND_3M) {
-            Date test = (Date) event.getDate().clone();
-            test.add(java.util.Calendar.MONTH, -(remind - Event.REMIND_1M + 1));
-            test.set(java.util.Calendar.HOUR_OF_DAY, 0);
-            test.set(java.util.Calendar.MINUTE, 0);
-            long dayDiff2 = test.dayDiff(new Date());
-            if (dayDiff2 <= 0)
-                return 0;
-            else if (dayDiff2 == remind - Event.REMIND_1M + 1)
-                return 1000 * 60 * test.minDiff(new Date());
-        }
-        
-        return -1;
-    }
-
     /**
      * Hides all notifications currently displayed.
      * @param visible - True for visible. False for hiding.
@@ -1388,30 +2479,3 @@ public class Calendar {
             n.setVisible(visible);
     }
 }
-
-/**
- * Refresh calendar canvas.
- * @author Johannes Steltzer
- *
- */
-class RefreshTask 
-    extends TimerTask 
-    implements Runnable {
-    
-    /** Calendar to refresh */
-    private CalendarGUI c;
-
-    /**
-     * Construct a new refresher.
-     * @param c - Calendar to refresh
-     */
-    public RefreshTask(CalendarGUI c) {
-        super();
-        this.c = c;
-    }
-
-    @Override
-    public void run() {
-        c.update();
-    }
-}
@@ -0,0 +1,100 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.sql.SQLException;
+
+import org.apache.derby.drda.NetworkServerControl;
+import org.apache.log4j.Logger;
+
+/**
+ * Derby network server (lib/derbynet.jar) offering the event database
+ * of this workspace to other calendars (see EventDatabase).
+ * @author Johannes Steltzer
+ *
+ */
+public class DatabaseServer {
+
+    /** number of pings while waiting for the server to come up */
+    private static final int START_PINGS = 20;
+
+    /** server control (null if not running) */
+    private NetworkServerControl server;
+
+    /** server log */
+    private PrintWriter log;
+
+    private static Logger logger = Logger.getLogger(DatabaseServer.class);
+
+    /**
+     * Starts a network server for the event database of a workspace.
+     * @param workspace - Workspace directory
+     * @param host - Host name or address to listen on
+     * @param port - Port to listen on
+     * @throws SQLException if the server cannot be started or
+     *         lib/derbynet.jar is missing
+     */
+    public DatabaseServer(String workspace, String host, int port) throws SQLException {
+        EventDatabase.setHome(workspace);
+        try {
+            server = new NetworkServerControl(InetAddress.getByName(host), port);
+            log = new PrintWriter(new FileOutputStream(
+                    new File(workspace, "derbynet.log"), true), true);
+            server.start(log);
+
+            /* wait until the server accepts connections */
+            for (int i = 0; ; i++)
+                try {
+                    server.ping();
+                    break;
+                } catch (Exception e) {
+                    if (i == START_PINGS)
+                        throw e;
+                    Thread.sleep(250);
+                }
+        } catch (NoClassDefFoundError e) {
+            throw new SQLException("lib/derbynet.jar not found");
+        } catch (Exception e) {
+            shutdown();
+            throw new SQLException("cannot start server on " + host + ":" + port + ": "
+                    + e.getMessage());
+        }
+        logger.info("database server listening on " + host + ":" + port);
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void shutdown() {
+        if (server != null)
+            try {
+                server.shutdown();
+            } catch (Exception e) {
+                logger.warn("cannot shut down database server: " + e.toString());
+            }
+        server = null;
+        if (log != null)
+            log.close();
+        log = null;
+    }
+}
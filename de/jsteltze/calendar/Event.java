@@ -20,14 +20,12 @@ package de.jsteltze.calendar;
 
 import java.awt.BorderLayout;
 import java.awt.Cursor;
-import java.awt.Desktop;
+import java.awt.Point;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Scanner;
+import java.util.Arrays;
 import java.util.Vector;
 
 import javax.swing.ImageIcon;
@@ -76,6 +74,12 @@ public class Event {
     public static final byte REMIND_1M = 0x15;
     public static final byte REMIND_2M = 0x16;
     public static final byte REMIND_3M = 0x17;
+
+    /** offset of NO_REMIND (see getReminderOffset) */
+    public static final int NO_OFFSET = Integer.MIN_VALUE;
+
+    /** largest offsets of further reminders (minutes resp. months) */
+    public static final int MAX_OFFSET_MINUTES = 366 * 1440, MAX_OFFSET_MONTHS = 12;
     
     public static final byte HOLIDAY_NONE = 0x00;
     public static final byte HOLIDAY_LAW = 0x01;
@@ -98,6 +102,10 @@ public class Event {
     
     /** time prior to start to start reminding (see REMIND_XXX) */
     private byte remind;
+
+    /** further reminders as offsets (see getOffsetAsString), sorted,
+     *  null if there are none */
+    private int[] reminders;
     
     /** event ID */
     private int ID;
@@ -274,6 +282,55 @@ public class Event {
         return this.remind;
     }
 
+    /**
+     * 
+     * @return Further reminders of this event as offsets (see
+     *      getOffsetAsString), sorted. Must not be modified.
+     */
+    public int[] getReminders() {
+        return this.reminders == null ? NO_REMINDERS : this.reminders;
+    }
+
+    /**
+     * Set further reminders of this event. Offsets of a day or more are
+     * rounded to whole days (such reminders fire at midnight), invalid
+     * and duplicate offsets are dropped.
+     * @param x - Offsets (see getOffsetAsString) or null for none
+     */
+    public void setReminders(int[] x) {
+        int n = 0;
+        int[] v = new int[x == null ? 0 : x.length];
+        for (int i = 0; i < v.length; i++) {
+            int offset = x[i];
+            if (offset >= 1440)
+                offset = Math.round(offset / 1440f) * 1440;
+            if (offset < -MAX_OFFSET_MONTHS || offset > MAX_OFFSET_MINUTES)
+                continue;
+            v[n++] = offset;
+        }
+        Arrays.sort(v, 0, n);
+        int m = 0;
+        for (int i = 0; i < n; i++)
+            if (m == 0 || v[m - 1] != v[i])
+                v[m++] = v[i];
+        this.reminders = m == 0 ? null : Arrays.copyOf(v, m);
+    }
+
+    /**
+     * 
+     * @return Further reminders of this event in their short form,
+     *      separated by commas ("" if there are none).
+     */
+    public String getRemindersAsString() {
+        StringBuilder b = new StringBuilder();
+        for (int offset : getReminders()) {
+            if (b.length() > 0)
+                b.append(',');
+            b.append(getOffsetAsString(offset, true));
+        }
+        return b.toString();
+    }
+
     /**
      * Set ID of this event.
      * @param ID - ID to set
@@ -313,7 +370,9 @@ public class Event {
         short f = this.frequency;
         byte r = this.remind;
         int ID = this.ID;
-        return new Event(start, end, s, sp, f, r, ID);
+        Event e = new Event(start, end, s, sp, f, r, ID);
+        e.reminders = this.reminders;
+        return e;
     }
 
     /**
@@ -399,6 +458,17 @@ public class Event {
         }
     }
 
+    /**
+     * 
+     * @return Start date, time and name of this event, e.g. for finding
+     *         duplicates when importing.
+     */
+    public String getKey() {
+        return this.date.dateToString(true) + 
+                (this.date.hasTime() ? " " + this.date.timeToString() : "") + 
+                "|" + this.name;
+    }
+
     /**
      * Check if this event takes place on a specific date.
      * @param date - Date to check
@@ -523,6 +593,22 @@ public class Event {
         return false;
     }
 
+    /** empty list of further reminders */
+    private static final int[] NO_REMINDERS = {};
+
+    /** offset of each reminder (see Event.REMIND_XXX): minutes before the
+     *  event or, if negative, months before */
+    private static final int[] REMIND_OFFSETS = {NO_OFFSET, 0, 5, 10, 15, 30,
+        60, 120, 180, 240, 300,
+        1440, 2 * 1440, 3 * 1440, 4 * 1440, 5 * 1440, 6 * 1440, 7 * 1440,
+        10 * 1440, 14 * 1440, 21 * 1440, -1, -2, -3};
+
+    /** units of offsets in minutes (largest first) and their names */
+    private static final int[] UNIT_MINUTES = {7 * 1440, 1440, 60, 1};
+    private static final String[] UNIT_SHORT = {"w", "d", "h", "min"},
+            UNIT_ONE = {"Woche", "Tag", "Stunde", "Minute"},
+            UNIT_MANY = {"Wochen", "Tage", "Stunden", "Minuten"};
+
     /**
      * Returns the string representation of a reminder.
      * @param x - Reminder (see Event.REMIND_XXX)
@@ -532,56 +618,136 @@ public class Event {
     public static String getReminderAsString(int x, boolean Short) {
         if (x == NO_REMIND)
             return Short ? "no" : "Gar nicht";
-        else if (x == REMIND_NOW)
-            return Short ? "begin" : "Bei Beginn";
-        else if (x == REMIND_5MIN)
-            return Short ? "5min" : "5 Minuten vorher";
-        else if (x == REMIND_10MIN)
-            return Short ? "10min" : "10 Minuten vorher";
-        else if (x == REMIND_15MIN)
-            return Short ? "15min" : "15 Minuten vorher";
-        else if (x == REMIND_30MIN)
-            return Short ? "30min" : "30 Minuten vorher";
-        else if (x == REMIND_1H)
-            return Short ? "1h" : "1 Stunde vorher";
-        else if (x == REMIND_2H)
-            return Short ? "2h" : "2 Stunden vorher";
-        else if (x == REMIND_3H)
-            return Short ? "3h" : "3 Stunden vorher";
-        else if (x == REMIND_4H)
-            return Short ? "4h" : "4 Stunden vorher";
-        else if (x == REMIND_5H)
-            return Short ? "5h" : "5 Stunden vorher";
-        else if (x == REMIND_1D)
-            return Short ? "1d" : "1 Tag vorher";
-        else if (x == REMIND_2D)
-            return Short ? "2d" : "2 Tage vorher";
-        else if (x == REMIND_3D)
-            return Short ? "3d" : "3 Tage vorher";
-        else if (x == REMIND_4D)
-            return Short ? "4d" : "4 Tage vorher";
-        else if (x == REMIND_5D)
-            return Short ? "5d" : "5 Tage vorher";
-        else if (x == REMIND_6D)
-            return Short ? "6d" : "6 Tage vorher";
-        else if (x == REMIND_1W)
-            return Short ? "1w" : "1 Woche vorher";
-        else if (x == REMIND_10D)
-            return Short ? "10d" : "10 Tage vorher";
-        else if (x == REMIND_2W)
-            return Short ? "2w" : "2 Wochen vorher";
-        else if (x == REMIND_3W)
-            return Short ? "3w" : "3 Wochen vorher";
-        else if (x == REMIND_1M)
-            return Short ? "1m" : "1 Monat vorher";
-        else if (x == REMIND_2M)
-            return Short ? "2m" : "2 Monate vorher";
-        else if (x == REMIND_3M)
-            return Short ? "3m" : "3 Monate vorher";
-        else
+        if (x < 0 || x >= REMIND_OFFSETS.length)
             return "???";
+        return getOffsetAsString(REMIND_OFFSETS[x], Short);
     }
-    
+
+    /**
+     * Returns the string representation of a reminder offset.
+     * @param offset - Minutes before the event or, if negative, months
+     *      before
+     * @param Short - True for short form (e.g. "90min", "2d", "1m"),
+     *      false for long form (e.g. "2 Tage vorher")
+     * @return String representation.
+     */
+    public static String getOffsetAsString(int offset, boolean Short) {
+        if (offset == 0)
+            return Short ? "begin" : "Bei Beginn";
+        if (offset < 0)
+            return Short ? -offset + "m" : 
+                -offset + (offset == -1 ? " Monat" : " Monate") + " vorher";
+        int i = 0;
+        while (offset % UNIT_MINUTES[i] != 0)
+            i++;
+        int n = offset / UNIT_MINUTES[i];
+        return Short ? n + UNIT_SHORT[i] : 
+            n + " " + (n == 1 ? UNIT_ONE[i] : UNIT_MANY[i]) + " vorher";
+    }
+
+    /**
+     * Parses a reminder offset in its short form (e.g. "90min", "2d",
+     * "1m", "begin"). A plain number is taken as minutes.
+     * @param s - String to parse
+     * @return Offset or NO_OFFSET if invalid.
+     */
+    public static int parseOffset(String s) {
+        s = s.trim().toLowerCase();
+        if (s.equals("begin"))
+            return 0;
+        int i = 0;
+        while (i < s.length() && Character.isDigit(s.charAt(i)))
+            i++;
+        if (i == 0 || i > 5)
+            return NO_OFFSET;
+        int n = Integer.parseInt(s.substring(0, i));
+        String unit = s.substring(i).trim();
+        if (unit.isEmpty())
+            return n;
+        if (unit.equals("m"))
+            return -n;
+        for (int u = 0; u < UNIT_SHORT.length; u++)
+            if (unit.equals(UNIT_SHORT[u]))
+                return n * UNIT_MINUTES[u];
+        return NO_OFFSET;
+    }
+
+    /**
+     * Parses a list of reminder offsets (see parseOffset) separated by
+     * commas.
+     * @param s - String to parse
+     * @return Offsets (empty if s is empty) or null if invalid.
+     */
+    public static int[] parseOffsets(String s) {
+        if (s.trim().isEmpty())
+            return NO_REMINDERS;
+        String[] parts = s.split(",");
+        int[] v = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            if ((v[i] = parseOffset(parts[i])) == NO_OFFSET)
+                return null;
+        return v;
+    }
+
+    /**
+     * Returns the offset of a reminder.
+     * @param x - Reminder (see Event.REMIND_XXX)
+     * @return Minutes before the event or, if negative, months before;
+     *      NO_OFFSET for NO_REMIND.
+     */
+    public static int getReminderOffset(int x) {
+        if (x < 0 || x >= REMIND_OFFSETS.length)
+            return NO_OFFSET;
+        return REMIND_OFFSETS[x];
+    }
+
+    /**
+     * Returns the minutes of a reminder offset (a month counts 30 days).
+     * @param offset - Offset (see getOffsetAsString)
+     * @return Minutes before the event, -1 for NO_OFFSET.
+     */
+    public static int getOffsetMinutes(int offset) {
+        if (offset == NO_OFFSET)
+            return -1;
+        return offset < 0 ? -offset * 30 * 1440 : offset;
+    }
+
+    /**
+     * Returns the minutes of a reminder.
+     * @param x - Reminder (see Event.REMIND_XXX)
+     * @return Minutes before the event, -1 for NO_REMIND.
+     */
+    public static int getReminderMinutes(int x) {
+        return getOffsetMinutes(getReminderOffset(x));
+    }
+
+    /**
+     * Returns the reminder closest to a number of minutes.
+     * @param minutes - Minutes before the event
+     * @return Reminder (see Event.REMIND_XXX), never NO_REMIND.
+     */
+    public static byte getReminderByMinutes(int minutes) {
+        byte best = REMIND_NOW;
+        for (byte i = REMIND_NOW; i < NUMBER_REMINDS; i++)
+            if (Math.abs(getReminderMinutes(i) - minutes) <
+                    Math.abs(getReminderMinutes(best) - minutes))
+                best = i;
+        return best;
+    }
+
+    /**
+     * Returns the reminder of an offset.
+     * @param offset - Offset (see getOffsetAsString)
+     * @return Reminder (see Event.REMIND_XXX) or -1 if there is no
+     *      reminder of exactly this offset.
+     */
+    public static int getReminderByOffset(int offset) {
+        for (int i = REMIND_NOW; i < NUMBER_REMINDS; i++)
+            if (REMIND_OFFSETS[i] == offset)
+                return i;
+        return -1;
+    }
+
     /**
      * Sort the events list by date (earliest first). In ambiguous
      * cases, move holidays to front.
@@ -627,22 +793,7 @@ public class Event {
      * null will be returned.
      */
     public File getAttachment(String workspace) {
-        File folder = new File(workspace + File.separator + 
-                Const.EVENT_DIR + File.separator + this.ID);
-        File files[] = null;
-        if (folder.exists() && folder.isDirectory())
-            files = folder.listFiles();
-        if (files != null)
-            for (File f : files) {
-                logger.debug("all file for this event:" + f.getName());
-                if (!f.getName().equals(Const.NOTES_FILE)) {
-                    if (f.getName().equals(Const.LINK_FILE))
-                        return this.followLink(f);
-                    else
-                        return f;
-                }
-            }
-        return null;
+        return EventFiles.get(workspace).getEntry(this.ID).attachment;
     }
 
     /**
@@ -650,32 +801,15 @@ public class Event {
      * @return True if there is a file "link.txt" for this event.
      */
     public boolean attachmentIsLink(String workspace) {
-        File res = new File(workspace + File.separator + Const.EVENT_DIR + 
-                File.separator + this.ID + File.separator + Const.LINK_FILE);
-        return res.exists();
-    }
-
-    /**
-     * Gets the file pointed to by a link.
-     * @param link - File which contains the link
-     * @return File pointed to by the link. If the file specified does 
-     * not exist, null will be returned.
-     */
-    private File followLink(File link) {
-        logger.debug("following link:" + link);
-        if (link != null && link.exists())
-            try {
-                String path = "";
-                Scanner sc = new Scanner(link);
-                if (sc.hasNextLine())
-                    path = sc.nextLine();
-                sc.close();
-                File dest = new File(path);
-                if (dest.exists())
-                    return dest;
-            } catch (IOException io) {
-            }
-        return null;
+        return EventFiles.get(workspace).getEntry(this.ID).link;
+    }
+
+    /**
+     * 
+     * @return True if there are notes for this event.
+     */
+    public boolean hasNotes(String workspace) {
+        return EventFiles.get(workspace).getEntry(this.ID).notes;
     }
 
     /**
@@ -684,30 +818,7 @@ public class Event {
      * If there is no such file, "" will be returned.
      */
     public String getNotes(String workspace) {
-        File notes_txt = new File(workspace + File.separator + Const.EVENT_DIR + 
-                File.separator + this.ID + File.separator + Const.NOTES_FILE);
-        String res = "";
-        if (notes_txt.exists() && notes_txt.canRead()) {
-            Scanner in = null;
-            try {
-                in = new Scanner(notes_txt);
-                boolean firstLine = true;
-                while (in.hasNextLine())
-                    if (firstLine) {
-                        res += in.nextLine();
-                        firstLine = false;
-                    } else
-                        res += "\n" + in.nextLine();
-            } catch (FileNotFoundException f) {
-                logger.error("There is no file " + Const.NOTES_FILE
-                        + " for this event but there should be!");
-            } catch (Exception e) {
-                logger.error("", e);
-            } finally {
-                in.close();
-            }
-        }
-        return res;
+        return EventFiles.get(workspace).getNotes(this.ID);
     }
     
     /**
@@ -715,20 +826,31 @@ public class Event {
      * @param out - Stream to write
      * @throws IOException
      */
-    public void write(BufferedWriter out) throws IOException {
+    public void write(XMLWriter out) throws IOException {
         out.write("    <Event");
-        out.write(" ID=\"" + ID + "\"");
-        out.write(" date=\"" + date.dateToString(false) + "\"");
-        if (endDate != null)
-            out.write(" endDate=\"" + endDate.dateToString(false) + "\"");
-        if (date.hasTime())
-            out.write(" time=\"" + date.timeToString() + "\"");
+        out.writeAttribute("ID", ID);
+        out.write(" date=\"");
+        out.writeDate(date);
+        out.write('"');
+        if (endDate != null) {
+            out.write(" endDate=\"");
+            out.writeDate(endDate);
+            out.write('"');
+        }
+        if (date.hasTime()) {
+            out.write(" time=\"");
+            out.writeTime(date);
+            out.write('"');
+        }
         if (frequency != Frequency.OCCUR_ONCE)
-            out.write(" frequency=\"" + frequency + "\"");
+            out.writeAttribute("frequency", frequency);
         if (remind != Configuration.defaultConfig.getReminder())
-            out.write(" remind=\"" + 
-                    Event.getReminderAsString(remind, true) + "\"");
-        out.write(">" + name + "</Event>\n");
+            out.writeAttribute("remind", Event.getReminderAsString(remind, true));
+        if (reminders != null)
+            out.writeAttribute("reminders", getRemindersAsString());
+        out.write('>');
+        out.writeEscaped(name);
+        out.write("</Event>\n");
     }
     
     /**
@@ -741,17 +863,16 @@ public class Event {
         if (this.getAttachment(workspace) == null)
             return null;
         
+        EventFiles.Entry files = EventFiles.get(workspace).getEntry(this.ID);
         JLabel img = new JLabel(new ImageIcon(
                 this.getClass().getClassLoader().getResource("media/attachment20.ico")));
         final Event thisEvent = this;
-        img.setToolTipText("Anhang: " + this.getAttachment(workspace).getName());
+        img.setToolTipText("Anhang: " + files.attachment.getName() + 
+                " (" + Math.max(1, (files.size + 1023) / 1024) + " KB)");
         img.addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent m) {
-                try {
-                    Desktop.getDesktop().open(thisEvent.getAttachment(workspace));
-                } catch (IOException e) {
-                    logger.error("[mouseClicked] error while trying to open attached file...", e);
-                }
+                AttachmentStore.get(workspace).open(thisEvent.getID(), 
+                        thisEvent.getAttachment(workspace));
             }
 
             public void mouseEntered(MouseEvent m) {
@@ -767,10 +888,17 @@ public class Event {
         return img;
     }
     
-    public JDialog openNotesDialog(JFrame parent, String notes, 
-            boolean visible) {
+    /**
+     * Open a dialog showing the notes of this event. Large notes
+     * appear piece by piece while being read.
+     * @param parent - Parent frame
+     * @param workspace - Workspace to look for the notes
+     * @param location - Location on screen or null (center on parent)
+     * @return Dialog.
+     */
+    public JDialog openNotesDialog(JFrame parent, String workspace, Point location) {
         JDialog notesDialog = new JDialog(parent, "Notizen zu \"" + name + "\"");
-        JTextArea notesArea = new JTextArea(notes);
+        JTextArea notesArea = new JTextArea();
         notesArea.setEditable(false);
         JScrollPane pScroll = new JScrollPane(notesArea,
                 JScrollPane.VERTICAL_SCROLLBAR_ALWAYS,
@@ -779,10 +907,14 @@ public class Event {
         notesDialog.setLayout(new BorderLayout());
         notesDialog.add(pScroll, BorderLayout.CENTER);
         notesDialog.setSize(220, 100);
-        notesDialog.setLocationRelativeTo(parent);
+        if (location != null)
+            notesDialog.setLocation(location);
+        else
+            notesDialog.setLocationRelativeTo(parent);
         notesDialog.setAlwaysOnTop(true);
         notesDialog.setUndecorated(false);
-        notesDialog.setVisible(visible);
+        EventFiles.get(workspace).loadNotes(this.ID, notesArea);
+        notesDialog.setVisible(true);
         
         return notesDialog;
     }
@@ -794,20 +926,17 @@ public class Event {
      * @param parent - Parent frame object for the notes dialog.
      * @return Icon as JLabel if notes found, null otherwise.
      */
-    public JLabel getNotesIcon(final String workspace, JFrame parent) {
-        String notes = this.getNotes(workspace);
-        if (notes.equals(""))
+    public JLabel getNotesIcon(final String workspace, final JFrame parent) {
+        if (!this.hasNotes(workspace))
             return null;
         
-        final JDialog notesDialog = openNotesDialog(parent, notes, false);
-        
+        final Event thisEvent = this;
         JLabel img = new JLabel(new ImageIcon(
                 this.getClass().getClassLoader().getResource("media/notes20.ico")));
         img.setToolTipText("Notizen ansehen");
         img.addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent m) {
-                notesDialog.setLocation(m.getLocationOnScreen());
-                notesDialog.setVisible(true);
+                thisEvent.openNotesDialog(parent, workspace, m.getLocationOnScreen());
             }
 
             public void mouseEntered(MouseEvent m) {
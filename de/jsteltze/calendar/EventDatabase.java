@@ -0,0 +1,744 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.config.Const;
+import de.jsteltze.common.ConnectionPool;
+import de.jsteltze.common.calendar.Date;
+
+/**
+ * Event repository on a Derby database, either embedded (lib/derby.jar)
+ * or on a Derby network server shared by several calendars
+ * (lib/derbyclient.jar, see DatabaseServer).
+ * Events, recurrence, reminders and attachment metadata are kept in
+ * indexed tables (see scripts/kalender.sql), so adding, editing or
+ * removing an event only touches its rows. The configuration stays
+ * in the calendar XML file.<br>
+ * Every change increments the database version. Changed events carry
+ * the version of their last change and removed events leave a row in
+ * KALENDER.DELETED, so other calendars can fetch the changes made since
+ * the version they know (see poll).
+ * @author Johannes Steltzer
+ *
+ */
+public class EventDatabase {
+
+    /** JDBC driver classes of embedded and client Derby */
+    private static final String DRIVER_EMBEDDED = "org.apache.derby.jdbc.EmbeddedDriver",
+            DRIVER_CLIENT = "org.apache.derby.jdbc.ClientDriver";
+
+    /** number of rows per batch */
+    private static final int BATCH_SIZE = 1000;
+
+    /** maximum number of idle connections */
+    private static final int MAX_IDLE = 3;
+
+    /** table definitions, schema KALENDER */
+    private static final String[] SCHEMA = {
+        "CREATE SCHEMA KALENDER",
+        "CREATE TABLE KALENDER.EVENTS (ID INTEGER NOT NULL PRIMARY KEY, "
+            + "NAME VARCHAR(32672) NOT NULL, START_DATE DATE NOT NULL, "
+            + "START_TIME SMALLINT, END_DATE DATE)",
+        "CREATE INDEX KALENDER.EVENTS_START ON KALENDER.EVENTS (START_DATE)",
+        "CREATE INDEX KALENDER.EVENTS_END ON KALENDER.EVENTS (END_DATE)",
+        "CREATE TABLE KALENDER.RECURRENCE (EVENT_ID INTEGER NOT NULL PRIMARY KEY "
+            + "REFERENCES KALENDER.EVENTS (ID) ON DELETE CASCADE, "
+            + "FREQUENCY SMALLINT NOT NULL)",
+        "CREATE TABLE KALENDER.REMINDERS (EVENT_ID INTEGER NOT NULL "
+            + "REFERENCES KALENDER.EVENTS (ID) ON DELETE CASCADE, "
+            + "REMIND SMALLINT NOT NULL)",
+        "CREATE TABLE KALENDER.ATTACHMENTS (EVENT_ID INTEGER NOT NULL PRIMARY KEY "
+            + "REFERENCES KALENDER.EVENTS (ID) ON DELETE CASCADE, "
+            + "FILE_NAME VARCHAR(1024) NOT NULL, FILE_SIZE BIGINT NOT NULL, "
+            + "IS_LINK SMALLINT NOT NULL)"
+    };
+
+    /** version tracking, added to databases without KALENDER.COUNTER */
+    private static final String[] SCHEMA_VERSION = {
+        "ALTER TABLE KALENDER.EVENTS ADD COLUMN VERSION BIGINT NOT NULL DEFAULT 0",
+        "CREATE INDEX KALENDER.EVENTS_VERSION ON KALENDER.EVENTS (VERSION)",
+        "CREATE TABLE KALENDER.DELETED (EVENT_ID INTEGER NOT NULL PRIMARY KEY, "
+            + "VERSION BIGINT NOT NULL)",
+        "CREATE INDEX KALENDER.DELETED_VERSION ON KALENDER.DELETED (VERSION)",
+        "CREATE TABLE KALENDER.COUNTER (VERSION BIGINT NOT NULL, NEXT_ID INTEGER NOT NULL)",
+        "INSERT INTO KALENDER.COUNTER (VERSION, NEXT_ID) VALUES (0, 0)"
+    };
+
+    /** statements */
+    private static final String SQL_INSERT_EVENT = "INSERT INTO KALENDER.EVENTS "
+            + "(NAME, START_DATE, START_TIME, END_DATE, VERSION, ID) VALUES (?, ?, ?, ?, ?, ?)",
+        SQL_UPDATE_EVENT = "UPDATE KALENDER.EVENTS SET NAME = ?, START_DATE = ?, "
+            + "START_TIME = ?, END_DATE = ?, VERSION = ? WHERE ID = ?",
+        SQL_DELETE_EVENT = "DELETE FROM KALENDER.EVENTS WHERE ID = ?",
+        SQL_INSERT_RECURRENCE = "INSERT INTO KALENDER.RECURRENCE (EVENT_ID, FREQUENCY) VALUES (?, ?)",
+        SQL_DELETE_RECURRENCE = "DELETE FROM KALENDER.RECURRENCE WHERE EVENT_ID = ?",
+        SQL_INSERT_REMINDER = "INSERT INTO KALENDER.REMINDERS (EVENT_ID, REMIND) VALUES (?, ?)",
+        SQL_DELETE_REMINDER = "DELETE FROM KALENDER.REMINDERS WHERE EVENT_ID = ?",
+        SQL_INSERT_ATTACHMENT = "INSERT INTO KALENDER.ATTACHMENTS "
+            + "(EVENT_ID, FILE_NAME, FILE_SIZE, IS_LINK) VALUES (?, ?, ?, ?)",
+        SQL_DELETE_ATTACHMENT = "DELETE FROM KALENDER.ATTACHMENTS WHERE EVENT_ID = ?",
+        SQL_INSERT_DELETED = "INSERT INTO KALENDER.DELETED (EVENT_ID, VERSION) VALUES (?, ?)",
+        SQL_DELETE_DELETED = "DELETE FROM KALENDER.DELETED WHERE EVENT_ID = ?",
+        SQL_LOCK_COUNTER = "UPDATE KALENDER.COUNTER SET VERSION = VERSION + 1",
+        SQL_SELECT_COUNTER = "SELECT VERSION, NEXT_ID FROM KALENDER.COUNTER",
+        SQL_SET_NEXT_ID = "UPDATE KALENDER.COUNTER SET NEXT_ID = ?",
+        SQL_MAX_ID = "SELECT MAX(ID) FROM KALENDER.EVENTS",
+        SQL_SELECT = "SELECT E.ID, E.NAME, E.START_DATE, E.START_TIME, E.END_DATE, "
+            + "R.FREQUENCY, M.REMIND FROM KALENDER.EVENTS E "
+            + "LEFT OUTER JOIN KALENDER.RECURRENCE R ON R.EVENT_ID = E.ID "
+            + "LEFT OUTER JOIN KALENDER.REMINDERS M ON M.EVENT_ID = E.ID",
+        SQL_SELECT_RANGE = SQL_SELECT
+            + " WHERE (E.START_DATE <= ? AND (E.START_DATE >= ? OR E.END_DATE >= ?))"
+            + " OR (R.FREQUENCY IS NOT NULL AND E.START_DATE <= ?)",
+        SQL_SELECT_CHANGED = SQL_SELECT + " WHERE E.VERSION > ?",
+        SQL_SELECT_DELETED = "SELECT EVENT_ID FROM KALENDER.DELETED WHERE VERSION > ?";
+
+    /** workspace (for attachment metadata) */
+    protected String workspace;
+
+    /** true if connected to a network server */
+    protected boolean remote;
+
+    /** pool of connections */
+    protected ConnectionPool pool;
+
+    private static Logger logger = Logger.getLogger(EventDatabase.class);
+
+    /**
+     * Changes read by poll.
+     */
+    public static class Changes {
+        /** database version the changes lead to */
+        public long version;
+        /** added or edited events */
+        public Vector<Event> events = new Vector<Event>();
+        /** IDs of removed events */
+        public Vector<Integer> removed = new Vector<Integer>();
+        /** new IDs of events in memory by their old ID (merging the xml-file) */
+        public HashMap<Integer, Integer> renumbered = new HashMap<Integer, Integer>();
+    }
+
+    /**
+     * Open (or create) the embedded event database of a workspace.
+     * @param workspace - Workspace directory
+     * @throws SQLException if the database cannot be opened or
+     *         lib/derby.jar is missing
+     */
+    public EventDatabase(String workspace) throws SQLException {
+        this(workspace, DRIVER_EMBEDDED, "jdbc:derby:" + Const.DATABASE_DIR + ";create=true");
+        this.remote = false;
+    }
+
+    /**
+     * Connect to the event database of a Derby network server.
+     * @param workspace - Workspace directory
+     * @param host - Host name of the server
+     * @param port - Port of the server
+     * @throws SQLException if the server is not reachable or
+     *         lib/derbyclient.jar is missing
+     */
+    public EventDatabase(String workspace, String host, int port) throws SQLException {
+        this(workspace, DRIVER_CLIENT, "jdbc:derby://" + host + ":" + port + "/"
+                + Const.DATABASE_DIR + ";create=true");
+        this.remote = true;
+    }
+
+    /**
+     * Open a database.
+     * @param workspace - Workspace directory
+     * @param driver - JDBC driver class
+     * @param url - JDBC URL
+     * @throws SQLException if the database cannot be opened
+     */
+    private EventDatabase(String workspace, String driver, String url) throws SQLException {
+        this.workspace = workspace;
+        setHome(workspace);
+        try {
+            Class.forName(driver);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("JDBC driver not found: " + driver);
+        }
+
+        pool = new ConnectionPool(url, MAX_IDLE);
+        Connection con = pool.getConnection();
+        try {
+            createSchema(con);
+        } finally {
+            pool.release(con);
+        }
+    }
+
+    /**
+     * Sets the Derby home directory (where the database and derby.log
+     * are placed) to the workspace, if not set before.
+     * @param workspace - Workspace directory
+     */
+    static void setHome(String workspace) {
+        if (System.getProperty("derby.system.home") == null)
+            System.setProperty("derby.system.home", new File(workspace).getAbsolutePath());
+    }
+
+    /**
+     *
+     * @return True if connected to a network server.
+     */
+    public boolean isRemote() {
+        return remote;
+    }
+
+    /**
+     * Creates the tables if they do not exist yet.
+     * @param con - Connection
+     * @throws SQLException
+     */
+    private static void createSchema(Connection con) throws SQLException {
+        DatabaseMetaData meta = con.getMetaData();
+        ResultSet rs = meta.getTables(null, "KALENDER", "EVENTS", null);
+        boolean exists = rs.next();
+        rs.close();
+        rs = meta.getTables(null, "KALENDER", "COUNTER", null);
+        boolean versioned = rs.next();
+        rs.close();
+        if (exists && versioned)
+            return;
+
+        logger.info("create database schema");
+        con.setAutoCommit(false);
+        Statement st = con.createStatement();
+        try {
+            if (!exists)
+                for (String ddl : SCHEMA)
+                    st.executeUpdate(ddl);
+            for (String ddl : SCHEMA_VERSION)
+                st.executeUpdate(ddl);
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+
+            /* created by another calendar meanwhile */
+            if (!"X0Y32".equals(e.getSQLState()))
+                throw e;
+        } finally {
+            st.close();
+            con.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Converts a date to a SQL date (time is dropped).
+     * @param d - Date or null
+     * @return SQL date or null.
+     */
+    protected static java.sql.Date toSQLDate(Date d) {
+        if (d == null)
+            return null;
+        return java.sql.Date.valueOf(d.get(java.util.Calendar.YEAR) + "-"
+                + (d.get(java.util.Calendar.MONTH) + 1) + "-"
+                + d.get(java.util.Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * Converts a SQL date to a date.
+     * @param d - SQL date or null
+     * @return Date or null.
+     */
+    protected static Date fromSQLDate(java.sql.Date d) {
+        if (d == null)
+            return null;
+        java.util.Calendar c = java.util.Calendar.getInstance();
+        c.setTime(d);
+        return new Date(c.get(java.util.Calendar.YEAR), c.get(java.util.Calendar.MONTH),
+                c.get(java.util.Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * Converts a further reminder of an event to a REMIND value. These
+     * are negative to tell them from the reminder (see Event.REMIND_XXX):
+     * -1 - minutes, -2000 - days or -3000 - months.
+     * @param offset - Offset (see Event.getOffsetAsString)
+     * @return REMIND value.
+     */
+    private static short toSQLReminder(int offset) {
+        if (offset < 0)
+            return (short) (-3000 + offset);
+        if (offset > 0 && offset % 1440 == 0)
+            return (short) (-2000 - offset / 1440);
+        return (short) (-1 - offset);
+    }
+
+    /**
+     * Converts a negative REMIND value to a further reminder.
+     * @param remind - REMIND value (see toSQLReminder)
+     * @return Offset (see Event.getOffsetAsString).
+     */
+    private static int fromSQLReminder(short remind) {
+        if (remind <= -3000)
+            return remind + 3000;
+        if (remind <= -2000)
+            return (-2000 - remind) * 1440;
+        return -1 - remind;
+    }
+
+    /**
+     * Sets the event columns (name, start date, start time, end date,
+     * version, ID) of an insert or update statement.
+     * @param ps - Statement
+     * @param e - Event
+     * @param version - Version of the change
+     * @throws SQLException
+     */
+    private static void setEventColumns(PreparedStatement ps, Event e, long version)
+            throws SQLException {
+        ps.setString(1, e.getName());
+        ps.setDate(2, toSQLDate(e.getDate()));
+        if (e.getDate().hasTime())
+            ps.setShort(3, (short) (e.getDate().get(java.util.Calendar.HOUR_OF_DAY) * 60
+                    + e.getDate().get(java.util.Calendar.MINUTE)));
+        else
+            ps.setNull(3, Types.SMALLINT);
+        ps.setDate(4, toSQLDate(e.getEndDate()));
+        ps.setLong(5, version);
+        ps.setInt(6, e.getID());
+    }
+
+    /**
+     * Adds the rows of the side tables (recurrence, reminder, attachment)
+     * of an event to the batches of the insert statements.
+     * @param con - Connection
+     * @param e - Event
+     * @param withAttachment - True for looking up the attachment
+     * @throws SQLException
+     */
+    private void addSideRows(Connection con, Event e, boolean withAttachment)
+            throws SQLException {
+        if (e.getFrequency() != Frequency.OCCUR_ONCE) {
+            PreparedStatement ps = pool.prepare(con, SQL_INSERT_RECURRENCE);
+            ps.setInt(1, e.getID());
+            ps.setShort(2, e.getFrequency());
+            ps.addBatch();
+        }
+
+        PreparedStatement ps = pool.prepare(con, SQL_INSERT_REMINDER);
+        ps.setInt(1, e.getID());
+        ps.setShort(2, (short) e.getRemind());
+        ps.addBatch();
+        for (int offset : e.getReminders()) {
+            ps.setInt(1, e.getID());
+            ps.setShort(2, toSQLReminder(offset));
+            ps.addBatch();
+        }
+
+        File attachment = withAttachment ? e.getAttachment(workspace) : null;
+        if (attachment != null) {
+            ps = pool.prepare(con, SQL_INSERT_ATTACHMENT);
+            ps.setInt(1, e.getID());
+            ps.setString(2, attachment.getName());
+            ps.setLong(3, attachment.length());
+            ps.setShort(4, (short) (e.attachmentIsLink(workspace) ? 1 : 0));
+            ps.addBatch();
+        }
+    }
+
+    /**
+     * Runs the batches of the side table insert statements.
+     * @param con - Connection
+     * @throws SQLException
+     */
+    private void executeSideBatches(Connection con) throws SQLException {
+        pool.prepare(con, SQL_INSERT_RECURRENCE).executeBatch();
+        pool.prepare(con, SQL_INSERT_REMINDER).executeBatch();
+        pool.prepare(con, SQL_INSERT_ATTACHMENT).executeBatch();
+    }
+
+    /**
+     * Starts a transaction changing events: locks the counter row
+     * and increments the database version.
+     * @param con - Connection
+     * @return Version of this change.
+     * @throws SQLException
+     */
+    private long beginChange(Connection con) throws SQLException {
+        con.setAutoCommit(false);
+        pool.prepare(con, SQL_LOCK_COUNTER).executeUpdate();
+        ResultSet rs = pool.prepare(con, SQL_SELECT_COUNTER).executeQuery();
+        rs.next();
+        long version = rs.getLong(1);
+        rs.close();
+        return version;
+    }
+
+    /**
+     * Loads all events.
+     * @return All events stored and the current version.
+     * @throws SQLException
+     */
+    public Changes loadAll() throws SQLException {
+        Connection con = pool.getConnection();
+        try {
+            Changes c = new Changes();
+            c.version = getVersion(con);
+            readEvents(pool.prepare(con, SQL_SELECT), c.events);
+            return c;
+        } finally {
+            pool.release(con);
+        }
+    }
+
+    /**
+     * Loads all events which may occur within a date range: one-off
+     * events overlapping the range (using the date indexes) and all
+     * recurring events starting before the end of the range.
+     * @param from - First date of the range
+     * @param to - Last date of the range
+     * @return Events of the range.
+     * @throws SQLException
+     */
+    public Vector<Event> loadRange(Date from, Date to) throws SQLException {
+        Connection con = pool.getConnection();
+        try {
+            PreparedStatement ps = pool.prepare(con, SQL_SELECT_RANGE);
+            ps.setDate(1, toSQLDate(to));
+            ps.setDate(2, toSQLDate(from));
+            ps.setDate(3, toSQLDate(from));
+            ps.setDate(4, toSQLDate(to));
+            Vector<Event> events = new Vector<Event>();
+            readEvents(ps, events);
+            return events;
+        } finally {
+            pool.release(con);
+        }
+    }
+
+    /**
+     * Reads the changes made after a version.
+     * @param version - Version known so far
+     * @return Changes or null if the version did not change.
+     * @throws SQLException
+     */
+    public Changes poll(long version) throws SQLException {
+        Connection con = pool.getConnection();
+        try {
+            long current = getVersion(con);
+            if (current == version)
+                return null;
+
+            Changes c = new Changes();
+            c.version = current;
+            PreparedStatement ps = pool.prepare(con, SQL_SELECT_CHANGED);
+            ps.setLong(1, version);
+            readEvents(ps, c.events);
+
+            ps = pool.prepare(con, SQL_SELECT_DELETED);
+            ps.setLong(1, version);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next())
+                c.removed.add(rs.getInt(1));
+            rs.close();
+            return c;
+        } finally {
+            pool.release(con);
+        }
+    }
+
+    /**
+     * @param con - Connection
+     * @return Current database version.
+     * @throws SQLException
+     */
+    private long getVersion(Connection con) throws SQLException {
+        ResultSet rs = pool.prepare(con, SQL_SELECT_COUNTER).executeQuery();
+        rs.next();
+        long version = rs.getLong(1);
+        rs.close();
+        return version;
+    }
+
+    /**
+     * Runs a query selecting events (columns as in SQL_SELECT). There is
+     * one row per reminder, the further reminders (negative REMIND) are
+     * added to the event of the reminder row.
+     * @param ps - Query
+     * @param events - List to add the events to
+     * @throws SQLException
+     */
+    private static void readEvents(PreparedStatement ps, Vector<Event> events)
+            throws SQLException {
+        ResultSet rs = ps.executeQuery();
+        HashMap<Integer, Vector<Integer>> further = new HashMap<Integer, Vector<Integer>>();
+        HashMap<Integer, Event> read = new HashMap<Integer, Event>();
+        while (rs.next()) {
+            short remind = rs.getShort(7);
+            if (remind < 0) {
+                Vector<Integer> v = further.get(rs.getInt(1));
+                if (v == null)
+                    further.put(rs.getInt(1), v = new Vector<Integer>());
+                v.add(fromSQLReminder(remind));
+                continue;
+            }
+
+            Date start = fromSQLDate(rs.getDate(3));
+            short time = rs.getShort(4);
+            if (!rs.wasNull()) {
+                start.set(java.util.Calendar.HOUR_OF_DAY, time / 60);
+                start.set(java.util.Calendar.MINUTE, time % 60);
+                start.setHasTime(true);
+            }
+            else
+                start.setHasTime(false);
+
+            short frequency = rs.getShort(6);
+            if (rs.wasNull())
+                frequency = Frequency.OCCUR_ONCE;
+
+            Event e = new Event(start, fromSQLDate(rs.getDate(5)), rs.getString(2),
+                    Event.HOLIDAY_NONE, frequency, (byte) remind, rs.getInt(1));
+            events.add(e);
+            read.put(e.getID(), e);
+        }
+        rs.close();
+
+        for (Integer ID : further.keySet()) {
+            Event e = read.get(ID);
+            if (e == null)
+                continue;
+            Vector<Integer> v = further.get(ID);
+            int[] offsets = new int[v.size()];
+            for (int i = 0; i < offsets.length; i++)
+                offsets[i] = v.elementAt(i);
+            e.setReminders(offsets);
+        }
+    }
+
+    /**
+     *
+     * @return True if no event is stored.
+     * @throws SQLException
+     */
+    public boolean isEmpty() throws SQLException {
+        Connection con = pool.getConnection();
+        try {
+            ResultSet rs = pool.prepare(con, SQL_MAX_ID).executeQuery();
+            rs.next();
+            rs.getInt(1);
+            boolean empty = rs.wasNull();
+            rs.close();
+            return empty;
+        } finally {
+            pool.release(con);
+        }
+    }
+
+    /**
+     * Allocates a new event ID. IDs are unique among all calendars
+     * sharing this database.
+     * @return Unused ID.
+     * @throws SQLException
+     */
+    public int nextID() throws SQLException {
+        Connection con = pool.getConnection();
+        try {
+            beginChange(con);
+            ResultSet rs = pool.prepare(con, SQL_SELECT_COUNTER).executeQuery();
+            rs.next();
+            int ID = rs.getInt(2);
+            rs.close();
+            rs = pool.prepare(con, SQL_MAX_ID).executeQuery();
+            rs.next();
+            ID = Math.max(ID, rs.getInt(1) + 1);
+            rs.close();
+
+            PreparedStatement ps = pool.prepare(con, SQL_SET_NEXT_ID);
+            ps.setInt(1, ID + 1);
+            ps.executeUpdate();
+            con.commit();
+            return ID;
+        } finally {
+            pool.release(con);
+        }
+    }
+
+    /**
+     * Replaces all stored events (e.g. migration from the XML file).
+     * All rows are written in batches within one transaction.
+     * @param events - Events to store (events without ID are skipped)
+     * @throws SQLException
+     */
+    public void replaceAll(Vector<Event> events) throws SQLException {
+        /* only events having a folder may have an attachment */
+        File[] dirs = new File(workspace, Const.EVENT_DIR).listFiles();
+        HashSet<Integer> withDir = new HashSet<Integer>();
+        if (dirs != null)
+            for (File d : dirs)
+                try {
+                    withDir.add(Integer.parseInt(d.getName()));
+                } catch (NumberFormatException e) {}
+
+        Connection con = pool.getConnection();
+        Statement st = con.createStatement();
+        try {
+            long version = beginChange(con);
+
+            /* everything stored so far counts as removed */
+            st.executeUpdate("DELETE FROM KALENDER.DELETED");
+            st.executeUpdate("INSERT INTO KALENDER.DELETED (EVENT_ID, VERSION) "
+                    + "SELECT ID, " + version + " FROM KALENDER.EVENTS");
+            st.executeUpdate("DELETE FROM KALENDER.ATTACHMENTS");
+            st.executeUpdate("DELETE FROM KALENDER.REMINDERS");
+            st.executeUpdate("DELETE FROM KALENDER.RECURRENCE");
+            st.executeUpdate("DELETE FROM KALENDER.EVENTS");
+
+            PreparedStatement insert = pool.prepare(con, SQL_INSERT_EVENT);
+            PreparedStatement undelete = pool.prepare(con, SQL_DELETE_DELETED);
+            int n = 0;
+            for (Event e : events) {
+                if (e.getID() == -1)
+                    continue;
+                setEventColumns(insert, e, version);
+                insert.addBatch();
+                undelete.setInt(1, e.getID());
+                undelete.addBatch();
+                addSideRows(con, e, withDir.contains(e.getID()));
+                if (++n % BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                    undelete.executeBatch();
+                    executeSideBatches(con);
+                }
+            }
+            insert.executeBatch();
+            undelete.executeBatch();
+            executeSideBatches(con);
+            con.commit();
+            logger.info(n + " events stored in database");
+        } finally {
+            st.close();
+            pool.release(con);
+        }
+    }
+
+    /**
+     * Stores a new or edited event (row-level insert or update).
+     * @param e - Event (with ID)
+     * @throws SQLException
+     */
+    public void store(Event e) throws SQLException {
+        Vector<Event> v = new Vector<Event>(1);
+        v.add(e);
+        storeAll(v);
+    }
+
+    /**
+     * Stores new or edited events within one transaction.
+     * @param events - Events (events without ID are skipped)
+     * @throws SQLException
+     */
+    public void storeAll(Vector<Event> events) throws SQLException {
+        Connection con = pool.getConnection();
+        try {
+            long version = beginChange(con);
+            for (Event e : events)
+                if (e.getID() != -1)
+                    upsert(con, e, version);
+            con.commit();
+        } finally {
+            pool.release(con);
+        }
+    }
+
+    /**
+     * Updates the rows of an event or inserts them if not existing.
+     * @param con - Connection
+     * @param e - Event
+     * @param version - Version of this change
+     * @throws SQLException
+     */
+    private void upsert(Connection con, Event e, long version) throws SQLException {
+        PreparedStatement ps = pool.prepare(con, SQL_UPDATE_EVENT);
+        setEventColumns(ps, e, version);
+        if (ps.executeUpdate() == 0) {
+            ps = pool.prepare(con, SQL_INSERT_EVENT);
+            setEventColumns(ps, e, version);
+            ps.executeUpdate();
+            ps = pool.prepare(con, SQL_DELETE_DELETED);
+            ps.setInt(1, e.getID());
+            ps.executeUpdate();
+        }
+        else
+            for (String sql : new String[] {SQL_DELETE_RECURRENCE,
+                    SQL_DELETE_REMINDER, SQL_DELETE_ATTACHMENT}) {
+                ps = pool.prepare(con, sql);
+                ps.setInt(1, e.getID());
+                ps.executeUpdate();
+            }
+        addSideRows(con, e, true);
+        executeSideBatches(con);
+    }
+
+    /**
+     * Removes an event (side table rows are removed by cascade).
+     * @param ID - Event ID
+     * @throws SQLException
+     */
+    public void delete(int ID) throws SQLException {
+        Connection con = pool.getConnection();
+        try {
+            long version = beginChange(con);
+            PreparedStatement ps = pool.prepare(con, SQL_DELETE_EVENT);
+            ps.setInt(1, ID);
+            if (ps.executeUpdate() > 0) {
+                ps = pool.prepare(con, SQL_INSERT_DELETED);
+                ps.setInt(1, ID);
+                ps.setLong(2, version);
+                ps.executeUpdate();
+            }
+            con.commit();
+        } finally {
+            pool.release(con);
+        }
+    }
+
+    /**
+     * Closes all connections. The embedded database is shut down.
+     */
+    public void close() {
+        pool.close();
+        if (remote)
+            return;
+        try {
+            DriverManager.getConnection("jdbc:derby:" + Const.DATABASE_DIR + ";shutdown=true");
+        } catch (SQLException e) {
+            /* Derby reports a successful shutdown as exception (08006) */
+            logger.debug("database shutdown: " + e.getSQLState());
+        }
+    }
+}
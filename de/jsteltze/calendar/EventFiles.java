@@ -0,0 +1,537 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar;
+
+import java.awt.Component;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JOptionPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.config.Const;
+
+/**
+ * In-memory index of the files of events (notes, attachment, link) in
+ * the folders Const.EVENT_DIR/&lt;ID&gt; of a workspace. A folder is read
+ * on the first lookup of its event (or by loadAll in background) and
+ * kept until it is invalidated, either by the calendar after writing
+ * it or by WatchTask after a change by another program.
+ * Notes are written in background (one after another) by saveNotes;
+ * until a note is written, lookups return the new text.
+ * @author Johannes Steltzer
+ *
+ */
+public class EventFiles {
+
+    /** notes up to this length (chars) are kept in memory */
+    private static final int NOTES_CACHE_SIZE = 1 << 14;
+
+    /** notes are shown in pieces of this length (chars) while reading */
+    private static final int NOTES_CHUNK_SIZE = 1 << 16;
+
+    /** thread writing notes (created on demand) */
+    private static ExecutorService notesWriter;
+
+    /**
+     * Files of one event.
+     */
+    public static class Entry {
+        /** true if there is a non-empty notes file */
+        public boolean notes;
+        /** notes (null if not read yet or too large to keep) */
+        private String notesText;
+        /** attached file or the target of the link (null if none) */
+        public File attachment;
+        /** size of the attachment in bytes */
+        public long size;
+        /** true if the attachment is a link */
+        public boolean link;
+    }
+
+    /** entry of events without a folder */
+    private static final Entry EMPTY = new Entry();
+
+    /** indexes by workspace */
+    private static HashMap<String, EventFiles> indexes = new HashMap<String, EventFiles>();
+
+    /** folder of the event folders */
+    private File dir;
+
+    /** folder for temporary files (outside the event folders) */
+    private File tmpDir;
+
+    /** entries by event ID */
+    private HashMap<Integer, Entry> entries;
+
+    /** true if all folders have been read (missing entries have no folder) */
+    private boolean complete;
+
+    /** notes not written yet by event ID */
+    private HashMap<Integer, String> unsaved;
+
+    private static Logger logger = Logger.getLogger(EventFiles.class);
+
+    /**
+     * Construct a new (empty) index.
+     * @param workspace - Workspace directory
+     */
+    private EventFiles(String workspace) {
+        this.dir = new File(workspace + File.separator + Const.EVENT_DIR);
+        this.tmpDir = new File(workspace + File.separator + Const.TMP_DIR);
+        this.entries = new HashMap<Integer, Entry>();
+        this.unsaved = new HashMap<Integer, String>();
+        this.complete = false;
+    }
+
+    /**
+     * Gets the index of a workspace.
+     * @param workspace - Workspace directory
+     * @return Index (created if not yet existing).
+     */
+    public static synchronized EventFiles get(String workspace) {
+        EventFiles index = indexes.get(workspace);
+        if (index == null) {
+            index = new EventFiles(workspace);
+            indexes.put(workspace, index);
+        }
+        return index;
+    }
+
+    /**
+     * Reads all event folders not read yet.
+     */
+    public void loadAll() {
+        long start = System.currentTimeMillis();
+        String[] names = dir.list();
+        if (names != null)
+            for (String name : names)
+                try {
+                    getEntry(Integer.parseInt(name));
+                } catch (NumberFormatException e) {}
+        synchronized (this) {
+            complete = true;
+        }
+        logger.debug("event files indexed in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Gets the files of an event.
+     * @param ID - Event ID
+     * @return Entry (read from the folder if not yet indexed).
+     */
+    public Entry getEntry(int ID) {
+        synchronized (this) {
+            Entry e = entries.get(ID);
+            if (e != null)
+                return e;
+            if (complete || ID == -1)
+                return EMPTY;
+        }
+
+        Entry e = read(ID);
+        synchronized (this) {
+            if (!entries.containsKey(ID))
+                entries.put(ID, withUnsaved(ID, e));
+            return entries.get(ID);
+        }
+    }
+
+    /**
+     * Adjusts an entry to notes not written yet (called while
+     * synchronized).
+     * @param ID - Event ID
+     * @param e - Entry as read from the folder
+     * @return Entry telling whether the event has notes.
+     */
+    private Entry withUnsaved(int ID, Entry e) {
+        String text = unsaved.get(ID);
+        if (text == null || e.notes == text.length() > 0)
+            return e;
+        Entry changed = e == EMPTY ? new Entry() : e;
+        changed.notes = text.length() > 0;
+        changed.notesText = null;
+        return changed;
+    }
+
+    /**
+     * Forgets the files of an event, they are read again on the next
+     * lookup.
+     * @param ID - Event ID
+     */
+    public synchronized void invalidate(int ID) {
+        entries.remove(ID);
+        if (complete)
+            entries.put(ID, withUnsaved(ID, read(ID)));
+    }
+
+    /**
+     * Forgets the files of all events.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        complete = false;
+    }
+
+    /**
+     * Gets the notes of an event.
+     * @param ID - Event ID
+     * @return Notes or "" if there are none.
+     */
+    public String getNotes(int ID) {
+        synchronized (this) {
+            String text = unsaved.get(ID);
+            if (text != null)
+                return text;
+        }
+        Entry e = getEntry(ID);
+        if (!e.notes)
+            return "";
+        String text = e.notesText;
+        if (text == null) {
+            text = readNotes(new File(new File(dir, String.valueOf(ID)), Const.NOTES_FILE));
+            if (text.length() <= NOTES_CACHE_SIZE)
+                e.notesText = text;
+        }
+        return text;
+    }
+
+    /**
+     * Shows the notes of an event in a text area. Small or cached notes
+     * are shown right away, large notes are read in background and
+     * appended piece by piece (the text area is not editable meanwhile).
+     * @param ID - Event ID
+     * @param area - Text area to show the notes
+     * @return Thread reading the notes (finished when all notes are
+     *      shown) or null if they were shown right away.
+     */
+    public Thread loadNotes(final int ID, final JTextArea area) {
+        final File f = new File(new File(dir, String.valueOf(ID)), Const.NOTES_FILE);
+        String text;
+        synchronized (this) {
+            text = unsaved.get(ID);
+            Entry e = entries.get(ID);
+            if (text == null && e != null)
+                text = e.notes ? e.notesText : "";
+        }
+        if (text == null && f.length() <= NOTES_CACHE_SIZE)
+            text = getNotes(ID);
+        if (text != null) {
+            area.setText(text);
+            area.setCaretPosition(0);
+            return null;
+        }
+
+        final boolean editable = area.isEditable();
+        area.setText("");
+        area.setEditable(false);
+        Thread loader = new Thread("notes") {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    Reader in = new InputStreamReader(new FileInputStream(f), Charset.defaultCharset());
+                    try {
+                        char[] buffer = new char[NOTES_CHUNK_SIZE];
+                        boolean cr = false;
+                        int n;
+                        while ((n = in.read(buffer)) != -1) {
+                            /* convert line ends to '\n' */
+                            StringBuilder chunk = new StringBuilder(n);
+                            for (int i = 0; i < n; i++) {
+                                char c = buffer[i];
+                                if (c == '\r')
+                                    chunk.append('\n');
+                                else if (c != '\n' || !cr)
+                                    chunk.append(c);
+                                cr = c == '\r';
+                            }
+                            append(area, chunk.toString());
+                        }
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    logger.error("cannot read " + f.getPath(), e);
+                }
+                logger.debug("notes read in " + (System.currentTimeMillis() - start) + "ms");
+
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        /* drop the final line end (as getNotes) */
+                        int length = area.getDocument().getLength();
+                        try {
+                            if (length > 0 && area.getText(length - 1, 1).equals("\n"))
+                                area.replaceRange("", length - 1, length);
+                        } catch (BadLocationException e) {
+                            logger.warn("cannot drop final line end: " + e.getMessage());
+                        }
+                        area.setCaretPosition(0);
+                        area.setEditable(editable);
+                    }
+                });
+            }
+        };
+        loader.setDaemon(true);
+        loader.start();
+        return loader;
+    }
+
+    /**
+     * Appends text to a text area on the EDT.
+     * @param area - Text area
+     * @param text - Text to append
+     */
+    private static void append(final JTextArea area, final String text) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                area.append(text);
+            }
+        });
+    }
+
+    /**
+     *
+     * @return Thread writing notes.
+     */
+    private static synchronized ExecutorService getNotesWriter() {
+        if (notesWriter == null) {
+            ThreadPoolExecutor e = new ThreadPoolExecutor(1, 1,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "notes");
+                }
+            });
+            e.allowCoreThreadTimeOut(true);
+            notesWriter = e;
+        }
+        return notesWriter;
+    }
+
+    /**
+     * Writes the notes of an event in background. The notes file is
+     * replaced atomically, so it is never read half written. Empty notes
+     * delete the notes file.
+     * @param ID - Event ID
+     * @param notes - Notes
+     * @param parent - Parent component for an error message
+     */
+    public void saveNotes(final int ID, final String notes, final Component parent) {
+        synchronized (this) {
+            unsaved.put(ID, notes);
+            Entry e = entries.get(ID);
+            if (e != null)
+                entries.put(ID, withUnsaved(ID, e));
+            else if (complete)
+                entries.put(ID, withUnsaved(ID, EMPTY));
+        }
+
+        getNotesWriter().execute(new Runnable() {
+            @Override
+            public void run() {
+                File folder = new File(dir, String.valueOf(ID));
+                File f = new File(folder, Const.NOTES_FILE);
+                try {
+                    if (notes.length() == 0) {
+                        if (f.exists() && !f.delete())
+                            throw new IOException("cannot delete " + f.getPath());
+                        folder.delete();
+                    }
+                    else {
+                        write(f, notes);
+                    }
+                } catch (IOException e) {
+                    logger.error("cannot write notes of event " + ID, e);
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            JOptionPane.showMessageDialog(parent,
+                                    "Die Notizen konnten nicht gespeichert werden.",
+                                    "Fehler...", JOptionPane.ERROR_MESSAGE);
+                        }
+                    });
+                }
+
+                synchronized (EventFiles.this) {
+                    if (unsaved.get(ID) == notes)
+                        unsaved.remove(ID);
+                    invalidate(ID);
+                    Entry e = entries.get(ID);
+                    if (e != null && e.notes && e.notesText == null &&
+                            notes.length() <= NOTES_CACHE_SIZE && !unsaved.containsKey(ID))
+                        e.notesText = notes;
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until all notes are written.
+     */
+    public static void flush() {
+        ExecutorService e;
+        synchronized (EventFiles.class) {
+            e = notesWriter;
+            notesWriter = null;
+        }
+        if (e == null)
+            return;
+        e.shutdown();
+        try {
+            e.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            logger.warn("wait for notes interrupted");
+        }
+    }
+
+    /**
+     * Writes a notes file through a temporary file. The temporary file
+     * is written to Const.TMP_DIR, so it is never taken for an attachment.
+     * @param f - Notes file
+     * @param notes - Notes
+     * @throws IOException
+     */
+    private void write(File f, String notes) throws IOException {
+        File folder = f.getParentFile();
+        if (!folder.exists() && !folder.mkdirs())
+            throw new IOException("cannot create " + folder.getPath());
+        if (!tmpDir.exists() && !tmpDir.mkdirs())
+            throw new IOException("cannot create " + tmpDir.getPath());
+        File tmp = File.createTempFile("notes", ".tmp", tmpDir);
+        try {
+            FileChannel out = new FileOutputStream(tmp).getChannel();
+            try {
+                ByteBuffer bytes = Charset.defaultCharset().encode(notes);
+                while (bytes.hasRemaining())
+                    out.write(bytes);
+                out.force(false);
+            } finally {
+                out.close();
+            }
+            AttachmentStore.move(tmp, f);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Checks whether a file in an event folder is a temporary notes
+     * file (left by older versions).
+     * @param f - File within an event folder
+     * @return True if the file is no attachment.
+     */
+    static boolean isTemporary(File f) {
+        return f.getName().equals(Const.NOTES_FILE + ".tmp");
+    }
+
+    /**
+     * Reads the folder of an event.
+     * @param ID - Event ID
+     * @return Entry.
+     */
+    private Entry read(int ID) {
+        File folder = new File(dir, String.valueOf(ID));
+        File[] files = folder.listFiles();
+        if (files == null || files.length == 0)
+            return EMPTY;
+
+        Entry e = new Entry();
+        for (File f : files) {
+            if (f.getName().equals(Const.NOTES_FILE)) {
+                e.notes = f.length() > 0;
+                continue;
+            }
+            if (e.attachment != null || e.link || isTemporary(f))
+                continue;
+            if (f.getName().equals(Const.LINK_FILE)) {
+                e.link = true;
+                e.attachment = followLink(f);
+            }
+            else
+                e.attachment = f;
+            if (e.attachment != null)
+                e.size = e.attachment.length();
+        }
+        return e;
+    }
+
+    /**
+     * Gets the file pointed to by a link.
+     * @param link - File which contains the link
+     * @return File pointed to by the link. If the file specified does
+     * not exist, null will be returned.
+     */
+    private static File followLink(File link) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(link), Const.ENCODING));
+            try {
+                String path = in.readLine();
+                if (path != null && new File(path).exists())
+                    return new File(path);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            logger.warn("cannot read link " + link.getPath() + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Reads a notes file. Line ends are converted to '\n', a final
+     * line end is dropped.
+     * @param f - Notes file
+     * @return Notes.
+     */
+    private static String readNotes(File f) {
+        try {
+            String s = new String(Files.readAllBytes(f.toPath()), Charset.defaultCharset());
+            if (s.indexOf('\r') != -1)
+                s = s.replace("\r\n", "\n").replace('\r', '\n');
+            return s.endsWith("\n") ? s.substring(0, s.length() - 1) : s;
+        } catch (IOException e) {
+            logger.error("cannot read " + f.getPath(), e);
+            return "";
+        }
+    }
+}
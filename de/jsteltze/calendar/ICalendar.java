@@ -0,0 +1,644 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TimeZone;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.config.Configuration;
+import de.jsteltze.calendar.config.Const;
+import de.jsteltze.common.calendar.Date;
+
+/**
+ * Import and export of iCalendar files (RFC 5545).
+ * VEVENTs are mapped onto events: DTSTART/DTEND onto the dates, RRULE
+ * onto the frequency (an RRULE with COUNT or UNTIL onto one-off events
+ * of all its occurrences), the first VALARM onto the reminder and further
+ * VALARMs onto further reminders. Both
+ * directions stream: files are read line by line and the events are
+ * handed to the calendar in batches, exports are written event by event.
+ * @author Johannes Steltzer
+ *
+ */
+public final class ICalendar {
+
+    /** number of events handed to the calendar at once */
+    public static final int BATCH_SIZE = 500;
+
+    /** maximum number of one-off events an RRULE with COUNT or UNTIL is expanded to */
+    private static final int MAX_OCCURRENCES = 1000;
+
+    /** maximum number of days searched for occurrences of such an RRULE */
+    private static final int MAX_DAYS = 100 * 366;
+
+    /** maximum length of a line in octets (without line break) */
+    private static final int MAX_LINE = 75;
+
+    /** weekdays as used by RRULE (index: java.util.Calendar.DAY_OF_WEEK) */
+    private static final String[] DAYS = {"", "SU", "MO", "TU", "WE", "TH", "FR", "SA"};
+
+    /** RRULE frequency of each interval unit (see Frequency.UNIT_XXX) */
+    private static final String[] UNITS = {"DAILY", "WEEKLY", "MONTHLY", "YEARLY"};
+
+    /** duration, e.g. -P1DT2H or -PT15M */
+    private static final Pattern DURATION = Pattern.compile(
+            "([+-]?)P(?:(\\d+)W)?(?:(\\d+)D)?(?:T(?:(\\d+)H)?(?:(\\d+)M)?(?:(\\d+)S)?)?");
+
+    private static Logger logger = Logger.getLogger(ICalendar.class);
+
+    /**
+     * Constructor not for public use.
+     */
+    private ICalendar() { }
+
+    /**
+     * Imports all VEVENTs of an iCalendar file. Events existing already
+     * (same date and name) are skipped.
+     * @param file - File to read
+     * @param caller - Calendar to add the events to
+     * @return Number of events imported.
+     * @throws IOException
+     */
+    public static int read(String file, Calendar caller) throws IOException {
+        HashSet<String> known = new HashSet<String>();
+        for (Event e : new Vector<Event>(caller.getAllEvents()))
+            known.add(e.getKey());
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), Const.ENCODING));
+        Vector<Event> batch = new Vector<Event>();
+        int imported = 0;
+        try {
+            String line = in.readLine();
+            if (line != null && line.length() > 0 && line.charAt(0) == 0xfeff)
+                line = line.substring(1);
+
+            /* properties of the current VEVENT */
+            boolean inEvent = false, inAlarm = false;
+            String summary = null;
+            Date start = null, end = null;
+            boolean endIsDate = false;
+            Vector<String> rules = new Vector<String>();
+            Vector<Integer> alarms = new Vector<Integer>();
+
+            while (line != null) {
+                /* unfold */
+                StringBuilder b = new StringBuilder(line);
+                String next;
+                while ((next = in.readLine()) != null && next.length() > 0 &&
+                        (next.charAt(0) == ' ' || next.charAt(0) == '\t'))
+                    b.append(next, 1, next.length());
+                line = b.toString();
+
+                int colon = findColon(line);
+                if (colon != -1) {
+                    String[] params = line.substring(0, colon).split(";");
+                    String name = params[0].toUpperCase();
+                    String value = line.substring(colon + 1);
+
+                    if (name.equals("BEGIN") && value.equalsIgnoreCase("VEVENT")) {
+                        inEvent = true;
+                        summary = null;
+                        start = end = null;
+                        rules.clear();
+                        alarms.clear();
+                    }
+                    else if (inEvent) {
+                        if (name.equals("BEGIN") && value.equalsIgnoreCase("VALARM"))
+                            inAlarm = true;
+                        else if (name.equals("END") && value.equalsIgnoreCase("VALARM"))
+                            inAlarm = false;
+                        else if (name.equals("END") && value.equalsIgnoreCase("VEVENT")) {
+                            inEvent = false;
+                            for (Event e : createEvents(summary, start, end, endIsDate,
+                                    rules, alarms))
+                                if (known.add(e.getKey())) {
+                                    batch.add(e);
+                                    if (batch.size() == BATCH_SIZE) {
+                                        caller.addEventsAndWait(batch);
+                                        imported += batch.size();
+                                        batch = new Vector<Event>();
+                                    }
+                                }
+                        }
+                        else if (inAlarm) {
+                            if (name.equals("TRIGGER")) {
+                                int alarm = parseTrigger(value, getParam(params, "VALUE"), start);
+                                if (alarm != -1)
+                                    alarms.add(alarm);
+                            }
+                        }
+                        else if (name.equals("SUMMARY"))
+                            summary = unescape(value);
+                        else if (name.equals("DTSTART"))
+                            start = parseDate(value, getParam(params, "TZID"));
+                        else if (name.equals("DTEND")) {
+                            end = parseDate(value, getParam(params, "TZID"));
+                            endIsDate = end != null && !end.hasTime();
+                        }
+                        else if (name.equals("RRULE"))
+                            rules.add(value.toUpperCase());
+                    }
+                }
+                line = next;
+            }
+
+            caller.addEventsAndWait(batch);
+            imported += batch.size();
+        } finally {
+            in.close();
+        }
+        logger.info(imported + " events imported from " + file);
+        return imported;
+    }
+
+    /**
+     * Creates the events of a VEVENT: one event for the RRULEs without
+     * COUNT and UNTIL (or none), one-off events for the occurrences of
+     * each RRULE with COUNT or UNTIL.
+     * @param summary - SUMMARY
+     * @param start - DTSTART
+     * @param end - DTEND (might be null)
+     * @param endIsDate - True if DTEND is a date (exclusive) without time
+     * @param rules - RRULEs
+     * @param alarms - Minutes of the alarms before the start
+     * @return Events, empty if there is no start date.
+     */
+    private static Vector<Event> createEvents(String summary, Date start, Date end,
+            boolean endIsDate, Vector<String> rules, Vector<Integer> alarms) {
+        Vector<Event> v = new Vector<Event>();
+        if (start == null)
+            return v;
+
+        Date endDate = null;
+        if (end != null) {
+            endDate = new Date(end.get(java.util.Calendar.YEAR),
+                    end.get(java.util.Calendar.MONTH), end.get(java.util.Calendar.DAY_OF_MONTH));
+            if (endIsDate)
+                endDate.add(java.util.Calendar.DAY_OF_MONTH, -1);
+            if (endDate.dayDiff(start) <= 0)
+                endDate = null;
+        }
+
+        short frequency = Frequency.OCCUR_ONCE;
+        Vector<String> bounded = new Vector<String>();
+        for (String rule : rules) {
+            if (isBounded(rule)) {
+                bounded.add(rule);
+                continue;
+            }
+            short f = parseRule(rule, start);
+            if (Frequency.isByDate(f) && (frequency == Frequency.OCCUR_ONCE ||
+                    Frequency.isByDate(frequency)))
+                frequency |= f;
+            else if (frequency == Frequency.OCCUR_ONCE)
+                frequency = f;
+        }
+
+        /* an alarm matching a reminder exactly becomes the reminder */
+        byte remind = Event.NO_REMIND;
+        int[] further = new int[alarms.size()];
+        int n = 0;
+        for (int alarm : alarms) {
+            int r = Event.getReminderByOffset(alarm);
+            if (remind == Event.NO_REMIND && r != -1)
+                remind = (byte) r;
+            else
+                further[n++] = alarm;
+        }
+
+        int[] reminders = Arrays.copyOf(further, n);
+        String name = summary == null ? "" : summary;
+
+        Event base = null;
+        if (bounded.size() < rules.size() || rules.isEmpty()) {
+            base = new Event(start, frequency == Frequency.OCCUR_ONCE ? endDate : null,
+                    name, Event.HOLIDAY_NONE, frequency, remind, -1);
+            base.setReminders(reminders);
+            v.add(base);
+        }
+
+        for (String rule : bounded)
+            for (Date d : expandRule(rule, start)) {
+                if (base != null && base.match(d))
+                    continue;
+                Date to = null;
+                if (endDate != null) {
+                    to = (Date) endDate.clone();
+                    to.add(java.util.Calendar.DAY_OF_MONTH, (int) d.dayDiff(start));
+                }
+                Event e = new Event(d, to, name, Event.HOLIDAY_NONE, Frequency.OCCUR_ONCE,
+                        remind, -1);
+                e.setReminders(reminders);
+                v.add(e);
+            }
+        return v;
+    }
+
+    /**
+     *
+     * @param rule - Value of the RRULE
+     * @return True if the RRULE ends (COUNT or UNTIL).
+     */
+    private static boolean isBounded(String rule) {
+        for (String part : rule.split(";"))
+            if (part.startsWith("COUNT=") || part.startsWith("UNTIL="))
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns the occurrences of an RRULE with COUNT or UNTIL, at most
+     * MAX_OCCURRENCES within MAX_DAYS. The rule is mapped onto a frequency
+     * like by parseRule, but repeating without limit.
+     * @param rule - Value of the RRULE
+     * @param start - Start date of the event (the first occurrence)
+     * @return Dates of the occurrences, empty if COUNT and UNTIL are invalid.
+     */
+    private static Vector<Date> expandRule(String rule, Date start) {
+        Vector<Date> dates = new Vector<Date>();
+        int count = -1;
+        Date until = null;
+        for (String part : rule.split(";"))
+            if (part.startsWith("COUNT="))
+                try {
+                    count = Integer.parseInt(part.substring(6));
+                } catch (NumberFormatException e) {}
+            else if (part.startsWith("UNTIL="))
+                until = parseDate(part.substring(6), null);
+        if (count < 1 && until == null) {
+            logger.warn("RRULE skipped, invalid end: " + rule);
+            return dates;
+        }
+
+        short f = parseRule(rule, start);
+        if (f == Frequency.OCCUR_ONCE) {
+            dates.add(start);
+            return dates;
+        }
+        if (Frequency.isByDate(f))
+            f = Frequency.isW(f) ? Frequency.genByInterval(1, Frequency.UNIT_WEEKS) :
+                Frequency.isM(f) ? Frequency.genByInterval(1, Frequency.UNIT_MONTHS) :
+                Frequency.OCCUR_YEARLY;
+        Event probe = new Event(start, null, "", Event.HOLIDAY_NONE, f, Event.NO_REMIND, -1);
+
+        Date d = (Date) start.clone();
+        for (int day = 0; day < MAX_DAYS; day++, d.add(java.util.Calendar.DAY_OF_MONTH, 1)) {
+            if ((until != null && d.dayDiff(until) > 0) || (count > 0 && dates.size() == count))
+                return dates;
+            if (dates.size() == MAX_OCCURRENCES) {
+                logger.warn("RRULE expanded to " + MAX_OCCURRENCES + " events only: " + rule);
+                return dates;
+            }
+            if (probe.match(d))
+                dates.add((Date) d.clone());
+        }
+        logger.warn("RRULE expanded to " + MAX_DAYS + " days only: " + rule);
+        return dates;
+    }
+
+    /**
+     * Maps a RRULE onto a frequency. Multiple days in BYDAY cannot be
+     * expressed and are ignored, COUNT and UNTIL are handled by
+     * expandRule.
+     * @param rule - Value of the RRULE
+     * @param start - Start date of the event
+     * @return Frequency code (see Frequency).
+     */
+    private static short parseRule(String rule, Date start) {
+        String freq = null, byDay = null, byMonthDay = null;
+        int interval = 1;
+        for (String part : rule.split(";")) {
+            String[] pair = part.split("=", 2);
+            if (pair.length != 2)
+                continue;
+            if (pair[0].equals("FREQ"))
+                freq = pair[1];
+            else if (pair[0].equals("INTERVAL"))
+                try {
+                    interval = Math.max(1, Math.min(1024,
+                            Integer.parseInt(pair[1])));
+                } catch (NumberFormatException e) {}
+            else if (pair[0].equals("BYDAY"))
+                byDay = pair[1];
+            else if (pair[0].equals("BYMONTHDAY"))
+                byMonthDay = pair[1];
+        }
+
+        if ("DAILY".equals(freq))
+            return Frequency.genByInterval(interval, Frequency.UNIT_DAYS);
+        else if ("WEEKLY".equals(freq))
+            return interval == 1 ? Frequency.OCCUR_WEEKLY :
+                Frequency.genByInterval(interval, Frequency.UNIT_WEEKS);
+        else if ("MONTHLY".equals(freq)) {
+            if (byDay != null && interval == 1) {
+                Matcher m = Pattern.compile("([+-]?\\d)[A-Z]{2}").matcher(byDay);
+                if (m.matches()) {
+                    int index = Integer.parseInt(m.group(1).replace("+", ""));
+                    return Frequency.genByWeekday(start.get(java.util.Calendar.DAY_OF_WEEK),
+                            index < 0 ? 0 : index);
+                }
+            }
+            if (byMonthDay != null && byMonthDay.startsWith("-") && interval == 1)
+                return Frequency.OCCUR_BY_MONTHEND;
+            return interval == 1 ? Frequency.OCCUR_MONTHLY :
+                Frequency.genByInterval(interval, Frequency.UNIT_MONTHS);
+        }
+        else if ("YEARLY".equals(freq))
+            return interval == 1 ? Frequency.OCCUR_YEARLY :
+                Frequency.genByInterval(interval, Frequency.UNIT_YEARS);
+        return Frequency.OCCUR_ONCE;
+    }
+
+    /**
+     * Parses a TRIGGER of a VALARM.
+     * @param value - Duration (e.g. -PT15M) or date-time
+     * @param type - VALUE parameter (might be null)
+     * @param start - Start date of the event (might be null)
+     * @return Minutes before the start of the event, -1 if invalid.
+     */
+    private static int parseTrigger(String value, String type, Date start) {
+        if ("DATE-TIME".equalsIgnoreCase(type)) {
+            Date d = parseDate(value, null);
+            if (d == null || start == null)
+                return -1;
+            return (int) Math.max(0, start.minDiff(d));
+        }
+
+        Matcher m = DURATION.matcher(value);
+        if (!m.matches())
+            return -1;
+        int[] factors = {7 * 1440, 1440, 60, 1};
+        long minutes = 0;
+        for (int i = 0; i < factors.length; i++)
+            if (m.group(i + 2) != null)
+                minutes += Long.parseLong(m.group(i + 2)) * factors[i];
+        if (!m.group(1).equals("-"))
+            return 0;
+        return (int) minutes;
+    }
+
+    /**
+     * Parses a DATE or DATE-TIME value. Times in UTC or in the time zone
+     * specified are converted to local time.
+     * @param value - Value (e.g. 20120525, 20120525T143000Z)
+     * @param tzid - TZID parameter (might be null)
+     * @return Date or null if invalid.
+     */
+    private static Date parseDate(String value, String tzid) {
+        if (!value.matches("\\d{8}(T\\d{6}Z?)?"))
+            return null;
+        int year = Integer.parseInt(value.substring(0, 4));
+        int month = Integer.parseInt(value.substring(4, 6)) - 1;
+        int day = Integer.parseInt(value.substring(6, 8));
+        if (value.length() == 8)
+            return new Date(year, month, day);
+
+        int hour = Integer.parseInt(value.substring(9, 11));
+        int min = Integer.parseInt(value.substring(11, 13));
+        if (!value.endsWith("Z") && tzid == null)
+            return new Date(year, month, day, hour, min);
+
+        java.util.Calendar c = java.util.Calendar.getInstance(value.endsWith("Z") ?
+                TimeZone.getTimeZone("UTC") : TimeZone.getTimeZone(tzid));
+        c.clear();
+        c.set(year, month, day, hour, min);
+        Date local = new Date();
+        local.setTimeInMillis(c.getTimeInMillis());
+        return new Date(local.get(java.util.Calendar.YEAR), local.get(java.util.Calendar.MONTH),
+                local.get(java.util.Calendar.DAY_OF_MONTH),
+                local.get(java.util.Calendar.HOUR_OF_DAY), local.get(java.util.Calendar.MINUTE));
+    }
+
+    /**
+     *
+     * @param line - Content line
+     * @return Index of the colon separating name and value, -1 if none.
+     */
+    private static int findColon(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"')
+                quoted = !quoted;
+            else if (c == ':' && !quoted)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     *
+     * @param params - Name and parameters of a content line
+     * @param name - Parameter name
+     * @return Parameter value or null.
+     */
+    private static String getParam(String[] params, String name) {
+        for (int i = 1; i < params.length; i++)
+            if (params[i].toUpperCase().startsWith(name + "="))
+                return params[i].substring(name.length() + 1).replace("\"", "");
+        return null;
+    }
+
+    /**
+     *
+     * @param value - TEXT value
+     * @return Value without escapes.
+     */
+    private static String unescape(String value) {
+        StringBuilder b = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                c = value.charAt(++i);
+                b.append(c == 'n' || c == 'N' ? ' ' : c);
+            }
+            else
+                b.append(c);
+        }
+        return b.toString();
+    }
+
+    /**
+     *
+     * @param value - Text
+     * @return TEXT value with escapes.
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace(";", "\\;").replace(",", "\\,")
+                .replace("\n", "\\n");
+    }
+
+    /**
+     * Exports events to an iCalendar file. Each event is written as
+     * soon as it is converted.
+     * @param events - Events to export
+     * @param config - Configuration (for the default reminder)
+     * @param file - File to write
+     * @throws IOException
+     */
+    public static void write(Vector<Event> events, Configuration config,
+            String file) throws IOException {
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), Const.ENCODING));
+        try {
+            Date now = new Date();
+            now.setTimeZone(TimeZone.getTimeZone("UTC"));
+            String stamp = formatDateTime(now) + "Z";
+
+            writeLine(out, "BEGIN:VCALENDAR");
+            writeLine(out, "VERSION:2.0");
+            writeLine(out, "PRODID:-//" + Const.AUTHOR + "//" + Const.FILENAME + " "
+                    + Const.VERSION + "//DE");
+            for (Event e : events)
+                if (e.getID() != -1)
+                    writeEvent(out, e, config, stamp);
+            writeLine(out, "END:VCALENDAR");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes an event as VEVENT.
+     * @param out - Stream to write
+     * @param e - Event
+     * @param config - Configuration (for the default reminder)
+     * @param stamp - DTSTAMP
+     * @throws IOException
+     */
+    private static void writeEvent(BufferedWriter out, Event e, Configuration config,
+            String stamp) throws IOException {
+        Date start = e.getDate();
+        writeLine(out, "BEGIN:VEVENT");
+        writeLine(out, "UID:" + e.getID() + "-" + formatDate(start) + "@java-kalender");
+        writeLine(out, "DTSTAMP:" + stamp);
+        if (start.hasTime()) {
+            writeLine(out, "DTSTART:" + formatDateTime(start));
+            if (e.getEndDate() != null)
+                writeLine(out, "DTEND:" + formatDate(e.getEndDate()) + "T235900");
+        }
+        else {
+            Date end = (Date) (e.getEndDate() == null ? start : e.getEndDate()).clone();
+            end.add(java.util.Calendar.DAY_OF_MONTH, 1);
+            writeLine(out, "DTSTART;VALUE=DATE:" + formatDate(start));
+            writeLine(out, "DTEND;VALUE=DATE:" + formatDate(end));
+        }
+        writeLine(out, "SUMMARY:" + escape(e.getName()));
+
+        short f = e.getFrequency();
+        if (Frequency.isByDate(f)) {
+            if (Frequency.isW(f))
+                writeLine(out, "RRULE:FREQ=WEEKLY");
+            if (Frequency.isM(f))
+                writeLine(out, "RRULE:FREQ=MONTHLY");
+            if (Frequency.isY(f))
+                writeLine(out, "RRULE:FREQ=YEARLY");
+        }
+        else if (Frequency.isByWeekday(f)) {
+            int index = start.getWeekdayIndex();
+            writeLine(out, "RRULE:FREQ=MONTHLY;BYDAY=" + (index == 0 ? -1 : index)
+                    + DAYS[start.get(java.util.Calendar.DAY_OF_WEEK)]);
+        }
+        else if (Frequency.isByInterval(f))
+            writeLine(out, "RRULE:FREQ=" + UNITS[Frequency.getUnit(f)] + ";INTERVAL="
+                    + Frequency.getInterval(f));
+        else if (Frequency.isByEndOfMonth(f))
+            writeLine(out, "RRULE:FREQ=MONTHLY;BYMONTHDAY=-" + (start.getDaysToEndOfMonth() + 1));
+
+        int remind = e.getRemind();
+        if (remind == Configuration.defaultConfig.getReminder())
+            remind = config.getReminder();
+        if (remind != Event.NO_REMIND)
+            writeAlarm(out, e, Event.getReminderMinutes(remind));
+        for (int offset : e.getReminders())
+            writeAlarm(out, e, Event.getOffsetMinutes(offset));
+        writeLine(out, "END:VEVENT");
+    }
+
+    /**
+     * Writes a VALARM.
+     * @param out - Stream to write
+     * @param e - Event
+     * @param minutes - Minutes before the start
+     * @throws IOException
+     */
+    private static void writeAlarm(BufferedWriter out, Event e, int minutes)
+            throws IOException {
+        writeLine(out, "BEGIN:VALARM");
+        writeLine(out, "ACTION:DISPLAY");
+        writeLine(out, "DESCRIPTION:" + escape(e.getName()));
+        writeLine(out, "TRIGGER:" + (minutes == 0 ? "PT0M" : "-PT" + minutes + "M"));
+        writeLine(out, "END:VALARM");
+    }
+
+    /**
+     * Writes a content line, folded after 75 octets.
+     * @param out - Stream to write
+     * @param line - Content line
+     * @throws IOException
+     */
+    private static void writeLine(BufferedWriter out, String line) throws IOException {
+        int octets = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            int size = c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isSurrogate(c) ? 2 : 3;
+            if (octets + size > MAX_LINE && !Character.isLowSurrogate(c)) {
+                out.write("\r\n ");
+                octets = 1;
+            }
+            out.write(c);
+            octets += size;
+        }
+        out.write("\r\n");
+    }
+
+    /**
+     *
+     * @param d - Date
+     * @return Date as yyyyMMdd.
+     */
+    private static String formatDate(Date d) {
+        return String.format("%04d%02d%02d", d.get(java.util.Calendar.YEAR),
+                d.get(java.util.Calendar.MONTH) + 1, d.get(java.util.Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     *
+     * @param d - Date
+     * @return Date and time as yyyyMMddTHHmmss.
+     */
+    private static String formatDateTime(Date d) {
+        return formatDate(d) + String.format("T%02d%02d00",
+                d.get(java.util.Calendar.HOUR_OF_DAY), d.get(java.util.Calendar.MINUTE));
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.config.Configuration;
+import de.jsteltze.calendar.config.Const;
+import de.jsteltze.calendar.exceptions.CannotParseException;
+
+/**
+ * Append-only change journal next to the calendar XML file.<br>
+ * Every added, edited or removed event is appended as one line
+ * (the XML event line prefixed with 'A' or "D &lt;ID&gt;"), so an
+ * edit does not need to rewrite the whole XML file. On startup
+ * the journal is replayed on top of the XML file (snapshot).
+ * Compaction folds the journal into a new snapshot: the current
+ * journal is rotated to Kalender.journal.N and deleted as soon as
+ * a snapshot containing its records has been written. Snapshots
+ * are written by the save thread (see SaveTask).
+ * @author Johannes Steltzer
+ *
+ */
+public class Journal {
+
+    /** record prefixes */
+    private static final char RECORD_ADD = 'A', RECORD_DELETE = 'D';
+
+    /** parent calendar object */
+    private Calendar caller;
+
+    /** current journal file */
+    private File file;
+
+    /** writer for appending to the current journal (null if closed) */
+    private XMLWriter out;
+
+    /** stream under out (for forcing records to disk) */
+    private FileOutputStream outStream;
+
+    /** number of records not yet folded into a snapshot */
+    private int records;
+
+    /** last requested and last written snapshot generation */
+    private long generation, writtenGeneration;
+
+    /** lock for writing snapshots one after the other */
+    private final Object snapshotLock = new Object();
+
+    private static Logger logger = Logger.getLogger(Journal.class);
+
+    /**
+     * Construct a journal for a calendar workspace.
+     * @param caller - Parent calendar object
+     */
+    public Journal(Calendar caller) {
+        this.caller = caller;
+        this.file = new File(caller.getPath(Const.JOURNALFILE));
+        this.records = 0;
+        this.out = null;
+
+        /* continue numbering of rotated journals left over */
+        File[] rotated = getRotatedFiles();
+        this.generation = rotated.length == 0 ? 0 :
+            getGeneration(rotated[rotated.length - 1]);
+        this.writtenGeneration = 0;
+    }
+
+    /**
+     *
+     * @param f - Rotated journal file
+     * @return Generation of a rotated journal file (-1 if not numbered).
+     */
+    private static long getGeneration(File f) {
+        String name = f.getName();
+        try {
+            return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     *
+     * @return All rotated journal files ordered by generation.
+     */
+    private File[] getRotatedFiles() {
+        File dir = file.getAbsoluteFile().getParentFile();
+        final String prefix = file.getName() + ".";
+        File[] rotated = dir == null ? null : dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.getName().startsWith(prefix) && getGeneration(f) >= 0;
+            }
+        });
+        if (rotated == null)
+            return new File[0];
+        Arrays.sort(rotated, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long g1 = getGeneration(f1), g2 = getGeneration(f2);
+                return g1 < g2 ? -1 : (g1 > g2 ? 1 : 0);
+            }
+        });
+        return rotated;
+    }
+
+    /**
+     * Replays all journal records (rotated ones first) on top
+     * of the events read from the XML file. Records that cannot
+     * be parsed (e.g. a record torn by a crash) are skipped.
+     * @param events - Events from the snapshot, will be altered
+     */
+    public synchronized void replay(Vector<Event> events) {
+        XMLParser parser = new XMLParser();
+        File[] rotated = getRotatedFiles();
+        File[] all = Arrays.copyOf(rotated, rotated.length + 1);
+        all[rotated.length] = file;
+
+        for (File f : all) {
+            if (!f.exists())
+                continue;
+            logger.info("replay journal " + f.getName());
+            BufferedReader in = null;
+            try {
+                in = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(f), Const.ENCODING));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.length() < 2)
+                        continue;
+                    try {
+                        if (line.charAt(0) == RECORD_ADD) {
+                            Event e = parser.parseEventLine(line.substring(1));
+                            if (e == null || e.getID() == -1)
+                                throw new CannotParseException(line);
+                            removeByID(events, e.getID());
+                            events.add(e);
+                        }
+                        else if (line.charAt(0) == RECORD_DELETE)
+                            removeByID(events, Integer.parseInt(line.substring(2)));
+                        else
+                            throw new CannotParseException(line);
+                        records++;
+                    } catch (CannotParseException e) {
+                        logger.warn("skip journal record: " + line);
+                    } catch (NumberFormatException e) {
+                        logger.warn("skip journal record: " + line);
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("cannot read journal " + f.getName(), e);
+            } finally {
+                if (in != null)
+                    try {
+                        in.close();
+                    } catch (IOException e) {}
+            }
+        }
+    }
+
+    /**
+     * Removes an event by its ID.
+     * @param events - Events
+     * @param ID - ID of the event to remove
+     */
+    private static void removeByID(Vector<Event> events, int ID) {
+        for (int i = 0; i < events.size(); i++)
+            if (events.elementAt(i).getID() == ID) {
+                events.removeElementAt(i);
+                return;
+            }
+    }
+
+    /**
+     * Opens the current journal for appending (if not yet open).
+     * @throws IOException
+     */
+    private void open() throws IOException {
+        if (out != null)
+            return;
+        outStream = new FileOutputStream(file, true);
+        out = new XMLWriter(outStream.getChannel());
+    }
+
+    /**
+     * Closes the current journal.
+     */
+    private void close() {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.error("cannot close journal", e);
+        }
+        out = null;
+        outStream = null;
+    }
+
+    /**
+     * Writes the buffered record and forces it to disk.
+     * @throws IOException
+     */
+    private void commit() throws IOException {
+        out.flush();
+        outStream.getChannel().force(false);
+        records++;
+    }
+
+    /**
+     * Appends an added or edited event.
+     * @param e - Event (with its final ID)
+     * @throws IOException
+     */
+    public synchronized void append(Event e) throws IOException {
+        open();
+        out.write(RECORD_ADD);
+        e.write(out);
+        commit();
+    }
+
+    /**
+     * Appends the removal of an event.
+     * @param ID - ID of the removed event
+     * @throws IOException
+     */
+    public synchronized void appendRemoval(int ID) throws IOException {
+        open();
+        out.write(RECORD_DELETE);
+        out.write(' ');
+        out.writeNumber(ID);
+        out.write('\n');
+        commit();
+    }
+
+    /**
+     *
+     * @return Number of records not yet folded into a snapshot.
+     */
+    public synchronized int size() {
+        return records;
+    }
+
+    /**
+     * Rotates the journal, new records go to a fresh file. Call this
+     * when copying the events for a snapshot, on the thread changing
+     * them, so every record in the rotated journal is part of the copy.
+     * @return Generation of the snapshot (see writeSnapshot).
+     */
+    public synchronized long rotate() {
+        long gen = ++generation;
+        close();
+        if (file.exists() && !file.renameTo(new File(file.getPath() + "." + gen)))
+            logger.error("cannot rotate journal " + file.getName());
+        records = 0;
+        return gen;
+    }
+
+    /**
+     * Writes a new snapshot (XML file) of the events and configuration
+     * specified and removes all journal records contained in it.
+     * @param gen - Generation returned by rotate when copying the events
+     * @param snapshot - Copy of all events
+     * @param config - Copy of the configuration
+     * @return True if the snapshot was written.
+     */
+    public boolean writeSnapshot(long gen, Vector<Event> snapshot, Configuration config) {
+        synchronized (snapshotLock) {
+
+            /* a newer snapshot was written meanwhile */
+            if (gen < writtenGeneration)
+                return true;
+
+            if (!caller.save(snapshot, config, caller.getPath(Const.XMLFILE)))
+                return false;
+            writtenGeneration = gen;
+
+            for (File f : getRotatedFiles())
+                if (getGeneration(f) <= gen && !f.delete())
+                    logger.warn("cannot delete journal " + f.getName());
+            logger.info("snapshot " + gen + " written");
+            return true;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.AbstractButton;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPopupMenu;
+import javax.swing.SwingUtilities;
+import javax.swing.filechooser.FileSystemView;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.config.Const;
+
+/**
+ * Previews (thumbnails) of event attachments: images, text files and
+ * PDF files. Previews are generated on a low-priority background thread
+ * and stored as PNG in Const.PREVIEW_DIR, named by the content hash and
+ * modification time of the attachment, so they are computed only once.
+ * Recently shown previews are kept decoded in memory.
+ * @author Johannes Steltzer
+ *
+ */
+public class Previews {
+
+    /** maximum width and height of a preview */
+    public static final int SIZE = 96;
+
+    /** number of decoded previews kept in memory */
+    private static final int MEMORY_CACHE_SIZE = 64;
+
+    /** number of preview files kept on disk */
+    private static final int DISK_CACHE_SIZE = 512;
+
+    /** number of lines and chars per line shown of text files */
+    private static final int TEXT_LINES = 8, TEXT_COLUMNS = 24;
+
+    /** file name extensions of text files */
+    private static final String[] TEXT_TYPES = {"txt", "csv", "log", "ini", "xml", "htm", "html"};
+
+    /** marks attachments without preview in the memory cache */
+    private static final Icon NONE = new ImageIcon();
+
+    /** previews by workspace */
+    private static HashMap<String, Previews> previews = new HashMap<String, Previews>();
+
+    /** thread generating previews (created on demand) */
+    private static ExecutorService executor;
+
+    /** workspace directory */
+    private String workspace;
+
+    /** directory of the preview files */
+    private File dir;
+
+    /** decoded previews by key (least recently used first) */
+    private LinkedHashMap<String, Icon> icons;
+
+    private static Logger logger = Logger.getLogger(Previews.class);
+
+    /**
+     * Construct a new preview cache.
+     * @param workspace - Workspace directory
+     */
+    private Previews(String workspace) {
+        this.workspace = workspace;
+        this.dir = new File(workspace + File.separator + Const.PREVIEW_DIR);
+        this.icons = new LinkedHashMap<String, Icon>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Icon> eldest) {
+                return size() > MEMORY_CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Gets the previews of a workspace.
+     * @param workspace - Workspace directory
+     * @return Previews (created if not yet existing).
+     */
+    public static synchronized Previews get(String workspace) {
+        Previews p = previews.get(workspace);
+        if (p == null) {
+            p = new Previews(workspace);
+            previews.put(workspace, p);
+        }
+        return p;
+    }
+
+    /**
+     *
+     * @return Thread generating previews.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            ThreadPoolExecutor e = new ThreadPoolExecutor(1, 1,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "preview");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+            e.allowCoreThreadTimeOut(true);
+            executor = e;
+        }
+        return executor;
+    }
+
+    /**
+     * Checks whether there can be a preview for an event (by the type of
+     * its attachment, without reading it).
+     * @param ID - Event ID
+     * @return True if the event has an attachment of a supported type.
+     */
+    public boolean hasPreview(int ID) {
+        File f = EventFiles.get(workspace).getEntry(ID).attachment;
+        return f != null && getType(f) != null;
+    }
+
+    /**
+     * Shows the preview of the attachment of an event as the icon of a
+     * label or button. If the preview is in memory it is set right away,
+     * otherwise it is set (on the EDT) as soon as it is read or generated.
+     * Nothing happens if there is no preview.
+     * @param ID - Event ID
+     * @param c - JLabel or AbstractButton to show the preview
+     */
+    public void show(int ID, final JComponent c) {
+        EventFiles.Entry files = EventFiles.get(workspace).getEntry(ID);
+        final File f = files.attachment;
+        if (f == null || getType(f) == null)
+            return;
+
+        final String key = getKey(ID, f);
+        c.putClientProperty(Previews.class, key);
+        Icon icon;
+        synchronized (this) {
+            icon = icons.get(key);
+        }
+        if (icon != null) {
+            setIcon(c, key, icon);
+            return;
+        }
+
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Icon icon = load(key, f);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        setIcon(c, key, icon);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Sets a preview as icon, if the component still waits for it.
+     * @param c - JLabel or AbstractButton
+     * @param key - Key of the preview
+     * @param icon - Preview
+     */
+    private static void setIcon(JComponent c, String key, Icon icon) {
+        if (icon == NONE || !key.equals(c.getClientProperty(Previews.class)))
+            return;
+        if (c instanceof JLabel)
+            ((JLabel) c).setIcon(icon);
+        else if (c instanceof AbstractButton)
+            ((AbstractButton) c).setIcon(icon);
+        c.revalidate();
+
+        /* popup menus do not grow by themselves */
+        JPopupMenu popup = (JPopupMenu) SwingUtilities.getAncestorOfClass(JPopupMenu.class, c);
+        if (popup != null && popup.isVisible())
+            popup.pack();
+    }
+
+    /**
+     * Gets the key of the preview of an attachment: the hash of its
+     * content (or its path if not stored) and its modification time.
+     * @param ID - Event ID
+     * @param f - Attachment
+     * @return Key.
+     */
+    private String getKey(int ID, File f) {
+        String content = AttachmentStore.get(workspace).getHash(ID);
+        if (content == null)
+            content = f.getAbsolutePath();
+        return content + "|" + f.lastModified() + "|" + f.length();
+    }
+
+    /**
+     * Reads a preview from the disk cache or generates it (not on the
+     * EDT), and keeps it in memory.
+     * @param key - Key of the preview
+     * @param f - Attachment
+     * @return Preview or NONE.
+     */
+    private Icon load(String key, File f) {
+        synchronized (this) {
+            Icon icon = icons.get(key);
+            if (icon != null)
+                return icon;
+        }
+
+        long start = System.currentTimeMillis();
+        File cached = new File(dir, toFileName(key));
+        BufferedImage image = null;
+        try {
+            if (cached.exists()) {
+                image = ImageIO.read(cached);
+                cached.setLastModified(System.currentTimeMillis());
+            }
+            if (image == null) {
+                image = generate(f);
+                if (image != null)
+                    store(image, cached);
+            }
+        } catch (IOException e) {
+            logger.warn("no preview of " + f.getPath() + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            /* broken images may throw anything */
+            logger.warn("no preview of " + f.getPath() + ": " + e.toString());
+        }
+        logger.debug("preview of " + f.getName() + " in " + (System.currentTimeMillis() - start) + "ms");
+
+        Icon icon = image == null ? NONE : new ImageIcon(image);
+        synchronized (this) {
+            icons.put(key, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * Writes a preview to the disk cache and removes the least recently
+     * used previews if there are too many.
+     * @param image - Preview
+     * @param cached - Preview file
+     */
+    private void store(BufferedImage image, File cached) {
+        if (!dir.exists() && !dir.mkdir())
+            return;
+        try {
+            File tmp = new File(dir, cached.getName() + ".tmp");
+            ImageIO.write(image, "png", tmp);
+            if (!tmp.renameTo(cached))
+                tmp.delete();
+        } catch (IOException e) {
+            logger.warn("cannot store preview " + cached.getPath() + ": " + e.getMessage());
+        }
+
+        File[] files = dir.listFiles();
+        if (files == null || files.length <= DISK_CACHE_SIZE)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.valueOf(a.lastModified()).compareTo(b.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length - DISK_CACHE_SIZE * 3 / 4; i++)
+            files[i].delete();
+    }
+
+    /**
+     * Gets the type of an attachment by its name.
+     * @param f - Attachment
+     * @return "image", "pdf", "text" or null if there is no preview for
+     *      this type.
+     */
+    private static String getType(File f) {
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot == -1)
+            return null;
+        String ext = name.substring(dot + 1).toLowerCase();
+        if (ImageIO.getImageReadersBySuffix(ext).hasNext())
+            return "image";
+        if (ext.equals("pdf"))
+            return "pdf";
+        for (String t : TEXT_TYPES)
+            if (t.equals(ext))
+                return "text";
+        return null;
+    }
+
+    /**
+     * Generates the preview of an attachment.
+     * @param f - Attachment
+     * @return Preview or null.
+     * @throws IOException
+     */
+    private static BufferedImage generate(File f) throws IOException {
+        String type = getType(f);
+        if ("image".equals(type))
+            return generateImage(f);
+        if ("text".equals(type))
+            return generateText(f);
+        if ("pdf".equals(type))
+            return generateIcon(f);
+        return null;
+    }
+
+    /**
+     * Generates the preview of an image. Large images are subsampled
+     * while reading, so they are not decoded in full size.
+     * @param f - Image file
+     * @return Preview or null.
+     * @throws IOException
+     */
+    private static BufferedImage generateImage(File f) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(f);
+        if (in == null)
+            return null;
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext())
+                return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int w = reader.getWidth(0), h = reader.getHeight(0);
+                int step = Math.max(1, Math.max(w, h) / (2 * SIZE));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return scale(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Generates the preview of a text file: its first lines.
+     * @param f - Text file
+     * @return Preview.
+     * @throws IOException
+     */
+    private static BufferedImage generateText(File f) throws IOException {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.white);
+            g.fillRect(0, 0, SIZE, SIZE);
+            g.setColor(Color.lightGray);
+            g.drawRect(0, 0, SIZE - 1, SIZE - 1);
+            g.setColor(Color.darkGray);
+            g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 9));
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                    RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            int lineHeight = g.getFontMetrics().getHeight();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(f), Charset.defaultCharset()));
+            try {
+                String line;
+                for (int i = 0; i < TEXT_LINES && (line = in.readLine()) != null; i++) {
+                    if (line.length() > TEXT_COLUMNS)
+                        line = line.substring(0, TEXT_COLUMNS);
+                    g.drawString(line.replace('\t', ' '), 3, 2 + (i + 1) * lineHeight);
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Generates the preview of a file from its system icon (used for
+     * PDF files, as there is no PDF renderer in the JRE).
+     * @param f - File
+     * @return Preview or null.
+     */
+    private static BufferedImage generateIcon(File f) {
+        Icon icon = FileSystemView.getFileSystemView().getSystemIcon(f);
+        if (icon == null || icon.getIconWidth() <= 0)
+            return null;
+        BufferedImage image = new BufferedImage(icon.getIconWidth(), icon.getIconHeight(),
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            icon.paintIcon(null, g, 0, 0);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Scales an image to fit into SIZE x SIZE.
+     * @param src - Image
+     * @return Scaled image (or src if small enough).
+     */
+    private static BufferedImage scale(BufferedImage src) {
+        int w = src.getWidth(), h = src.getHeight();
+        if (w <= SIZE && h <= SIZE)
+            return src;
+        double factor = Math.min(SIZE / (double) w, SIZE / (double) h);
+        int sw = Math.max(1, (int) (w * factor)), sh = Math.max(1, (int) (h * factor));
+        BufferedImage image = new BufferedImage(sw, sh, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(src, 0, 0, sw, sh, null);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Converts a key into the name of a preview file.
+     * @param key - Key of the preview
+     * @return File name.
+     */
+    private static String toFileName(String key) {
+        try {
+            StringBuilder name = new StringBuilder(44);
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(key.getBytes(Const.ENCODING)))
+                name.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+            return name.append(".png").toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode()) + ".png";
+        } catch (IOException e) {
+            return Integer.toHexString(key.hashCode()) + ".png";
+        }
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.config.Configuration;
+import de.jsteltze.calendar.config.Const;
+import de.jsteltze.calendar.exceptions.CannotParseException;
+
+/**
+ * Year-partitioned event storage in the directory Kalender.segments.
+ * One-off events are kept in one file per year (e.g. 2012.xml),
+ * recurring events and multi-day events spanning the turn of a year
+ * in recurring.xml. Segments are loaded on demand, so years never
+ * viewed are neither parsed nor kept in memory. Only segments
+ * containing changes are written.<br>
+ * The index file keeps the number of events of each segment and the
+ * next free event ID, so both are known without loading all segments.
+ * A segment file that cannot be parsed is moved aside (e.g. to
+ * 2012.xml.bad), a segment that cannot be read is never written.
+ * @author Johannes Steltzer
+ *
+ */
+public class SegmentStore {
+
+    /** name of the segment for recurring events */
+    public static final String RECURRING = "recurring";
+
+    /** name of the index file */
+    private static final String INDEX_FILE = "segments.idx";
+
+    /** key of the next free ID in the index */
+    private static final String NEXT_ID = "next";
+
+    /** parent calendar object */
+    private Calendar caller;
+
+    /** directory of the segments */
+    private File dir;
+
+    /** number of events per segment and the next free ID */
+    private Properties index;
+
+    /** segments loaded into memory */
+    private HashSet<String> loaded;
+
+    /** segments that could not be read (and must not be written) */
+    private HashSet<String> broken;
+
+    /** lock for loading segments one at a time */
+    private final Object loadLock = new Object();
+
+    /** segments to write and the number of their last mark */
+    private HashMap<String, Long> dirty;
+
+    /** number of marks so far (see markDirty) */
+    private long marks;
+
+    /** true if the index needs to be written */
+    private boolean indexDirty;
+
+    private static Logger logger = Logger.getLogger(SegmentStore.class);
+
+    /**
+     * Construct a segment store for a calendar workspace.
+     * @param caller - Parent calendar object
+     */
+    public SegmentStore(Calendar caller) {
+        this.caller = caller;
+        this.dir = new File(caller.getPath(Const.SEGMENT_DIR));
+        this.index = new Properties();
+        this.loaded = new HashSet<String>();
+        this.broken = new HashSet<String>();
+        this.dirty = new HashMap<String, Long>();
+        this.marks = 0;
+        this.indexDirty = false;
+
+        File f = new File(dir, INDEX_FILE);
+        if (f.exists()) {
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(f);
+                index.load(in);
+            } catch (IOException e) {
+                logger.error("cannot read segment index", e);
+            } finally {
+                if (in != null)
+                    try {
+                        in.close();
+                    } catch (IOException e) {}
+            }
+        }
+    }
+
+    /**
+     *
+     * @param e - Event
+     * @return Name of the segment the event belongs to.
+     */
+    public static String getSegment(Event e) {
+        int year = e.getDate().get(java.util.Calendar.YEAR);
+        if (e.getFrequency() != Frequency.OCCUR_ONCE || (e.getEndDate() != null
+                && e.getEndDate().get(java.util.Calendar.YEAR) != year))
+            return RECURRING;
+        return getSegment(year);
+    }
+
+    /**
+     *
+     * @param year - Year
+     * @return Name of the segment of a year.
+     */
+    public static String getSegment(int year) {
+        return "" + year;
+    }
+
+    /**
+     *
+     * @param segment - Segment name
+     * @return File of a segment.
+     */
+    private File getFile(String segment) {
+        return new File(dir, segment + ".xml");
+    }
+
+    /**
+     *
+     * @param segment - Segment name
+     * @return True if the segment is loaded.
+     */
+    public synchronized boolean isLoaded(String segment) {
+        return loaded.contains(segment);
+    }
+
+    /**
+     * Loads a segment (if not loaded yet). The segment counts as loaded
+     * only if it was read successfully. A segment that cannot be parsed
+     * is moved aside and starts empty, a segment that cannot be read
+     * stays unloaded and is not written (see write).
+     * @param segment - Segment name
+     * @return Events of the segment, empty if already loaded or failed.
+     */
+    public Vector<Event> load(String segment) {
+        synchronized (loadLock) {
+            if (isLoaded(segment))
+                return new Vector<Event>();
+
+            Vector<Event> v = new Vector<Event>();
+            File f = getFile(segment);
+            if (f.exists()) {
+                logger.debug("load segment " + segment);
+                XMLParser parser = new XMLParser();
+                try {
+                    parser.parse(f.getPath());
+                    v = parser.getEvents();
+                } catch (CannotParseException e) {
+                    logger.error("cannot parse segment " + segment + ": " + e.getMessage());
+                    if (!moveAside(f)) {
+                        setBroken(segment);
+                        return v;
+                    }
+                } catch (IOException e) {
+                    logger.error("cannot read segment " + segment, e);
+                    setBroken(segment);
+                    return v;
+                }
+            }
+
+            synchronized (this) {
+                broken.remove(segment);
+                loaded.add(segment);
+            }
+            return v;
+        }
+    }
+
+    /**
+     * Marks a segment as not readable, so it is not written.
+     * @param segment - Segment name
+     */
+    private synchronized void setBroken(String segment) {
+        broken.add(segment);
+    }
+
+    /**
+     * Renames a segment file that cannot be parsed, so it is kept for
+     * repairing instead of being overwritten.
+     * @param f - Segment file
+     * @return True if moved.
+     */
+    private static boolean moveAside(File f) {
+        File bad = new File(f.getPath() + ".bad");
+        for (int i = 1; bad.exists(); i++)
+            bad = new File(f.getPath() + ".bad" + i);
+        if (!f.renameTo(bad)) {
+            logger.error("cannot move " + f.getName() + " to " + bad.getName());
+            return false;
+        }
+        logger.warn(f.getName() + " moved to " + bad.getName());
+        return true;
+    }
+
+    /**
+     *
+     * @return Names of all segments not loaded yet.
+     */
+    public synchronized Vector<String> getUnloadedSegments() {
+        Vector<String> v = new Vector<String>();
+        for (String segment : index.stringPropertyNames())
+            if (!segment.equals(NEXT_ID) && !loaded.contains(segment))
+                v.add(segment);
+        return v;
+    }
+
+    /**
+     *
+     * @return Number of events in segments not loaded yet.
+     */
+    public synchronized int getNumberOfUnloadedEvents() {
+        int num = 0;
+        for (String segment : getUnloadedSegments())
+            try {
+                num += Integer.parseInt(index.getProperty(segment));
+            } catch (NumberFormatException e) {}
+        return num;
+    }
+
+    /**
+     * Marks a segment to be written on the next call of write.
+     * @param segment - Segment name
+     */
+    public synchronized void markDirty(String segment) {
+        dirty.put(segment, ++marks);
+    }
+
+    /**
+     * 
+     * @return Number of marks so far. Pass it to write together with a
+     *         copy of the events taken at the same time.
+     */
+    public synchronized long getMarks() {
+        return marks;
+    }
+
+    /**
+     * Allocates a new event ID, unique among all segments.
+     * @param events - Events in memory
+     * @return Unused ID.
+     */
+    public synchronized int nextID(Vector<Event> events) {
+        int ID = 0;
+        try {
+            ID = Integer.parseInt(index.getProperty(NEXT_ID, "0"));
+        } catch (NumberFormatException e) {}
+        for (Event e : events)
+            if (e.getID() >= ID)
+                ID = e.getID() + 1;
+        index.setProperty(NEXT_ID, "" + (ID + 1));
+        indexDirty = true;
+        return ID;
+    }
+
+    /**
+     * Makes sure IDs below the ID specified are not allocated (e.g. IDs
+     * of archived events).
+     * @param ID - First ID to allocate at the earliest
+     */
+    public synchronized void reserveIDs(int ID) {
+        try {
+            if (Integer.parseInt(index.getProperty(NEXT_ID, "0")) >= ID)
+                return;
+        } catch (NumberFormatException e) {}
+        index.setProperty(NEXT_ID, "" + ID);
+        indexDirty = true;
+    }
+
+    /**
+     * Replaces all segments by the events specified (e.g. when switching
+     * from a single XML file to segments). All segments are written on
+     * the next call of write.
+     * @param events - All events
+     */
+    public synchronized void replaceAll(Vector<Event> events) {
+        for (String segment : index.stringPropertyNames())
+            if (!segment.equals(NEXT_ID))
+                dirty.put(segment, ++marks);
+        merge(events);
+    }
+
+    /**
+     * Marks the segments of the events specified as loaded and to be
+     * written. The segments must have been loaded before if they
+     * contain further events.
+     * @param events - Events
+     */
+    public synchronized void merge(Vector<Event> events) {
+        for (Event e : events)
+            if (e.getID() != -1) {
+                String segment = getSegment(e);
+                if (!broken.contains(segment))
+                    loaded.add(segment);
+                dirty.put(segment, ++marks);
+            }
+        nextID(events);
+    }
+
+    /**
+     * Writes all segments marked as dirty and the index. Segments marked
+     * again after the copy of the events was taken stay marked, segments
+     * that could not be read are not written and stay marked.
+     * @param events - Copy of all events in memory
+     * @param mark - Number of marks when the copy was taken (see getMarks)
+     * @return True if all segments were written.
+     */
+    public boolean write(Vector<Event> events, long mark) {
+        HashSet<String> toWrite = new HashSet<String>();
+        boolean ok = true;
+        synchronized (this) {
+            for (Map.Entry<String, Long> entry : dirty.entrySet())
+                if (entry.getValue() <= mark && !broken.contains(entry.getKey()))
+                    toWrite.add(entry.getKey());
+            if (!broken.isEmpty()) {
+                logger.error("segments not written, cannot be read: " + broken);
+                ok = false;
+            }
+            if (toWrite.isEmpty() && !indexDirty)
+                return ok;
+            indexDirty = false;
+        }
+
+        HashMap<String, Vector<Event>> bySegment = new HashMap<String, Vector<Event>>();
+        for (String segment : toWrite)
+            bySegment.put(segment, new Vector<Event>());
+        for (Event e : events)
+            if (e.getID() != -1) {
+                Vector<Event> v = bySegment.get(getSegment(e));
+                if (v != null)
+                    v.add(e);
+            }
+
+        if (!dir.exists() && !dir.mkdir()) {
+            logger.error("cannot create " + dir.getPath());
+            synchronized (this) {
+                indexDirty = true;
+            }
+            return false;
+        }
+
+        for (String segment : toWrite) {
+            Vector<Event> v = bySegment.get(segment);
+            File f = getFile(segment);
+            boolean written = v.isEmpty() ? !f.exists() || f.delete() :
+                caller.save(v, Configuration.defaultConfig, f.getPath());
+            synchronized (this) {
+                Long last = dirty.get(segment);
+                if (!written)
+                    ok = false;
+                else {
+                    if (last != null && last <= mark)
+                        dirty.remove(segment);
+                    if (v.isEmpty())
+                        index.remove(segment);
+                    else
+                        index.setProperty(segment, "" + v.size());
+                }
+            }
+            logger.debug("segment " + segment + " written: " + written);
+        }
+
+        return writeIndex() && ok;
+    }
+
+    /**
+     * Writes the index file.
+     * @return True if written.
+     */
+    private boolean writeIndex() {
+        File f = new File(dir, INDEX_FILE);
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                synchronized (this) {
+                    index.store(out, "events per segment, next free ID");
+                }
+                out.getChannel().force(true);
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tmp.toPath(), f.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("cannot write segment index", e);
+            synchronized (this) {
+                indexDirty = true;
+            }
+            return false;
+        }
+    }
+}
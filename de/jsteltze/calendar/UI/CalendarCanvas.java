@@ -19,7 +19,6 @@
 package de.jsteltze.calendar.UI;
 
 import java.awt.Color;
-import java.awt.Desktop;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
@@ -31,7 +30,6 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.io.IOException;
 import java.util.Vector;
 
 import javax.swing.ImageIcon;
@@ -44,8 +42,10 @@ import javax.swing.event.PopupMenuListener;
 
 import org.apache.log4j.Logger;
 
+import de.jsteltze.calendar.AttachmentStore;
 import de.jsteltze.calendar.Calendar;
 import de.jsteltze.calendar.Event;
+import de.jsteltze.calendar.Previews;
 import de.jsteltze.calendar.config.Configuration;
 import de.jsteltze.calendar.config.Const;
 import de.jsteltze.calendar.frames.EditEvent;
@@ -55,6 +55,7 @@ import de.jsteltze.calendar.frames.TableOfEventsSingleDay;
 import de.jsteltze.common.GraphicUtils;
 import de.jsteltze.common.calendar.Date;
 import de.jsteltze.common.calendar.Moon;
+import de.jsteltze.common.calendar.Sun;
 
 /**
  * Canvas on which to paint calendar contents.
@@ -1010,6 +1011,7 @@ public class CalendarCanvas
         Vector<Event> events = (Vector<Event>) calendar.getAllEvents().clone();
         Date date = (Date) calendar.getViewedDate().clone();
         date.setHasTime(false);
+        events.addAll(calendar.getArchivedEvents(date));
 
         matrix = new Cell[cols][rows];
 
@@ -1327,8 +1329,9 @@ public class CalendarCanvas
                     new ImageIcon(this.getClass().getClassLoader().getResource("media/attachment20.ico")));
             showAttachmentItem.addActionListener(this);
             popup.add(showAttachmentItem);
+            Previews.get(calendar.getWorkspace()).show(selectedEvent.getID(), showAttachmentItem);
         }
-        if (!selectedEvent.getNotes(calendar.getWorkspace()).equals("")) {
+        if (selectedEvent.hasNotes(calendar.getWorkspace())) {
             showNotesItem = new JMenuItem("Notizen anzeigen", 
                     new ImageIcon(this.getClass().getClassLoader().getResource("media/notes20.ico")));
             showNotesItem.addActionListener(this);
@@ -1370,6 +1373,15 @@ public class CalendarCanvas
             popup.addSeparator();
             popup.add(new JLabel("   Mondphase: " + Moon.moonPhaseToString(moon)));
         }
+        if (calendar.getConfig().getSun()) {
+            Configuration config = calendar.getConfig();
+            Date first = markedDates.firstElement();
+            popup.addSeparator();
+            popup.add(new JLabel("   Sonnenaufgang: " + Sun.minutesToString(
+                    Sun.getSunrise(first, config.getLatitude(), config.getLongitude()))));
+            popup.add(new JLabel("   Sonnenuntergang: " + Sun.minutesToString(
+                    Sun.getSunset(first, config.getLatitude(), config.getLongitude()))));
+        }
         popup.addPopupMenuListener(this);
         popup.setInvoker(this);
 //        popup.show(this, m.getX(), m.getY());
@@ -1814,14 +1826,10 @@ public class CalendarCanvas
             new Notification(calendar, selectedEvent);
         else if (e.getSource().equals(showNotesItem))
             selectedEvent.openNotesDialog(calendar.getGUI().getFrame(), 
-                    selectedEvent.getNotes(calendar.getWorkspace()), 
-                    true);
+                    calendar.getWorkspace(), null);
         else if (e.getSource().equals(showAttachmentItem))
-            try {
-                Desktop.getDesktop().open(selectedEvent.getAttachment(calendar.getWorkspace()));
-            } catch (IOException e1) {
-                logger.error("cannot open attachment...", e1);
-            }
+            AttachmentStore.get(calendar.getWorkspace()).open(selectedEvent.getID(),
+                    selectedEvent.getAttachment(calendar.getWorkspace()));
         else if (e.getSource().equals(copyItem))
             copiedEvent = selectedEvent.clone();
         else if (e.getSource().equals(pasteItem)) {
@@ -1841,6 +1849,6 @@ public class CalendarCanvas
             }
         }
         else if (e.getSource().equals(cutItem))
-            cuttedEvent = selectedEvent;
+            cuttedEvent = selectedEvent.clone();
     }
 }
\ No newline at end of file
@@ -276,7 +276,7 @@ public class CalendarPanel
                 Holidays.getNumberOfHolidays(calendar.getConfig().getSpecialDays())) + " Feiertage",
                 "Alle Feiertage anzeigen", (Window) null);
         holidaysLabel.addMouseListener(this);
-        notificationsLabel = new JLabel(calendar.getAlarmTasks().size() + " Erinnerungen aktiv");
+        notificationsLabel = new JLabel(calendar.getNumberOfAlarmTasks() + " Erinnerungen aktiv");
         
         //eventsLabel.setForeground(Color.blue);
         eventsLabel.setFont(Const.FONT_STATUSBAR);
@@ -350,7 +350,7 @@ public class CalendarPanel
         //cannot use this, since flexible holidays may occure twice
         //int num_events = calendar.getAllEvents().size() - num_holidays;
         int num_events = calendar.getNumberOfEvents();
-        int num_notis = calendar.getAlarmTasks().size();
+        int num_notis = calendar.getNumberOfAlarmTasks();
         eventsLabel.setText(num_events + " Ereignis" + (num_events == 1 ? "" : "se"));
         holidaysLabel.setText(num_holidays + " Feiertag" + (num_holidays == 1 ? "" : "e"));
         notificationsLabel.setText(num_notis + " Erinnerung" + (num_notis == 1 ? "" : "en") + " aktiv");
@@ -426,7 +426,7 @@ public class CalendarPanel
             return;
         infoLabel.setText(msg);
         infoLabel.revalidate();
-        msgPutter.interrupt();
+        msgPutter.start();
     }
     
     /**
@@ -502,8 +502,10 @@ public class CalendarPanel
     @Override
     public void mouseClicked(MouseEvent m) {
         
-        if (m.getSource().equals(eventsLabel))
+        if (m.getSource().equals(eventsLabel)) {
+            calendar.loadAllEvents();
             new TableOfEventsSingleDay(null, calendar, false);
+        }
         
         else if (m.getSource().equals(holidaysLabel))
             new TableOfEventsSingleDay(null, calendar, true);
@@ -38,6 +38,7 @@ import de.jsteltze.common.GraphicUtils;
 import de.jsteltze.common.Math;
 import de.jsteltze.common.calendar.Date;
 import de.jsteltze.common.calendar.Moon;
+import de.jsteltze.common.calendar.Sun;
 
 /**
  * Single cell (date) within calendar canvas.
@@ -115,6 +116,12 @@ public class Cell {
     
     /** moon phase */
     private byte moonPhase;
+    
+    /** show sunrise and sunset? */
+    private boolean showSun;
+    
+    /** sunrise and sunset in minutes (see Sun.getSunrise) */
+    private int sunrise, sunset;
 
     /**
      * Construct a new cell.
@@ -133,12 +140,20 @@ public class Cell {
         this.weekend = false;
         this.selected = false;
         this.moonPhase = Moon.MOON_NONE;
+        this.showSun = false;
         
         if (this.date != null) {
+            Configuration config = canvas.getOwner().getConfig();
             if (this.date.sameDateAs(new Date()))
                 today = true;
-            if (canvas.getOwner().getConfig().getMoon())
+            if (config.getMoon())
                 moonPhase = Moon.getMoonPhase(this.date);
+            if (config.getSun() && (owner.getView() == Configuration.VIEW_WEEK 
+                    || owner.getView() == Configuration.VIEW_DAY)) {
+                showSun = true;
+                sunrise = Sun.getSunrise(this.date, config.getLatitude(), config.getLongitude());
+                sunset = Sun.getSunset(this.date, config.getLatitude(), config.getLongitude());
+            }
         }
 
         if (owner.getView() == Configuration.VIEW_MONTH
@@ -971,6 +986,19 @@ public class Cell {
         x.setFont(W_HEADER_FONT);
         x.drawString(date.dateToString(false), start_x + 2,
                 start_y + (W_HEADER / 2) - 4);
+        
+        /* print sunrise and sunset right aligned (if there is space) */
+        if (showSun) {
+            int dateWidth = x.getFontMetrics().stringWidth(date.dateToString(false));
+            x.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 10));
+            String sun = getSunString();
+            int sunWidth = x.getFontMetrics().stringWidth(sun);
+            if (dateWidth + sunWidth + 8 < space.width) {
+                x.setColor(Color.gray);
+                x.drawString(sun, start_x + space.width - sunWidth - 3,
+                        start_y + (W_HEADER / 2) - 4);
+            }
+        }
 
         /* print events */
         fontsize = space.height / 10;
@@ -1039,6 +1067,25 @@ public class Cell {
         x.setColor(Color.black);
         x.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 16));
         x.drawString(header, D_CLEAR_LEFT + col * width + 3, D_CLEAR_UP - 4);
+        
+        if (showSun) {
+            x.setColor(Color.gray);
+            x.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+            x.drawString("Sonne: " + getSunString(), 
+                    D_CLEAR_LEFT + col * width + 305, D_CLEAR_UP - 4);
+        }
+    }
+    
+    /**
+     * 
+     * @return Sunrise and sunset of this cell as string.
+     */
+    private String getSunString() {
+        if (sunrise == Sun.SUN_NEVER_RISES)
+            return "Polarnacht";
+        else if (sunrise == Sun.SUN_NEVER_SETS)
+            return "Mitternachtssonne";
+        return Sun.minutesToString(sunrise) + " - " + Sun.minutesToString(sunset);
     }
     
     /**
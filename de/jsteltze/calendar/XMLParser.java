@@ -19,11 +19,17 @@
 package de.jsteltze.calendar;
 
 import java.awt.Color;
-import java.io.File;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Scanner;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -68,6 +74,40 @@ public class XMLParser {
     /** File to parse */
     private String file;
     
+    /** Revision of the file (counted up on every save, 0 if not written yet) */
+    private long revision;
+    
+    /** False for files of older versions which did not escape names */
+    private boolean escaped = true;
+    
+    /** Lines that could not be parsed */
+    private Vector<String> errors;
+    
+    /** Buffer for tokenizing event lines (reused for all lines) */
+    private char[] buffer;
+    
+    /** Reminders in their short form, index is the remind code */
+    private static String[] remindStrings;
+    
+    /** size of the file read buffer in chars */
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    
+    /** number of event lines parsed by one task */
+    private static final int CHUNK_SIZE = 2048;
+    
+    /** maximum number of bad lines listed in the error message */
+    private static final int MAX_ERRORS_SHOWN = 10;
+    
+    /** pool for parsing event lines in parallel (created on demand) */
+    private static ForkJoinPool pool;
+    
+    /** line with the program version and the revision of the file */
+    private static final Pattern VERSION_LINE = Pattern.compile(
+            "<Calendar version=\"\\d\\.\\d_svn\\d+\"( revision=\"(\\d+)\")?( escaped=\"yes\")?>");
+    
+    /** start and end tag of an event line */
+    private static final String EVENT_START = "    <Event", EVENT_END = "</Event>";
+    
     private static Logger logger = Logger.getLogger(XMLParser.class);
 
     /**
@@ -77,6 +117,8 @@ public class XMLParser {
     public XMLParser() {
         this.events = new Vector<Event>();
         this.config = Configuration.defaultConfig;
+        this.errors = new Vector<String>();
+        this.buffer = new char[256];
     }
 
     /**
@@ -87,84 +129,226 @@ public class XMLParser {
      */
     public void parse(String file) throws 
         CannotParseException, FileNotFoundException {
+        parse(file, true);
+    }
 
-        Scanner in = null;
-        this.file = file;
-        File datei = new File(file);
+    /**
+     * Parses the specified calendar XML file for settings and
+     * optionally events. 
+     * @param file - File path to parse
+     * @param withEvents - False for reading the config section only
+     * @throws CannotParseException
+     * @throws FileNotFoundException
+     */
+    public void parse(String file, boolean withEvents) throws 
+        CannotParseException, FileNotFoundException {
+
+        InputStream in;
         try {
-            in = new Scanner(datei, Const.ENCODING);
-        } catch (NoClassDefFoundError e) {
-            JOptionPane.showMessageDialog(null,
-                    "Zur Ausfhrung wird Java mit Version 1.6 oder aktueller bentigt.",
-                    "Java zu alt...", JOptionPane.ERROR_MESSAGE);
-            System.exit(1);
+            in = new FileInputStream(file);
+        } catch (IOException e) {
+            if (e instanceof FileNotFoundException)
+                throw (FileNotFoundException) e;
+            throw new CannotParseException(e.toString());
         }
+        parse(in, file, withEvents);
+    }
 
-        String zeile = "";
-        if (in.hasNextLine()) {
-            zeile = in.nextLine();
-            
-            /*
-             * UTF-8 BOM if exists
-             */
-            if ((int) zeile.charAt(0) == 0xfeff)
-                zeile = zeile.substring(1);
-
-            if (!zeile.startsWith("<?xml version="))
-                throw new CannotParseException("XML-Kopfzeile passt nicht ins Schema.");
-            if (!zeile.substring(30).startsWith(Const.ENCODING))
-                throw new CannotParseException("Unbekanntes XML-Encoding.");
-        }
+    /**
+     * Parses calendar XML from a stream (e.g. a compressed archive
+     * segment) for settings and optionally events. The stream is
+     * closed afterwards.
+     * @param stream - Stream to parse
+     * @param file - Name of the source (for error messages)
+     * @param withEvents - False for reading the config section only
+     * @throws CannotParseException
+     */
+    public void parse(InputStream stream, String file, boolean withEvents) throws 
+        CannotParseException {
 
-        if (in.hasNextLine()) {
-            zeile = in.nextLine();
-            if (!zeile.matches("<Calendar version=\"\\d\\.\\d_svn\\d+\">"))
-                throw new CannotParseException("Versions-Zeile nicht wie erwartet.");
+        this.file = file;
+        BufferedReader in;
+        try {
+            in = new BufferedReader(new InputStreamReader(
+                    stream, Const.ENCODING), READ_BUFFER_SIZE);
+        } catch (IOException e) {
+            try {
+                stream.close();
+            } catch (IOException e1) {}
+            throw new CannotParseException(e.toString());
         }
 
-        if (in.hasNextLine())
-            zeile = in.nextLine();
-
-        if (in.hasNextLine() && zeile.equals("  <Config>")) {
-            Vector<String> configLines = new Vector<String>();
-            while (!zeile.equals("  </Config>") && in.hasNextLine()) {
-                zeile = in.nextLine();
-                configLines.add(zeile);
+        try {
+            String zeile = in.readLine();
+            if (zeile != null) {
+                
+                /*
+                 * UTF-8 BOM if exists
+                 */
+                if (zeile.length() > 0 && (int) zeile.charAt(0) == 0xfeff)
+                    zeile = zeile.substring(1);
+    
+                if (!zeile.startsWith("<?xml version="))
+                    throw new CannotParseException("XML-Kopfzeile passt nicht ins Schema.");
+                if (zeile.length() < 30 || !zeile.substring(30).startsWith(Const.ENCODING))
+                    throw new CannotParseException("Unbekanntes XML-Encoding.");
             }
-
-            readConfigLines(configLines);
-
-            zeile = in.nextLine();
-        } else
-            logger.debug("No config section found. Default settings are already loaded.");
-
-        if (in.hasNextLine() && zeile.equals("  <Events>")) {
-            while (in.hasNextLine()
-                    && !(zeile = in.nextLine()).equals("  </Events>")) {
-                try {
-                    Event e = parseEventLine(zeile);
-                    if (e != null)
-                        events.add(e);
-                } catch (CannotParseException e) {
-                    showErrorMessage(zeile);
-                }
+    
+            if ((zeile = in.readLine()) != null) {
+                Matcher m = VERSION_LINE.matcher(zeile);
+                if (!m.matches())
+                    throw new CannotParseException("Versions-Zeile nicht wie erwartet.");
+                if (m.group(2) != null)
+                    revision = Long.parseLong(m.group(2));
+                escaped = m.group(3) != null;
+                zeile = in.readLine();
+            }
+    
+            if (zeile != null && zeile.equals("  <Config>")) {
+                Vector<String> configLines = new Vector<String>();
+                while (!zeile.equals("  </Config>") && 
+                        (zeile = in.readLine()) != null)
+                    configLines.add(zeile);
+    
+                readConfigLines(configLines);
+    
+                zeile = in.readLine();
+            } else
+                logger.debug("No config section found. Default settings are already loaded.");
+    
+            if (withEvents && zeile != null && zeile.equals("  <Events>")) {
+                ArrayList<String> lines = new ArrayList<String>();
+                while ((zeile = in.readLine()) != null && 
+                        !zeile.equals("  </Events>"))
+                    lines.add(zeile);
+                parseEventLines(lines);
+            }
+            showErrorMessage();
+        } catch (IOException e) {
+            throw new CannotParseException(e.toString());
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                logger.error("cannot close " + file, e);
             }
         }
-
-        in.close();
     }
     
     /**
-     * Shows an error massage that there was a problem with a
-     * specific line and that this line will be skipped.
+     * Parses the lines of the events section. Large sections are split
+     * into chunks which are parsed in parallel, the events are added in
+     * the order of the lines.
+     * @param lines - Lines of the events section
+     */
+    private void parseEventLines(final ArrayList<String> lines) {
+        final int n = lines.size();
+        final Event[] parsed = new Event[n];
+        final boolean[] bad = new boolean[n];
+        
+        if (n <= CHUNK_SIZE)
+            parseEventLines(this, lines, 0, n, parsed, bad);
+        else
+            getPool().invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    ArrayList<RecursiveAction> chunks = new ArrayList<RecursiveAction>();
+                    for (int i = 0; i < n; i += CHUNK_SIZE) {
+                        final int from = i, to = Math.min(n, i + CHUNK_SIZE);
+                        chunks.add(new RecursiveAction() {
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            protected void compute() {
+                                /* own parser for its own line buffer */
+                                XMLParser parser = new XMLParser();
+                                parser.escaped = escaped;
+                                parseEventLines(parser, lines, from, to, parsed, bad);
+                            }
+                        });
+                    }
+                    invokeAll(chunks);
+                }
+            });
+        
+        events.ensureCapacity(events.size() + n);
+        for (int i = 0; i < n; i++)
+            if (bad[i])
+                errors.add(lines.get(i));
+            else if (parsed[i] != null)
+                events.add(parsed[i]);
+    }
+    
+    /**
+     * Parses a range of event lines.
+     * @param parser - Parser to use
+     * @param lines - Lines of the events section
+     * @param from - First line of the range
+     * @param to - End of the range (exclusive)
+     * @param parsed - Parsed events (result)
+     * @param bad - True for lines that could not be parsed (result)
+     */
+    private static void parseEventLines(XMLParser parser, ArrayList<String> lines,
+            int from, int to, Event[] parsed, boolean[] bad) {
+        for (int i = from; i < to; i++)
+            try {
+                parsed[i] = parser.parseEventLine(lines.get(i));
+            } catch (CannotParseException e) {
+                bad[i] = true;
+            }
+    }
+    
+    /**
+     * 
+     * @return Pool for parsing in parallel.
+     */
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null)
+            pool = new ForkJoinPool();
+        return pool;
+    }
+    
+    /**
+     * Remembers a line that could not be parsed and will be skipped.
      * @param line - Line that could not be parsed
      */
-    private void showErrorMessage(String line) {
-        JOptionPane.showMessageDialog(null,
-                "Die Zeile:\n\"" + line + "\"\naus der Datei \"" + file 
-                + "\" passt nicht ins Schema.\nDie Zeile wird bersprungen.",
+    private void addError(String line) {
+        errors.add(line);
+    }
+    
+    /**
+     * Shows one error message listing the lines that could not be
+     * parsed (if any).
+     */
+    private void showErrorMessage() {
+        if (errors.isEmpty())
+            return;
+        logger.warn(errors.size() + " lines of " + file + " skipped");
+        
+        String lines = "";
+        for (int i = 0; i < errors.size() && i < MAX_ERRORS_SHOWN; i++)
+            lines += "\"" + errors.get(i) + "\"\n";
+        if (errors.size() > MAX_ERRORS_SHOWN)
+            lines += "...\n";
+        
+        boolean single = errors.size() == 1;
+        JOptionPane.showMessageDialog(null, (single ? "Die Zeile:\n" : 
+                "Die folgenden " + errors.size() + " Zeilen:\n") + lines 
+                + "aus der Datei \"" + file + "\" " + (single ? "passt" : "passen") 
+                + " nicht ins Schema.\n" + (single ? "Die Zeile wird" : "Diese Zeilen werden") 
+                + " bersprungen.",
                 "Fehler beim Lesen...", JOptionPane.ERROR_MESSAGE);
     }
+    
+    /**
+     * 
+     * @return Lines which could not be parsed.
+     */
+    public Vector<String> getErrors() {
+        return this.errors;
+    }
 
     /**
      * Parse config section of calendar XML file.
@@ -186,6 +370,14 @@ public class XMLParser {
         boolean startSystray = Configuration.defaultConfig.getSystrayStart();
         boolean playTheme = Configuration.defaultConfig.getPlayTheme();
         boolean buttonTexts = Configuration.defaultConfig.getButtonTexts();
+        boolean sun = Configuration.defaultConfig.getSun();
+        double latitude = Configuration.defaultConfig.getLatitude();
+        double longitude = Configuration.defaultConfig.getLongitude();
+        boolean journal = Configuration.defaultConfig.getJournal();
+        byte storage = Configuration.defaultConfig.getStorage();
+        String serverHost = Configuration.defaultConfig.getServerHost();
+        int serverPort = Configuration.defaultConfig.getServerPort();
+        int archiveAge = Configuration.defaultConfig.getArchiveAge();
 
         for (String s : configLines) {
             if (s.equals("  <Config>") || s.equals("  </Config>") || s.equals(""))
@@ -194,7 +386,7 @@ public class XMLParser {
                 try {
                     defaultView = (byte) Integer.parseInt(s.substring(17, 18));
                 } catch (NumberFormatException ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else if (s.matches("    <Remind>\\d+</Remind>")) {
                 try {
@@ -202,84 +394,118 @@ public class XMLParser {
                     tmp = tmp.substring(0, tmp.indexOf("<"));
                     reminder = (byte) Integer.parseInt(tmp);
                 } catch (NumberFormatException ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else if (s.matches("    <AtClose>\\d</AtClose>")) {
                 try {
                     atClose = (byte) Integer.parseInt(s.substring(13, 14));
                 } catch (NumberFormatException ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else if (s.matches("    <AtClickDay>\\d</AtClickDay>")) {
                 try {
                     atClickDay = (byte) Integer.parseInt(s.substring(16, 17));
                 } catch (NumberFormatException ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else if (s.matches("    <AtClickEvent>\\d</AtClickEvent>")) {
                 try {
                     atClickEvent = (byte) Integer.parseInt(s.substring(18, 19));
                 } catch (NumberFormatException ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else if (s.matches("    <Style>\\d</Style>")) {
                 try {
                     style = (byte) Integer.parseInt(s.substring(11, 12));
                 } catch (NumberFormatException ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else if (s.matches("    <HolidayID>\\d+</HolidayID>")) {
                 try {
                     holidays = Integer.parseInt(s.substring(15).replace(
                             "</HolidayID>", ""));
                 } catch (NumberFormatException ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else if (s.matches("    <SpecialDaysID>\\d+</SpecialDaysID>")) {
                 try {
                     specialDays = Integer.parseInt(s.substring(19).replace(
                             "</SpecialDaysID>", ""));
                 } catch (NumberFormatException ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else if (s.matches("    <AutoUpdate>\\w+</AutoUpdate>")) {
                 try {
                     autoUpdate = stringToBoolean(s.substring(16).replace(
                             "</AutoUpdate>", ""));
                 } catch (CannotParseException ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else if (s.matches("    <ShowMoon>\\w+</ShowMoon>")) {
                 try {
                     moon = stringToBoolean(s.substring(14).replace(
                             "</ShowMoon>", ""));
                 } catch (CannotParseException ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else if (s.matches("    <ButtonTexts>\\w+</ButtonTexts>")) {
                 try {
                     buttonTexts = stringToBoolean(s.substring(17).replace(
                             "</ButtonTexts>", ""));
                 } catch (CannotParseException ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else if (s.matches("    <SystrayStart>\\w+</SystrayStart>")) {
                 try {
                     startSystray = stringToBoolean(s.substring(18).replace(
                             "</SystrayStart>", ""));
                 } catch (CannotParseException ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else if (s.matches("    <PlayTheme>\\w+</PlayTheme>")) {
                 try {
                     playTheme = stringToBoolean(s.substring(15).replace(
                             "</PlayTheme>", ""));
                 } catch (CannotParseException ex) {
-                    showErrorMessage(s);
+                    addError(s);
+                }
+            } else if (s.matches("    <ShowSun>\\w+</ShowSun>")) {
+                try {
+                    sun = stringToBoolean(s.substring(13).replace(
+                            "</ShowSun>", ""));
+                } catch (CannotParseException ex) {
+                    addError(s);
+                }
+            } else if (s.matches("    <Journal>\\w+</Journal>")) {
+                try {
+                    journal = stringToBoolean(s.substring(13).replace(
+                            "</Journal>", ""));
+                } catch (CannotParseException ex) {
+                    addError(s);
+                }
+            } else if (s.matches("    <Storage>\\d</Storage>")) {
+                storage = Byte.parseByte(s.substring(13, 14));
+            } else if (s.matches("    <Server host=\"[\\w\\.\\-:]+\" port=\"\\d+\"/>")) {
+                try {
+                    String[] array = s.split("\"");
+                    serverHost = array[1];
+                    serverPort = Integer.parseInt(array[3]);
+                } catch (NumberFormatException ex) {
+                    addError(s);
+                }
+            } else if (s.matches("    <ArchiveAge>\\d+</ArchiveAge>")) {
+                archiveAge = Integer.parseInt(s.substring(16).replace(
+                        "</ArchiveAge>", ""));
+            } else if (s.matches("    <Location lat=\"[-+]?[\\d\\.]+(E-?\\d+)?\" lon=\"[-+]?[\\d\\.]+(E-?\\d+)?\"/>")) {
+                try {
+                    String[] array = s.split("\"");
+                    latitude = Double.parseDouble(array[1]);
+                    longitude = Double.parseDouble(array[3]);
+                } catch (NumberFormatException ex) {
+                    addError(s);
                 }
             } else if (s.matches("    <Theme>.+</Theme>")) {
-                themeFile = s.substring(11);
-                themeFile = themeFile.substring(0, themeFile.length() - "</Theme>".length());
+                themeFile = unescape(s.substring(11, s.length() - "</Theme>".length()));
             } else if (s.matches("    <Color r=\"\\d+\" g=\"\\d+\" b=\"\\d+\">\\d</Color>")) {
                 try {
                     String[] array = s.split("\"");
@@ -289,10 +515,10 @@ public class XMLParser {
                     int index = Integer.parseInt(array[6].substring(1, 2));
                     colors[index] = new Color(r, g, b);
                 } catch (Exception ex) {
-                    showErrorMessage(s);
+                    addError(s);
                 }
             } else {
-                showErrorMessage(s);
+                addError(s);
             }
         }
 
@@ -300,28 +526,12 @@ public class XMLParser {
                 atClickDay, atClickEvent, style, colors, holidays, 
                 specialDays, autoUpdate, moon, themeFile, startSystray, 
                 playTheme, buttonTexts);
-    }
-
-    /**
-     * Convert a string to a date. 
-     * @param s - String of the form DD.MM.YYYY (also D.M.YYYY)
-     * @return Date object.
-     * @throws CannotParseException
-     */
-    private Date stringToCalendar(String s) 
-        throws CannotParseException {
-        
-        String[] array = s.split("\\.");
-
-        int tag, monat, jahr;
-        try {
-            tag = Integer.parseInt(array[0]);
-            monat = Integer.parseInt(array[1]);
-            jahr = Integer.parseInt(array[2]);
-        } catch (Exception e) {
-            throw new CannotParseException(s);
-        }
-        return new Date(jahr, monat - 1, tag);
+        this.config.setSun(sun);
+        this.config.setLocation(latitude, longitude);
+        this.config.setJournal(journal);
+        this.config.setStorage(storage);
+        this.config.setServer(serverHost, serverPort);
+        this.config.setArchiveAge(archiveAge);
     }
 
     /**
@@ -340,233 +550,294 @@ public class XMLParser {
     }
 
     /**
-     * Converts a string to a time.
-     * @param s - String of the form HH:MM
-     * @return Date object that contains the time.
-     * @throws CannotParseException
+     * Compares a region of the tokenizer buffer with a string.
+     * @param start - First index within buffer
+     * @param end - Index after the last char within buffer
+     * @param s - String to compare with
+     * @return True if the region equals the string.
      */
-    private Date stringToTime(String s) throws CannotParseException {
-        String[] array = s.split(":");
-        int stunde, minute;
-        try {
-            stunde = Integer.parseInt(array[0]);
-            minute = Integer.parseInt(array[1]);
-        } catch (Exception e) {
-            throw new CannotParseException(s);
-        }
-        return new Date(stunde, minute);
-    }
-
-    /**
-     * Parse event ID.
-     * @param s - Event line
-     * @return ID.
-     * @throws CannotParseException
-     */
-    private int parseID(String s) throws CannotParseException {
-        /* Extrahiere ID */
-        Pattern p;
-        Matcher m;
-
-        p = Pattern.compile("ID=\"\\d+\"");
-        m = p.matcher(s);
-        if (m.find()) {
-            String id = s.substring(m.start(), m.end());
-            id = id.substring(4, id.length() - 1);
-            try {
-                return Integer.parseInt(id);
-            } catch (NumberFormatException n) {
-                throw new CannotParseException(id);
-            }
-        } else
-            return -1;
+    private boolean regionEquals(int start, int end, String s) {
+        if (end - start != s.length())
+            return false;
+        for (int i = start; i < end; i++)
+            if (buffer[i] != s.charAt(i - start))
+                return false;
+        return true;
     }
-
+    
     /**
-     * Parse event date and time.
-     * @param s - Event line
-     * @return Date object.
-     * @throws CannotParseException
+     * Parses a non-negative decimal number within the tokenizer buffer.
+     * @param start - First index within buffer
+     * @param end - Index after the last char within buffer
+     * @return Number.
+     * @throws CannotParseException if the region is empty or contains
+     *         anything but digits
      */
-    private Date parseDate(String s) throws CannotParseException {
-        /* Extrahiere Datum */
-        Pattern p;
-        Matcher m;
-        Date greg;
-
-        p = Pattern.compile("date=\"\\d+\\.\\d+\\.\\d+\"");
-        m = p.matcher(s);
-        if (m.find()) {
-            String date = s.substring(m.start(), m.end());
-            date = date.substring(6, date.length() - 1);
-            greg = stringToCalendar(date);
-        } else
-            throw new CannotParseException("Fehlender Datums-EIntrag.");
-
-        /* Extrahiere Uhrzeit */
-        p = Pattern.compile("time=\"\\d+:\\d+\"");
-        m = p.matcher(s);
-        if (m.find()) {
-            String time = s.substring(m.start(), m.end());
-            time = time.substring(6, time.length() - 1);
-            Date uhr = stringToTime(time);
-            greg.set(Calendar.HOUR_OF_DAY, uhr.get(Calendar.HOUR_OF_DAY));
-            greg.set(Calendar.MINUTE, uhr.get(Calendar.MINUTE));
-            greg.setHasTime(true);
-        } else {
-            greg.setHasTime(false);
+    private int parseNumber(int start, int end) throws CannotParseException {
+        if (start >= end || end - start > 9)
+            throw new CannotParseException(new String(buffer, start, end - start));
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            char c = buffer[i];
+            if (c < '0' || c > '9')
+                throw new CannotParseException(new String(buffer, start, end - start));
+            n = n * 10 + (c - '0');
         }
-
-        return greg;
+        return n;
     }
-
+    
     /**
-     * Parse event end date (if exists).
-     * @param s - Event line
-     * @return If exists end date, null otherwise. 
+     * Parses three numbers separated by a delimiter (e.g. D.M.YYYY
+     * or H:MM) within the tokenizer buffer.
+     * @param start - First index within buffer
+     * @param end - Index after the last char within buffer
+     * @param delim - Delimiter
+     * @param count - Number of numbers expected (2 or 3)
+     * @return Array of parsed numbers.
      * @throws CannotParseException
      */
-    private Date parseEndDate(String s) throws CannotParseException {
-        /* Extrahiere Datum */
-        Pattern p;
-        Matcher m;
-
-        p = Pattern.compile("endDate=\"\\d+\\.\\d+\\.\\d+\"");
-        m = p.matcher(s);
-        if (m.find()) {
-            String date = s.substring(m.start(), m.end());
-            date = date.substring(9, date.length() - 1);
-            return stringToCalendar(date);
-        } else
-            return null;
+    private int[] parseNumbers(int start, int end, char delim, int count) 
+        throws CannotParseException {
+        
+        int[] res = new int[count];
+        int index = 0, from = start;
+        for (int i = start; i <= end; i++)
+            if (i == end || buffer[i] == delim) {
+                if (index == count)
+                    throw new CannotParseException(new String(buffer, start, end - start));
+                res[index++] = parseNumber(from, i);
+                from = i + 1;
+            }
+        if (index != count)
+            throw new CannotParseException(new String(buffer, start, end - start));
+        return res;
     }
-
+    
     /**
-     * Parse reminder.
-     * @param s - Event line
-     * @return Reminde (see Event.REMIND_XXX).
-     * @throws CannotParseException
+     * Creates a string of a region within the tokenizer buffer and 
+     * resolves XML entities (&amp;lt; &amp;gt; &amp;amp; &amp;quot; 
+     * &amp;apos; and character references). Unknown entities are 
+     * kept as they are, files of older versions are not unescaped at all.
+     * @param start - First index within buffer
+     * @param end - Index after the last char within buffer
+     * @return Unescaped string.
      */
-    private byte parseRemind(String s) throws CannotParseException {
-        /* Extrahiere Datum */
-        Pattern p;
-        Matcher m;
-        byte remind = Configuration.defaultConfig.getReminder();
-
-        p = Pattern.compile("remind=\".+\"");
-        m = p.matcher(s);
-        if (m.find()) {
-            String rem = s.substring(m.start(), m.end());
-            rem = rem.substring(8, rem.length() - 1);
-            for (byte i = 0; i < Event.NUMBER_REMINDS; i++)
-                if (rem.equals(Event.getReminderAsString(i, true))) {
-                    remind = i;
-                    break;
+    private String unescape(int start, int end) {
+        int amp = escaped ? start : end;
+        while (amp < end && buffer[amp] != '&')
+            amp++;
+        if (amp == end)
+            return new String(buffer, start, end - start);
+        
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(buffer, start, amp - start);
+        for (int i = amp; i < end; i++) {
+            char c = buffer[i];
+            if (c != '&') {
+                sb.append(c);
+                continue;
+            }
+            int semi = i + 1;
+            while (semi < end && semi - i <= 10 && buffer[semi] != ';')
+                semi++;
+            if (semi >= end || buffer[semi] != ';') {
+                sb.append(c);
+                continue;
+            }
+            
+            int resolved = -1;
+            if (regionEquals(i + 1, semi, "lt"))
+                resolved = '<';
+            else if (regionEquals(i + 1, semi, "gt"))
+                resolved = '>';
+            else if (regionEquals(i + 1, semi, "amp"))
+                resolved = '&';
+            else if (regionEquals(i + 1, semi, "quot"))
+                resolved = '"';
+            else if (regionEquals(i + 1, semi, "apos"))
+                resolved = '\'';
+            else if (semi - i > 2 && buffer[i + 1] == '#') {
+                try {
+                    if (buffer[i + 2] == 'x' || buffer[i + 2] == 'X')
+                        resolved = Integer.parseInt(new String(buffer, i + 3, semi - i - 3), 16);
+                    else
+                        resolved = Integer.parseInt(new String(buffer, i + 2, semi - i - 2));
+                    if (!Character.isValidCodePoint(resolved))
+                        resolved = -1;
+                } catch (NumberFormatException e) {
+                    resolved = -1;
                 }
-            if (remind == Configuration.defaultConfig.getReminder())
-                throw new CannotParseException(s);
+            }
+            
+            if (resolved == -1)
+                sb.append(c);
+            else {
+                sb.appendCodePoint(resolved);
+                i = semi;
+            }
         }
-        return remind;
+        return sb.toString();
     }
-
+    
     /**
-     * Parse event frequency.
-     * @param s - Event line
-     * @return Frequency object.
-     * @throws CannotParseException
+     * Resolves XML entities of a string (see above).
+     * @param s - String to unescape
+     * @return Unescaped string.
      */
-    private short parseFrequency(String s) throws CannotParseException {
-        /* Extrahiere Jaehrlich */
-        Pattern p;
-        Matcher m;
-        short frequency = Frequency.OCCUR_ONCE;
-
-        p = Pattern.compile("yearly=\"\\w*\"");
-        m = p.matcher(s);
-        if (m.find()) {
-            String yearly = s.substring(m.start(), m.end());
-            yearly = yearly.substring(8, yearly.length() - 1);
-            if (stringToBoolean(yearly))
-                frequency |= Frequency.OCCUR_YEARLY;
-        }
-
-        /* Extrahiere Monatlich */
-        p = Pattern.compile("monthly=\"\\w*\"");
-        m = p.matcher(s);
-        if (m.find()) {
-            String monthly = s.substring(m.start(), m.end());
-            monthly = monthly.substring(9, monthly.length() - 1);
-            if (stringToBoolean(monthly))
-                frequency |= Frequency.OCCUR_MONTHLY;
-        }
-
-        /* Extrahiere Taeglich */
-        p = Pattern.compile("weekly=\"\\w*\"");
-        m = p.matcher(s);
-        if (m.find()) {
-            String weekly = s.substring(m.start(), m.end());
-            weekly = weekly.substring(8, weekly.length() - 1);
-            if (stringToBoolean(weekly))
-                frequency |= Frequency.OCCUR_WEEKLY;
-        }
-        
-        p = Pattern.compile("frequency=\"\\d*\"");
-        m = p.matcher(s);
-        if (m.find()) {
-            String freqS = s.substring(m.start(), m.end());
-            try {
-                return Short.parseShort(freqS.substring(11, freqS.length() - 1));
-            } catch (NumberFormatException n) {
-                throw new CannotParseException(freqS);
-            }
-        }
-
-        return frequency;
+    private String unescape(String s) {
+        int len = s.length();
+        if (len > buffer.length)
+            buffer = new char[Math.max(len, 2 * buffer.length)];
+        s.getChars(0, len, buffer, 0);
+        return unescape(0, len);
     }
-
+    
     /**
-     * Parse event name.
-     * @param s - Event line
-     * @return Event name.
-     * @throws CannotParseException
+     * Finds the reminder code of a reminder in its short form.
+     * @param start - First index within buffer
+     * @param end - Index after the last char within buffer
+     * @return Reminder (see Event.REMIND_XXX).
+     * @throws CannotParseException if the reminder is unknown
      */
-    private String parseName(String s) throws CannotParseException {
-        /* Extrahiere Beschreibung */
-        Pattern p = Pattern.compile(">.*</Event>");
-        Matcher m = p.matcher(s);
-        String beschreibung;
-        if (m.find()) {
-            beschreibung = s.substring(m.start(), m.end());
-            beschreibung = beschreibung.substring(1, beschreibung.length() - 8);
-            if (beschreibung.equals(""))
-                throw new CannotParseException("Beschreibung ist leer.");
-        } else
-            throw new CannotParseException(s);
-
-        return beschreibung;
+    private byte parseRemind(int start, int end) throws CannotParseException {
+        if (remindStrings == null) {
+            String[] tmp = new String[Event.NUMBER_REMINDS];
+            for (int i = 0; i < Event.NUMBER_REMINDS; i++)
+                tmp[i] = Event.getReminderAsString(i, true);
+            remindStrings = tmp;
+        }
+        for (byte i = 0; i < Event.NUMBER_REMINDS; i++)
+            if (regionEquals(start, end, remindStrings[i]))
+                return i;
+        throw new CannotParseException(new String(buffer, start, end - start));
     }
 
     /**
-     * Parse event.
+     * Parse event. All attributes and the name are read within one
+     * sweep over the line.
      * @param s - Event line
      * @return Event object.
      * @throws CannotParseException
      */
-    private Event parseEventLine(String s) throws CannotParseException {
+    Event parseEventLine(String s) throws CannotParseException {
         if (s.equals("  </Events>") || s.equals("  <Events>") || s.equals(""))
             return null;
 
-        if (!s.startsWith("    <Event "))
+        if (!s.startsWith(EVENT_START + " "))
             throw new CannotParseException(s);
-
-        Event newEvent = new Event(parseDate(s), /* start date */
-        parseEndDate(s), /* end date (might be null) */
-        parseName(s), /* name */
-        Event.HOLIDAY_NONE, /* no holiday */
-        parseFrequency(s), /* frequency */
-        parseRemind(s), /* time before reminding */
-        parseID(s)); /* ID (might be -1) */
-        return newEvent;
+        
+        int len = s.length();
+        if (len > buffer.length)
+            buffer = new char[Math.max(len, 2 * buffer.length)];
+        s.getChars(0, len, buffer, 0);
+        
+        int[] date = null, endDate = null, time = null;
+        short frequency = Frequency.OCCUR_ONCE;
+        short legacyFrequency = Frequency.OCCUR_ONCE;
+        boolean hasFrequency = false;
+        byte remind = Configuration.defaultConfig.getReminder();
+        int[] reminders = null;
+        int id = -1;
+        
+        /*
+         * Attributes: name="value" separated by blanks
+         */
+        int pos = EVENT_START.length();
+        while (true) {
+            while (pos < len && buffer[pos] == ' ')
+                pos++;
+            if (pos >= len)
+                throw new CannotParseException(s);
+            if (buffer[pos] == '>') {
+                pos++;
+                break;
+            }
+            
+            int nameStart = pos;
+            while (pos < len && buffer[pos] != '=' && buffer[pos] != ' ' && buffer[pos] != '>')
+                pos++;
+            int nameEnd = pos;
+            if (nameStart == nameEnd || pos + 1 >= len || 
+                    buffer[pos] != '=' || buffer[pos + 1] != '"')
+                throw new CannotParseException(s);
+            pos += 2;
+            int valueStart = pos;
+            while (pos < len && buffer[pos] != '"')
+                pos++;
+            if (pos >= len)
+                throw new CannotParseException(s);
+            int valueEnd = pos++;
+            
+            if (regionEquals(nameStart, nameEnd, "date"))
+                date = parseNumbers(valueStart, valueEnd, '.', 3);
+            else if (regionEquals(nameStart, nameEnd, "endDate"))
+                endDate = parseNumbers(valueStart, valueEnd, '.', 3);
+            else if (regionEquals(nameStart, nameEnd, "time"))
+                time = parseNumbers(valueStart, valueEnd, ':', 2);
+            else if (regionEquals(nameStart, nameEnd, "ID"))
+                id = parseNumber(valueStart, valueEnd);
+            else if (regionEquals(nameStart, nameEnd, "remind"))
+                remind = parseRemind(valueStart, valueEnd);
+            else if (regionEquals(nameStart, nameEnd, "reminders")) {
+                reminders = Event.parseOffsets(
+                        new String(buffer, valueStart, valueEnd - valueStart));
+                if (reminders == null)
+                    throw new CannotParseException(s);
+            }
+            else if (regionEquals(nameStart, nameEnd, "frequency")) {
+                int f = parseNumber(valueStart, valueEnd);
+                if (f > Short.MAX_VALUE)
+                    throw new CannotParseException(s);
+                frequency = (short) f;
+                hasFrequency = true;
+            }
+            
+            /* frequency attributes of older versions */
+            else if (regionEquals(nameStart, nameEnd, "yearly")) {
+                if (stringToBoolean(new String(buffer, valueStart, valueEnd - valueStart)))
+                    legacyFrequency |= Frequency.OCCUR_YEARLY;
+            }
+            else if (regionEquals(nameStart, nameEnd, "monthly")) {
+                if (stringToBoolean(new String(buffer, valueStart, valueEnd - valueStart)))
+                    legacyFrequency |= Frequency.OCCUR_MONTHLY;
+            }
+            else if (regionEquals(nameStart, nameEnd, "weekly")) {
+                if (stringToBoolean(new String(buffer, valueStart, valueEnd - valueStart)))
+                    legacyFrequency |= Frequency.OCCUR_WEEKLY;
+            }
+            else
+                logger.debug("unknown attribute ignored: " + 
+                        new String(buffer, nameStart, nameEnd - nameStart));
+        }
+        
+        /*
+         * Name: everything between '>' and the closing tag
+         */
+        int nameEnd = len - EVENT_END.length();
+        if (nameEnd < pos || !s.startsWith(EVENT_END, nameEnd))
+            throw new CannotParseException(s);
+        if (nameEnd == pos)
+            throw new CannotParseException("Beschreibung ist leer.");
+        if (date == null)
+            throw new CannotParseException("Fehlender Datums-EIntrag.");
+        
+        Date start = new Date(date[2], date[1] - 1, date[0]);
+        if (time != null) {
+            start.set(Calendar.HOUR_OF_DAY, time[0]);
+            start.set(Calendar.MINUTE, time[1]);
+            start.setHasTime(true);
+        } else
+            start.setHasTime(false);
+        
+        Event e = new Event(start, /* start date */
+            endDate == null ? null : new Date(endDate[2], endDate[1] - 1, endDate[0]), /* end date */
+            unescape(pos, nameEnd), /* name */
+            Event.HOLIDAY_NONE, /* no holiday */
+            hasFrequency ? frequency : legacyFrequency, /* frequency */
+            remind, /* time before reminding */
+            id); /* ID (might be -1) */
+        e.setReminders(reminders);
+        return e;
     }
 
     /**
@@ -584,4 +855,37 @@ public class XMLParser {
     public Configuration getConfig() {
         return this.config;
     }
+
+    /**
+     * 
+     * @return Revision of the file parsed (0 for files of older versions).
+     */
+    public long getRevision() {
+        return this.revision;
+    }
+
+    /**
+     * Reads only the revision of a calendar XML file.
+     * @param file - File path to read
+     * @return Revision of the file, 0 if the file does not exist or
+     *         has no revision.
+     */
+    public static long readRevision(String file) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), Const.ENCODING));
+            try {
+                in.readLine();
+                String zeile = in.readLine();
+                Matcher m = zeile == null ? null : VERSION_LINE.matcher(zeile);
+                if (m != null && m.matches() && m.group(2) != null)
+                    return Long.parseLong(m.group(2));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            logger.debug("cannot read revision of " + file + ": " + e.getMessage());
+        }
+        return 0;
+    }
 }
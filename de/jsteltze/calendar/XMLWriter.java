@@ -0,0 +1,358 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import de.jsteltze.calendar.config.Const;
+import de.jsteltze.common.calendar.Date;
+
+/**
+ * Writer for the calendar XML file. Text is collected in a reusable
+ * char buffer, numbers and dates are formatted right into the buffer
+ * (no temporary strings) and names are escaped, so they are read back
+ * unchanged by XMLParser. The buffer is encoded (Const.ENCODING) into
+ * a reusable byte buffer which is written to a file channel, or passed
+ * to another writer.
+ * @author Johannes Steltzer
+ *
+ */
+public class XMLWriter
+    extends Writer {
+
+    /** size of the buffers in chars for writing to a channel */
+    private static final int BUFFER_SIZE = 1 << 15;
+
+    /** size of the buffer in chars for writing to another writer */
+    private static final int SMALL_BUFFER_SIZE = 256;
+
+    /** collected text */
+    private char[] buffer;
+
+    /** number of chars in buffer */
+    private int count;
+
+    /** channel to write (null if writing to another writer) */
+    private FileChannel channel;
+
+    /** writer to pass the text to (null if writing to a channel) */
+    private Writer out;
+
+    /** encoder, encoded bytes and buffer wrapped as CharBuffer (only for a channel) */
+    private CharsetEncoder encoder;
+    private ByteBuffer bytes;
+    private CharBuffer chars;
+
+    /**
+     * Construct a new XML writer writing to a file channel.
+     * @param channel - Channel to write
+     */
+    public XMLWriter(FileChannel channel) {
+        this.channel = channel;
+        this.buffer = new char[BUFFER_SIZE];
+        this.chars = CharBuffer.wrap(buffer);
+        this.encoder = Charset.forName(Const.ENCODING).newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate(2 * BUFFER_SIZE);
+    }
+
+    /**
+     * Construct a new XML writer passing the text to another writer
+     * (e.g. a compressing stream or a StringWriter).
+     * @param out - Writer to pass the text to
+     */
+    public XMLWriter(Writer out) {
+        this.out = out;
+        this.buffer = new char[SMALL_BUFFER_SIZE];
+    }
+
+    /**
+     * Makes room for some chars in the buffer.
+     * @param n - Number of chars (at most the buffer size)
+     * @throws IOException
+     */
+    private void ensure(int n) throws IOException {
+        if (count + n > buffer.length)
+            drain(false);
+    }
+
+    /**
+     * Encodes and writes the buffer.
+     * @param endOfInput - True if no more text follows
+     * @throws IOException
+     */
+    private void drain(boolean endOfInput) throws IOException {
+        if (out != null) {
+            out.write(buffer, 0, count);
+            count = 0;
+            return;
+        }
+
+        chars.limit(count).position(0);
+        while (true) {
+            CoderResult r = encoder.encode(chars, bytes, endOfInput);
+            if (r.isOverflow())
+                writeBytes();
+            else
+                break;
+        }
+        if (endOfInput)
+            while (encoder.flush(bytes).isOverflow())
+                writeBytes();
+        writeBytes();
+
+        /* keep the first half of a surrogate pair for the next call */
+        int left = chars.remaining();
+        System.arraycopy(buffer, chars.position(), buffer, 0, left);
+        count = left;
+    }
+
+    /**
+     * Writes the encoded bytes to the channel.
+     * @throws IOException
+     */
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+        bytes.clear();
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensure(1);
+        buffer[count++] = (char) c;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        while (len > 0) {
+            ensure(1);
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(cbuf, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(String s) throws IOException {
+        int off = 0, len = s.length();
+        while (len > 0) {
+            ensure(1);
+            int n = Math.min(len, buffer.length - count);
+            s.getChars(off, off + n, buffer, count);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the XML header and the opening calendar tag. The tag marks
+     * the file as escaped, files of older versions are read without
+     * resolving entities.
+     * @param revision - Revision of the file (0 for none)
+     * @throws IOException
+     */
+    public void writeHeader(long revision) throws IOException {
+        write("<?xml version=\"1.0\" encoding=\"" + Const.ENCODING
+                + "\" standalone=\"yes\"?>\n<Calendar version=\"" + Const.VERSION + '"');
+        if (revision > 0) {
+            write(" revision=\"");
+            writeNumber(revision);
+            write('"');
+        }
+        write(" escaped=\"yes\">\n");
+    }
+
+    /**
+     * Writes text escaped for XML content or attribute values.
+     * Line breaks and other control chars are written as character
+     * references, so an event stays on one line.
+     * @param s - Text to write
+     * @throws IOException
+     */
+    public void writeEscaped(String s) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '<':
+                write("&lt;");
+                break;
+            case '>':
+                write("&gt;");
+                break;
+            case '&':
+                write("&amp;");
+                break;
+            case '"':
+                write("&quot;");
+                break;
+            default:
+                if (c < ' ') {
+                    write("&#");
+                    writeNumber(c);
+                    write(';');
+                }
+                else {
+                    ensure(1);
+                    buffer[count++] = c;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a decimal number.
+     * @param n - Number to write
+     * @throws IOException
+     */
+    public void writeNumber(long n) throws IOException {
+        ensure(20);
+        if (n < 0) {
+            buffer[count++] = '-';
+            n = -n;
+        }
+        int digits = 1;
+        for (long x = n / 10; x > 0; x /= 10)
+            digits++;
+        for (int i = count + digits - 1; i >= count; i--) {
+            buffer[i] = (char) ('0' + n % 10);
+            n /= 10;
+        }
+        count += digits;
+    }
+
+    /**
+     * Writes a date as D.M.YYYY.
+     * @param d - Date to write
+     * @throws IOException
+     */
+    public void writeDate(Date d) throws IOException {
+        writeNumber(d.get(java.util.Calendar.DAY_OF_MONTH));
+        write('.');
+        writeNumber(d.get(java.util.Calendar.MONTH) + 1);
+        write('.');
+        writeNumber(d.get(java.util.Calendar.YEAR));
+    }
+
+    /**
+     * Writes the time of a date as H:MM.
+     * @param d - Date with time to write
+     * @throws IOException
+     */
+    public void writeTime(Date d) throws IOException {
+        int minute = d.get(java.util.Calendar.MINUTE);
+        writeNumber(d.get(java.util.Calendar.HOUR_OF_DAY));
+        write(minute < 10 ? ":0" : ":");
+        writeNumber(minute);
+    }
+
+    /**
+     * Writes an attribute with a numeric value.
+     * @param name - Name of the attribute
+     * @param value - Value
+     * @throws IOException
+     */
+    public void writeAttribute(String name, long value) throws IOException {
+        write(' ');
+        write(name);
+        write("=\"");
+        writeNumber(value);
+        write('"');
+    }
+
+    /**
+     * Writes an attribute with a text value (escaped).
+     * @param name - Name of the attribute
+     * @param value - Value
+     * @throws IOException
+     */
+    public void writeAttribute(String name, String value) throws IOException {
+        write(' ');
+        write(name);
+        write("=\"");
+        writeEscaped(value);
+        write('"');
+    }
+
+    /**
+     * Writes an element with a text value (escaped) on a line of its own.
+     * @param indent - Indentation
+     * @param name - Name of the element
+     * @param value - Value
+     * @throws IOException
+     */
+    public void writeElement(String indent, String name, String value) throws IOException {
+        write(indent);
+        write('<');
+        write(name);
+        write('>');
+        writeEscaped(value);
+        write("</");
+        write(name);
+        write(">\n");
+    }
+
+    /**
+     * Writes an element with a numeric value on a line of its own.
+     * @param indent - Indentation
+     * @param name - Name of the element
+     * @param value - Value
+     * @throws IOException
+     */
+    public void writeElement(String indent, String name, long value) throws IOException {
+        write(indent);
+        write('<');
+        write(name);
+        write('>');
+        writeNumber(value);
+        write("</");
+        write(name);
+        write(">\n");
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain(false);
+        if (out != null)
+            out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        drain(true);
+        if (out != null)
+            out.close();
+        else
+            channel.close();
+    }
+}
@@ -19,10 +19,10 @@
 package de.jsteltze.calendar.config;
 
 import java.awt.Color;
-import java.io.BufferedWriter;
 import java.io.IOException;
 
 import de.jsteltze.calendar.Event;
+import de.jsteltze.calendar.XMLWriter;
 
 /**
  * Settings for calendar.
@@ -58,12 +58,50 @@ public class Configuration {
     
     /** Play theme on notification popups */
     private boolean playTheme;
+    
+    /** Show sunrise and sunset */
+    private boolean sun;
+    
+    /** Location for sunrise and sunset (degree) */
+    private double latitude, longitude;
+    
+    /** Save changes into a journal instead of rewriting the XML file */
+    private boolean journal;
+    
+    /** Where events are stored (see Configuration.STORAGE_XXX) */
+    private byte storage;
+    
+    /** Database server for STORAGE_SERVER and STORAGE_CLIENT */
+    private String serverHost;
+    private int serverPort;
+    
+    /** Age (years) of one-off events to move into the archive, 0 for never */
+    private int archiveAge;
+    
+    /** Indentation of the elements of the config section */
+    private static final String INDENT = "    ";
 
     public static final byte VIEW_YEAR = 0x00;
     public static final byte VIEW_MONTH = 0x01;
     public static final byte VIEW_WEEK = 0x02;
     public static final byte VIEW_DAY = 0x03;
     public static final byte VIEW_DEFAULT = -1;
+    
+    public static final byte STORAGE_XML = 0x00;
+    public static final byte STORAGE_DATABASE = 0x01;
+    public static final byte STORAGE_SERVER = 0x02;
+    public static final byte STORAGE_CLIENT = 0x03;
+    public static final byte STORAGE_SEGMENTS = 0x04;
+    public static final String[] STORAGE_LABELS =
+        {"XML-Datei", "Datenbank (Derby)", "Datenbank-Server bereitstellen", 
+        "Datenbank-Server nutzen", "XML-Dateien je Jahr"};
+    
+    public static final String DEFAULT_SERVER_HOST = "localhost";
+    public static final int DEFAULT_SERVER_PORT = 1527;
+    
+    public static final int[] ARCHIVE_AGES = {0, 1, 2, 5, 10};
+    public static final String[] ARCHIVE_AGE_LABELS =
+        {"nie", "nach 1 Jahr", "nach 2 Jahren", "nach 5 Jahren", "nach 10 Jahren"};
     public static final String[] VIEW_LABELS = 
         {"Jahresansicht", "Monatsansicht", "Wochenansicht", "Tagesansicht"};
     
@@ -90,6 +128,10 @@ public class Configuration {
     public static final byte STYLE_NIMBUS = 0x03;
     public static final String[] STYLE_LABELS = 
         {"System", "Swing", "Motif", "Nimbus"};
+    
+    /** default location: geographic center of Germany */
+    public static final double DEFAULT_LATITUDE = 51.16;
+    public static final double DEFAULT_LONGITUDE = 10.45;
 
     /** default configuration */
     public static final Configuration defaultConfig = new Configuration(
@@ -136,6 +178,39 @@ public class Configuration {
         this.systrayStart = systrayStart;
         this.playTheme = playTheme;
         this.buttonsText = buttonsText;
+        this.sun = false;
+        this.latitude = DEFAULT_LATITUDE;
+        this.longitude = DEFAULT_LONGITUDE;
+        this.journal = false;
+        this.storage = STORAGE_XML;
+        this.serverHost = DEFAULT_SERVER_HOST;
+        this.serverPort = DEFAULT_SERVER_PORT;
+        this.archiveAge = 0;
+    }
+
+    /**
+     * Creates a copy of these settings (e.g. for saving in background).
+     * The default configuration is returned itself, it is never changed
+     * and compared by identity.
+     * @return Clone.
+     */
+    @Override
+    public Configuration clone() {
+        if (this == defaultConfig)
+            return this;
+        Configuration c = new Configuration(view, reminder, onCloseAction,
+                onClickDayAction, onClickEventAction, style, colors.clone(), 
+                holidays, specialDays, autoUpdate, moon, theme, 
+                systrayStart, playTheme, buttonsText);
+        c.sun = this.sun;
+        c.latitude = this.latitude;
+        c.longitude = this.longitude;
+        c.journal = this.journal;
+        c.storage = this.storage;
+        c.serverHost = this.serverHost;
+        c.serverPort = this.serverPort;
+        c.archiveAge = this.archiveAge;
+        return c;
     }
 
     /**
@@ -143,43 +218,67 @@ public class Configuration {
      * @param b - Stream to write
      * @throws IOException
      */
-    public void write(BufferedWriter b) throws IOException {
+    public void write(XMLWriter b) throws IOException {
         if (this.equals(defaultConfig))
             return;
         b.write("  <Config>\n");
         if (this.view != defaultConfig.view)
-            b.write("    <DefaultView>" + this.view + "</DefaultView>\n");
+            b.writeElement(INDENT, "DefaultView", this.view);
         if (this.reminder != defaultConfig.reminder)
-            b.write("    <Remind>" + this.reminder + "</Remind>\n");
+            b.writeElement(INDENT, "Remind", this.reminder);
         if (this.onCloseAction != defaultConfig.onCloseAction)
-            b.write("    <AtClose>" + this.onCloseAction + "</AtClose>\n");
+            b.writeElement(INDENT, "AtClose", this.onCloseAction);
         if (this.onClickDayAction != defaultConfig.onClickDayAction)
-            b.write("    <AtClickDay>" + this.onClickDayAction + "</AtClickDay>\n");
+            b.writeElement(INDENT, "AtClickDay", this.onClickDayAction);
         if (this.onClickEventAction != defaultConfig.onClickEventAction)
-            b.write("    <AtClickEvent>" + this.onClickEventAction + "</AtClickEvent>\n");
+            b.writeElement(INDENT, "AtClickEvent", this.onClickEventAction);
         if (this.holidays != defaultConfig.holidays)
-            b.write("    <HolidayID>" + this.holidays + "</HolidayID>\n");
+            b.writeElement(INDENT, "HolidayID", this.holidays);
         if (this.specialDays != defaultConfig.specialDays)
-            b.write("    <SpecialDaysID>" + this.specialDays + "</SpecialDaysID>\n");
+            b.writeElement(INDENT, "SpecialDaysID", this.specialDays);
         if (this.style != defaultConfig.style)
-            b.write("    <Style>" + this.style + "</Style>\n");
+            b.writeElement(INDENT, "Style", this.style);
         if (this.autoUpdate != defaultConfig.autoUpdate)
-            b.write("    <AutoUpdate>" + this.autoUpdate + "</AutoUpdate>\n");
+            b.writeElement(INDENT, "AutoUpdate", String.valueOf(this.autoUpdate));
         if (this.moon != defaultConfig.moon)
-            b.write("    <ShowMoon>" + this.moon + "</ShowMoon>\n");
+            b.writeElement(INDENT, "ShowMoon", String.valueOf(this.moon));
         if (this.buttonsText != defaultConfig.buttonsText)
-            b.write("    <ButtonTexts>" + this.buttonsText + "</ButtonTexts>\n");
+            b.writeElement(INDENT, "ButtonTexts", String.valueOf(this.buttonsText));
         if (this.systrayStart != defaultConfig.systrayStart)
-            b.write("    <SystrayStart>" + this.systrayStart + "</SystrayStart>\n");
+            b.writeElement(INDENT, "SystrayStart", String.valueOf(this.systrayStart));
         if (this.playTheme != defaultConfig.playTheme)
-            b.write("    <PlayTheme>" + this.playTheme + "</PlayTheme>\n");
+            b.writeElement(INDENT, "PlayTheme", String.valueOf(this.playTheme));
         if (this.theme != defaultConfig.theme)
-            b.write("    <Theme>" + this.theme + "</Theme>\n");
+            b.writeElement(INDENT, "Theme", String.valueOf(this.theme));
+        if (this.sun != defaultConfig.sun)
+            b.writeElement(INDENT, "ShowSun", String.valueOf(this.sun));
+        if (this.latitude != defaultConfig.latitude || 
+                this.longitude != defaultConfig.longitude)
+            b.write("    <Location lat=\"" + this.latitude + "\" lon=\"" 
+                    + this.longitude + "\"/>\n");
+        if (this.journal != defaultConfig.journal)
+            b.writeElement(INDENT, "Journal", String.valueOf(this.journal));
+        if (this.storage != defaultConfig.storage)
+            b.writeElement(INDENT, "Storage", this.storage);
+        if (!this.serverHost.equals(defaultConfig.serverHost) || 
+                this.serverPort != defaultConfig.serverPort) {
+            b.write("    <Server");
+            b.writeAttribute("host", this.serverHost);
+            b.writeAttribute("port", this.serverPort);
+            b.write("/>\n");
+        }
+        if (this.archiveAge != defaultConfig.archiveAge)
+            b.writeElement(INDENT, "ArchiveAge", this.archiveAge);
         for (byte i = 0x00; i < ColorSet.MAXCOLORS; i++)
-            if (!this.colors[i].equals(ColorSet.DEFAULT[i]))
-                b.write("    <Color r=\"" + this.colors[i].getRed() + "\" g=\""
-                        + this.colors[i].getGreen() + "\" b=\""
-                        + this.colors[i].getBlue() + "\">" + i + "</Color>\n");
+            if (!this.colors[i].equals(ColorSet.DEFAULT[i])) {
+                b.write("    <Color");
+                b.writeAttribute("r", this.colors[i].getRed());
+                b.writeAttribute("g", this.colors[i].getGreen());
+                b.writeAttribute("b", this.colors[i].getBlue());
+                b.write('>');
+                b.writeNumber(i);
+                b.write("</Color>\n");
+            }
         b.write("  </Config>\n");
     }
 
@@ -304,6 +403,123 @@ public class Configuration {
         return this.playTheme;
     }
     
+    /**
+     * 
+     * @return True if sunrise and sunset are shown, false otherwise.
+     */
+    public boolean getSun() {
+        return this.sun;
+    }
+    
+    /**
+     * 
+     * @return Latitude of the location (north positive).
+     */
+    public double getLatitude() {
+        return this.latitude;
+    }
+    
+    /**
+     * 
+     * @return Longitude of the location (east positive).
+     */
+    public double getLongitude() {
+        return this.longitude;
+    }
+    
+    /**
+     * 
+     * @return True if changes are saved into a journal.
+     */
+    public boolean getJournal() {
+        return this.journal;
+    }
+    
+    /**
+     * 
+     * @return Where events are stored (see Configuration.STORAGE_XXX).
+     */
+    public byte getStorage() {
+        return this.storage;
+    }
+    
+    /**
+     * 
+     * @return Host name of the database server.
+     */
+    public String getServerHost() {
+        return this.serverHost;
+    }
+    
+    /**
+     * 
+     * @return Port of the database server.
+     */
+    public int getServerPort() {
+        return this.serverPort;
+    }
+    
+    /**
+     * 
+     * @return Age (years) of one-off events to move into the archive,
+     *         0 for never.
+     */
+    public int getArchiveAge() {
+        return this.archiveAge;
+    }
+    
+    /**
+     * Show or hide sunrise and sunset.
+     * @param x - True for showing
+     */
+    public void setSun(boolean x) {
+        this.sun = x;
+    }
+    
+    /**
+     * Set a new location for sunrise and sunset.
+     * @param latitude - Latitude (north positive)
+     * @param longitude - Longitude (east positive)
+     */
+    public void setLocation(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+    
+    /**
+     * Enable or disable the change journal.
+     * @param x - True for saving changes into a journal
+     */
+    public void setJournal(boolean x) {
+        this.journal = x;
+    }
+    
+    /**
+     * Set where events are stored.
+     * @param x - Storage to set (see Configuration.STORAGE_XXX)
+     */
+    public void setStorage(byte x) {
+        this.storage = x;
+    }
+    
+    /**
+     * Set the database server.
+     * @param host - Host name or address
+     * @param port - Port
+     */
+    public void setServer(String host, int port) {
+        this.serverHost = host;
+        this.serverPort = port;
+    }
+    
+    /**
+     * Set the age of one-off events to move into the archive.
+     * @param x - Age in years, 0 for never
+     */
+    public void setArchiveAge(int x) {
+        this.archiveAge = x;
+    }
+    
     /**
      * Set a new view.
      * @param x - View to set (see Configuation.VIEW_XXX)
@@ -40,10 +40,22 @@ public final class Const {
     public static final String NEW_FILENAME = "KalenderNEU.jar";
     public static final String UPDATER = "KalenderUpdater.jar";
     public static final String XMLFILE = "Kalender.xml";
+    public static final String LOCAL_XMLFILE = "Kalender.local.xml";
     public static final String LOCKFILE = "Kalender.lock";
+    public static final String SAVE_LOCKFILE = "Kalender.save.lock";
+    public static final String BINFILE = "Kalender.bin";
+    public static final String JOURNALFILE = "Kalender.journal";
+    public static final String DATABASE_DIR = "Kalender.db";
+    public static final int JOURNAL_MAX_RECORDS = 500;
     public static final String MAXIMIZEFILE = "Kalender.maximize";
     public static final String RELEASE_FILE = "Kalender.release";
     public static final String EVENT_DIR = "Kalender.Events";
+    public static final String SEGMENT_DIR = "Kalender.segments";
+    public static final String ARCHIVE_DIR = "Kalender.archive";
+    public static final String BLOB_DIR = "Kalender.attachments";
+    public static final String BLOB_INDEX = "refs.properties";
+    public static final String PREVIEW_DIR = "Kalender.previews";
+    public static final String TMP_DIR = "Kalender.tmp";
     public static final String NOTES_FILE = "notes.txt";
     public static final String LINK_FILE = "link.txt";
     public static final String DEFAULT_THEME = "media/notify.wav";
@@ -69,6 +69,9 @@ public class CalendarFrame
     private static final Image bell30 = Toolkit.getDefaultToolkit().createImage(CalendarFrame.class.getClassLoader().getResource("media/bell30.ico"));
     public static final Dimension defaultSize = new Dimension(695, 437);
 
+    /** maximum number of alarms listed in the tray icon message */
+    private static final int TRAY_ALARMS = 10;
+
     /** main object that manages all data and events */
     private Calendar calendar;
     
@@ -246,7 +249,8 @@ public class CalendarFrame
         int num_holidays = Holidays.getNumberOfHolidays(calendar.getConfig().getHolidays()) +
                 Holidays.getNumberOfHolidays(calendar.getConfig().getSpecialDays());
         Vector<Event> events = calendar.getAllEvents();
-        Vector<AlarmTask> alarms = calendar.getAlarmTasks();
+        Vector<AlarmTask> alarms = calendar.getAlarmScheduler().getAlarms(TRAY_ALARMS);
+        int numAlarms = calendar.getNumberOfAlarmTasks();
         String message = "Insgesamt: " + (events.size() - num_holidays) + " Ereignisse, " +
                 num_holidays + " Feiertage\n\n";
         message += "Heute:";
@@ -272,6 +276,8 @@ public class CalendarFrame
                 if (event.getDate().hasTime())
                     message += " (" + event.getDate().timeToString() + " Uhr)";
             }
+            if (numAlarms > alarms.size())
+                message += "\n    ... und " + (numAlarms - alarms.size()) + " weitere";
         }
         trayIcon.displayMessage("Kalender - " + now.dateToString(false) + " " + now.timeToString(), message, TrayIcon.MessageType.INFO);
     }
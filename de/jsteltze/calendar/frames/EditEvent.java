@@ -57,16 +57,19 @@ import javax.swing.JTextField;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.border.TitledBorder;
 
 import org.apache.log4j.Logger;
 
+import de.jsteltze.calendar.AttachmentStore;
 import de.jsteltze.calendar.Calendar;
 import de.jsteltze.calendar.Event;
+import de.jsteltze.calendar.EventFiles;
 import de.jsteltze.calendar.Frequency;
 import de.jsteltze.calendar.config.Const;
 import de.jsteltze.calendar.exceptions.InvalidDateException;
-import de.jsteltze.common.Copy;
 import de.jsteltze.common.ImageButton;
 import de.jsteltze.common.ImageButtonListener;
 import de.jsteltze.common.LinkLabel;
@@ -108,6 +111,9 @@ public class EditEvent
     /** additional notes (optional) */
     private JTextArea notesField;
     
+    /** true if the notes have been edited */
+    private boolean notesChanged;
+    
     /** starting date (auto-filled) */
     private JTextField dayStartField, monStartField, yearStartField;
     
@@ -139,6 +145,9 @@ public class EditEvent
     
     /** reminder selection */
     private JComboBox remindBox;
+
+    /** further reminders (e.g. "90min, 2d") */
+    private JTextField remindersField;
     
     /** parent object */
     private Calendar caller;
@@ -262,7 +271,7 @@ public class EditEvent
         chooseButton.addActionListener(this);
         chooseButton.setToolTipText("Datei auswhlen");
         if (event != null && event.getID() != -1) {
-            notesField.setText(event.getNotes(caller.getWorkspace()));
+            EventFiles.get(caller.getWorkspace()).loadNotes(event.getID(), notesField);
             File attachmentF = event.getAttachment(caller.getWorkspace());
             if (attachmentF != null) {
                 attachField.setText(attachmentF.getPath());
@@ -272,6 +281,27 @@ public class EditEvent
         }
         attachmentBox.addItemListener(this);
         attachment.add(attachmentBox, BorderLayout.WEST);
+        notesField.getDocument().addDocumentListener(new DocumentListener() {
+            private void changed() {
+                /* not editable while large notes are being read */
+                if (notesField.isEditable())
+                    notesChanged = true;
+            }
+            
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                changed();
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                changed();
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
         attachment.add(attachField, BorderLayout.CENTER);
         attachment.add(chooseButton, BorderLayout.EAST);
         attachment.setBorder(new EmptyBorder(5, 5, 5, 5));
@@ -432,6 +462,10 @@ public class EditEvent
             remindBox.setSelectedIndex(caller.getConfig().getReminder());
 
         reminderArea.add(remindBox);
+        remindersField = new JTextField(event.getRemindersAsString().replace(",", ", "), 12);
+        remindersField.setToolTipText("Weitere Erinnerungen, z.B. 90min, 2h, 3d, 1w, 1m");
+        reminderArea.add(new JLabel("weitere:"));
+        reminderArea.add(remindersField);
         reminderArea.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(),
                 "Erinnerung",
                 TitledBorder.DEFAULT_JUSTIFICATION,
@@ -626,6 +660,17 @@ public class EditEvent
             return;
         }
 
+        /*
+         * Check further reminders
+         */
+        int[] reminders = Event.parseOffsets(remindersField.getText());
+        if (reminders == null) {
+            JOptionPane.showMessageDialog(this,
+                    "Die weiteren Erinnerungen sind ungltig.\nBeispiel: 90min, 2h, 3d, 1w, 1m",
+                    "Ungltige Eingaben...", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
         /*
          * In case name and Dates are OK...
          */
@@ -652,34 +697,20 @@ public class EditEvent
         Event newEvent = new Event(startD, endD, nameField.getText(), Event.HOLIDAY_NONE,
                 freq, (byte) remindBox.getSelectedIndex(),
                 event.getID() == -1 || copy ? caller.genID() : event.getID());
+        newEvent.setReminders(reminders);
 
         /*
-         * Write notes to a file
+         * Write notes to a file (in background, only if edited or
+         * copied to a new event)
          */
-        if (notesField.getText().length() != 0) {
-            try {
-                String dirname = caller.getPath(Const.EVENT_DIR);
-                new File(dirname).mkdir();
-                new File(dirname += File.separator + newEvent.getID()).mkdir();
-
-                File notes_txt = new File(dirname + File.separator
-                        + Const.NOTES_FILE);
-                notes_txt.createNewFile();
-                if (!notes_txt.canWrite()) {
-                    JOptionPane.showMessageDialog(this,
-                            "Der Kalender hat hier keine Schreibrechte.",
-                            "Keine Schreibrechte...", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-
-                BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
-                        new FileOutputStream(notes_txt)));
-
-                out.write(notesField.getText());
-                out.close();
-            } catch (Exception e) {
-                logger.error("error while trying to write notes to a file...", e);
-            }
+        EventFiles files = EventFiles.get(caller.getWorkspace());
+        if (notesChanged)
+            files.saveNotes(newEvent.getID(), notesField.getText(), this);
+        else if (newEvent.getID() != event.getID() && event.getID() != -1) {
+            /* the notes may still be being read */
+            String notes = files.getNotes(event.getID());
+            if (notes.length() != 0)
+                files.saveNotes(newEvent.getID(), notes, this);
         }
 
         /*
@@ -696,7 +727,8 @@ public class EditEvent
                             "Alten Anhang lschen...", JOptionPane.YES_NO_OPTION,
                             JOptionPane.QUESTION_MESSAGE) == JOptionPane.NO_OPTION)
                         return;
-                    event.getAttachment(caller.getWorkspace()).delete();
+                    AttachmentStore.get(caller.getWorkspace()).delete(event.getID(), 
+                            event.getAttachment(caller.getWorkspace()));
                 }
                 new File(caller.getPath(Const.EVENT_DIR) + File.separator + event.getID()
                         + Const.LINK_FILE).delete();
@@ -753,20 +785,23 @@ public class EditEvent
                 /*
                  * Copy the complete file
                  */
-                File orig = new File(attachField.getText());
-                File copy = new File(dirname + File.separator + orig.getName());
-                new Copy(caller.getGUI().getFrame(), orig, copy);
+                AttachmentStore.get(caller.getWorkspace()).attach(caller.getGUI().getFrame(), 
+                        new File(attachField.getText()), newEvent.getID());
             }
         }
 
         /*
          * Nothing additional to attach -> so try deleting the folder
          */
-        else if (notesField.getText().length() == 0
+        else if (notesField.getDocument().getLength() == 0
                 && attachField.getText().length() == 0)
             new File(caller.getPath(Const.EVENT_DIR) + File.separator + 
                     event.getID()).delete();
 
+        EventFiles.get(caller.getWorkspace()).invalidate(newEvent.getID());
+        if (event.getID() != newEvent.getID())
+            EventFiles.get(caller.getWorkspace()).invalidate(event.getID());
+        
         if (copy)
             caller.newEvent(newEvent);
         else
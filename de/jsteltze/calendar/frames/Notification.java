@@ -20,6 +20,7 @@ package de.jsteltze.calendar.frames;
 
 import java.awt.BorderLayout;
 import java.awt.Dialog;
+import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Image;
 import java.awt.Toolkit;
@@ -41,6 +42,7 @@ import org.apache.log4j.Logger;
 
 import de.jsteltze.calendar.Calendar;
 import de.jsteltze.calendar.Event;
+import de.jsteltze.calendar.Previews;
 import de.jsteltze.calendar.config.ColorSet;
 import de.jsteltze.calendar.config.Const;
 import de.jsteltze.calendar.tasks.AlarmTask;
@@ -195,6 +197,17 @@ public class Notification
         if (attachmentIcon != null)
             lowerPanel.add(attachmentIcon);
         
+        /*
+         * Add preview of the attachment (shown when ready).
+         */
+        Previews previews = Previews.get(caller.getWorkspace());
+        if (previews.hasPreview(event.getID())) {
+            JLabel previewLabel = new JLabel();
+            previewLabel.setPreferredSize(new Dimension(Previews.SIZE, Previews.SIZE));
+            previews.show(event.getID(), previewLabel);
+            lowerPanel.add(previewLabel);
+        }
+        
         /*
          * Add icon for notes.
          * Click on this icon will open frame with text field.
@@ -358,7 +371,6 @@ public class Notification
                 new Notification(caller, event);
             }
             else {
-                java.util.Timer timer = new java.util.Timer(true);
                 int stunden = hourBox.getSelectedIndex();
                 int minuten = minuteBox.getSelectedIndex();
                 long minDuration = 60 * stunden + minuten;
@@ -369,9 +381,7 @@ public class Notification
                     if (minDuration < 0)
                         minDuration = 0;
                 }
-                AlarmTask at = new AlarmTask(caller, event);
-                caller.addAlarmTask(at);
-                timer.schedule(at, minDuration * 60 * 1000);
+                caller.addAlarmTask(new AlarmTask(caller, event), minDuration * 60 * 1000);
             }
         } 
         
@@ -39,6 +39,7 @@ import java.awt.event.KeyListener;
 import java.awt.geom.AffineTransform;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.URL;
 import java.util.Vector;
 
@@ -71,9 +72,11 @@ import javax.swing.plaf.basic.BasicLabelUI;
 
 import org.apache.log4j.Logger;
 
+import de.jsteltze.calendar.CSVParser;
 import de.jsteltze.calendar.Calendar;
 import de.jsteltze.calendar.Event;
 import de.jsteltze.calendar.Frequency;
+import de.jsteltze.calendar.ICalendar;
 import de.jsteltze.calendar.Update;
 import de.jsteltze.calendar.XMLParser;
 import de.jsteltze.calendar.config.ColorSet;
@@ -116,8 +119,10 @@ public class Settings
     /* For Tab1: "Allgemein" */
     private JComboBox remindBox, onCloseBox, styleBox, 
             onClickDayBox, onClickEventBox;
+    private JComboBox<String> storageBox, archiveBox;
     private JCheckBox autoUpdateBox, moonBox, ownThemeBox, 
-            systrayBox, playThemeBox, buttonTextsBox;
+            systrayBox, playThemeBox, buttonTextsBox, sunBox, journalBox;
+    private JTextField latitudeField, longitudeField, serverHostField, serverPortField;
     private JLabel ownThemeLabel;
     private JButton playThemeButton, chooseButton;
     private byte initUI, currentUI;
@@ -142,6 +147,7 @@ public class Settings
     private JLabel importExportLabel;
     private Vector<Event> possibleEvents;
     private Configuration possibleConfig;
+    private String importFile;
     private JButton fileButton;
     
     /* For Tab5: "Programminfo" */
@@ -174,6 +180,20 @@ public class Settings
         onCloseBox.addItem(Configuration.ON_CLOSE_LABELS[Configuration.ON_CLOSE_EXIT]);
         onCloseBox.addItem(Configuration.ON_CLOSE_LABELS[Configuration.ON_CLOSE_MOVE_TO_SYSTRAY]);
         onCloseBox.setSelectedIndex(caller.getConfig().getOnCloseAction());
+        storageBox = new JComboBox<String>();
+        storageBox.addItem(Configuration.STORAGE_LABELS[Configuration.STORAGE_XML]);
+        storageBox.addItem(Configuration.STORAGE_LABELS[Configuration.STORAGE_DATABASE]);
+        storageBox.addItem(Configuration.STORAGE_LABELS[Configuration.STORAGE_SERVER]);
+        storageBox.addItem(Configuration.STORAGE_LABELS[Configuration.STORAGE_CLIENT]);
+        storageBox.addItem(Configuration.STORAGE_LABELS[Configuration.STORAGE_SEGMENTS]);
+        storageBox.setSelectedIndex(caller.getConfig().getStorage());
+        archiveBox = new JComboBox<String>(Configuration.ARCHIVE_AGE_LABELS);
+        archiveBox.setSelectedIndex(getArchiveIndex(caller.getConfig().getArchiveAge()));
+        archiveBox.setToolTipText("Vergangene einmalige Ereignisse komprimiert ablegen");
+        serverHostField = new JTextField(caller.getConfig().getServerHost(), 10);
+        serverHostField.setToolTipText("Rechnername des Datenbank-Servers");
+        serverPortField = new JTextField("" + caller.getConfig().getServerPort(), 4);
+        serverPortField.setToolTipText("Port des Datenbank-Servers");
         onClickDayBox = new JComboBox();
         onClickDayBox.addItem(Configuration.ON_CLICK_DAY_LABELS[Configuration.ON_CLICK_DAY_OVERVIEW]);
         onClickDayBox.addItem(Configuration.ON_CLICK_DAY_LABELS[Configuration.ON_CLICK_DAY_NEW]);
@@ -200,12 +220,20 @@ public class Settings
         moonBox = new JCheckBox("Mondphasen anzeigen");
         moonBox.setSelected(caller.getConfig().getMoon());
         
+        sunBox = new JCheckBox("Sonnenauf- und -untergang anzeigen fr Breite/Lnge:");
+        sunBox.setSelected(caller.getConfig().getSun());
+        latitudeField = new JTextField("" + caller.getConfig().getLatitude(), 5);
+        longitudeField = new JTextField("" + caller.getConfig().getLongitude(), 5);
+        
         buttonTextsBox = new JCheckBox("Button-Texte anzeigen");
         buttonTextsBox.setSelected(caller.getConfig().getButtonTexts());
         
         systrayBox = new JCheckBox("Im Systray starten");
         systrayBox.setSelected(caller.getConfig().getSystrayStart());
         
+        journalBox = new JCheckBox("nderungen protokollieren statt die Datei komplett zu schreiben");
+        journalBox.setSelected(caller.getConfig().getJournal());
+        
         playThemeBox = new JCheckBox("Abspielmusik:");
         playThemeBox.setSelected(caller.getConfig().getPlayTheme());
         playThemeBox.addItemListener(this);
@@ -247,18 +275,21 @@ public class Settings
         JPanel p11 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
         JPanel p12 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
         
-        JPanel p2 = new JPanel(new GridLayout(3, 1));
+        JPanel p2 = new JPanel(new GridLayout(4, 1));
         JPanel p21 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
         JPanel p22 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
         JPanel p23 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JPanel p24 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
         
-        JPanel p3 = new JPanel(new GridLayout(6, 1));
+        JPanel p3 = new JPanel(new GridLayout(8, 1));
         JPanel p31 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
         JPanel p32 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
         JPanel p33 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
         JPanel p34 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
         JPanel p35 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
         JPanel p36 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JPanel p37 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JPanel p38 = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
 
         JPanel pC = new JPanel(new GridLayout(1, 1));
         JPanel pS = new JPanel(new FlowLayout(FlowLayout.RIGHT));
@@ -279,12 +310,16 @@ public class Settings
                 Const.FONT_BORDER_TEXT));
         
         p21.add(moonBox);
-        p22.add(buttonTextsBox);
-        p23.add(new JLabel(" Look and Feel: "));
-        p23.add(styleBox);
+        p22.add(sunBox);
+        p22.add(latitudeField);
+        p22.add(longitudeField);
+        p23.add(buttonTextsBox);
+        p24.add(new JLabel(" Look and Feel: "));
+        p24.add(styleBox);
         p2.add(p21);
         p2.add(p22);
         p2.add(p23);
+        p2.add(p24);
         p2.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(),
                 "Anzeige",
                 TitledBorder.DEFAULT_JUSTIFICATION,
@@ -305,6 +340,13 @@ public class Settings
         p34.add(onClickDayBox);
         p35.add(autoUpdateBox);
         p36.add(systrayBox);
+        p37.add(journalBox);
+        p37.add(new JLabel(" Archivieren: "));
+        p37.add(archiveBox);
+        p38.add(new JLabel(" Ereignisse speichern in: "));
+        p38.add(storageBox);
+        p38.add(serverHostField);
+        p38.add(serverPortField);
         
         p3.add(p31);
         p3.add(p32);
@@ -312,6 +354,8 @@ public class Settings
         p3.add(p34);
         p3.add(p35);
         p3.add(p36);
+        p3.add(p37);
+        p3.add(p38);
         p3.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(),
                 "Allgemein",
                 TitledBorder.DEFAULT_JUSTIFICATION,
@@ -560,7 +604,9 @@ public class Settings
         pWest.setBackground(Const.COLOR_SETTINGS_TABS_BG);
 
         /* Get all events but without holidays */
-        Vector<Event> events = caller.getAllEvents();
+        caller.loadAllEvents();
+        Vector<Event> events = new Vector<Event>(caller.getAllEvents());
+        events.addAll(caller.getArchivedEvents());
         Vector<Event> withoutHolidays = new Vector<Event>();
         for (Event e : events)
             if (!e.isHoliday() && !e.isSpecial())
@@ -795,6 +841,18 @@ public class Settings
         return -1;
     }
 
+    /**
+     * For tab "General": Returns the index of an archive age.
+     * @param age - Age in years (see Configuration.ARCHIVE_AGES)
+     * @return Index in the archive combo box.
+     */
+    private static int getArchiveIndex(int age) {
+        for (int i = 0; i < Configuration.ARCHIVE_AGES.length; i++)
+            if (Configuration.ARCHIVE_AGES[i] == age)
+                return i;
+        return 0;
+    }
+
     /**
      * The color in the colorChooser has been changed. This will
      * update the colorRect and the R,G,B-textFields properly. 
@@ -816,6 +874,11 @@ public class Settings
      * new configuration and add new events.
      */
     private void doImport() {
+        if (importFile != null) {
+            importInBackground(importFile);
+            return;
+        }
+        
         byte view = caller.getConfig().getView();
         byte reminder = caller.getConfig().getReminder();
         byte atClose = caller.getConfig().getOnCloseAction();
@@ -915,10 +978,19 @@ public class Settings
                         logger.debug("import color " + ColorSet.NAMES[i]);
                     }
 
-            caller.setConfig(new Configuration(view, reminder, atClose,
+            Configuration cfg = new Configuration(view, reminder, atClose,
                     atClickDay, atClickEvent, style, colors, holidayID, 
                     specialID, autoUpdate, moon, theme, systrayStart, 
-                    playTheme, buttonTexts));
+                    playTheme, buttonTexts);
+            cfg.setSun(caller.getConfig().getSun());
+            cfg.setLocation(caller.getConfig().getLatitude(), 
+                    caller.getConfig().getLongitude());
+            cfg.setJournal(caller.getConfig().getJournal());
+            cfg.setStorage(caller.getConfig().getStorage());
+            cfg.setServer(caller.getConfig().getServerHost(), 
+                    caller.getConfig().getServerPort());
+            cfg.setArchiveAge(caller.getConfig().getArchiveAge());
+            caller.setConfig(cfg);
         }
 
         logger.debug("import index=" + index);
@@ -932,18 +1004,65 @@ public class Settings
     }
 
     /**
-     * Opens an open-file-dialog for choosing a XML file to import.
-     * Parses the XML file and stores events and configuration
-     * in possibleEvents and possibleConfig.
+     * Imports all events of an iCalendar or CSV file in background.
+     * @param filename - File to import
+     */
+    private void importInBackground(final String filename) {
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final int num = filename.toLowerCase().endsWith(".csv") ?
+                            CSVParser.read(filename, caller) : ICalendar.read(filename, caller);
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            caller.getGUI().putMessage(num + " Ereignisse wurden importiert.");
+                        }
+                    });
+                } catch (final IOException e) {
+                    logger.error("cannot import " + filename, e);
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            JOptionPane.showMessageDialog(caller.getGUI().getFrame(), "Die Datei \""
+                                    + filename + "\" kann nicht gelesen werden.\n> " + e.getMessage(),
+                                    "Fehler beim Lesen...", JOptionPane.ERROR_MESSAGE);
+                        }
+                    });
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Opens an open-file-dialog for choosing a XML, iCalendar or CSV file
+     * to import. Parses the XML file and stores events and configuration
+     * in possibleEvents and possibleConfig. iCalendar and CSV files are
+     * not parsed here but imported completely when clicking "OK".
      */
     private void openImport() {
         JFileChooser chooser = new JFileChooser();
+        chooser.addChoosableFileFilter(new FileNameExtensionFilter("iCalendar-Datei", "ics"));
+        chooser.addChoosableFileFilter(new FileNameExtensionFilter(
+                "CSV-Datei (Name, Datum, Uhrzeit, Enddatum, Wiederholung, Erinnerung)", "csv"));
         chooser.setFileFilter(new FileNameExtensionFilter("XML-Datei", "xml"));
         if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             String filename = chooser.getSelectedFile().getPath();
             Vector<Event> events = new Vector<Event>();
             Configuration config = Configuration.defaultConfig;
             logger.debug("import file: " + filename);
+            importFile = null;
+
+            /* iCalendar or CSV file */
+            if (filename.toLowerCase().endsWith(".ics") || filename.toLowerCase().endsWith(".csv")) {
+                importFile = filename;
+                titleLabel.setText(filename);
+                titleLabel.setToolTipText(filename);
+                scrollPane.setViewportView(new JLabel(" Alle Ereignisse der Datei werden importiert."));
+                importExportLabel.setText("<html><body>\"OK\" klicken<br>zum Importieren.</body></html>");
+                return;
+            }
 
             /* new version file */
             if (filename.endsWith(".xml")) {
@@ -993,6 +1112,8 @@ public class Settings
         }
 
         JFileChooser chooser = new JFileChooser();
+        FileNameExtensionFilter icsFilter = new FileNameExtensionFilter("iCalendar-Datei", "ics");
+        chooser.addChoosableFileFilter(icsFilter);
         chooser.setFileFilter(new FileNameExtensionFilter("XML-Datei", "xml"));
         if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
             byte view = Configuration.defaultConfig.getView();
@@ -1120,9 +1241,24 @@ public class Settings
              */
             String filename = chooser.getSelectedFile().getPath();
             logger.debug("export file=" + filename);
-            if (!filename.endsWith(".xml"))
-                filename = filename.concat(".xml");
-            caller.save(selectedEvents, cfg, filename);
+            if (chooser.getFileFilter() == icsFilter || filename.toLowerCase().endsWith(".ics")) {
+                if (!filename.toLowerCase().endsWith(".ics"))
+                    filename = filename.concat(".ics");
+                try {
+                    ICalendar.write(selectedEvents, caller.getConfig(), filename);
+                } catch (IOException e) {
+                    logger.error("cannot export " + filename, e);
+                    JOptionPane.showMessageDialog(this, "Die Datei \""
+                            + filename + "\" kann nicht geschrieben werden.\n> " + e.getMessage(),
+                            "Fehler beim Schreiben...", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+            }
+            else {
+                if (!filename.endsWith(".xml"))
+                    filename = filename.concat(".xml");
+                caller.save(selectedEvents, cfg, filename);
+            }
 
             JOptionPane.showMessageDialog(this,
                     "Die gewhlten Daten wurden in die Datei\n" + filename
@@ -1165,8 +1301,38 @@ public class Settings
             for (int i = 0; i < ColorSet.MAXCOLORS; i++)
                 colors[i] = colorRects[i].getBackground();
 
+            /* get location, keep the old one if not parsable */
+            double latitude = caller.getConfig().getLatitude();
+            double longitude = caller.getConfig().getLongitude();
+            try {
+                double lat = Double.parseDouble(latitudeField.getText().trim().replace(',', '.'));
+                double lon = Double.parseDouble(longitudeField.getText().trim().replace(',', '.'));
+                if (Math.abs(lat) <= 90 && Math.abs(lon) <= 180) {
+                    latitude = lat;
+                    longitude = lon;
+                }
+            } catch (NumberFormatException ex) {
+                logger.debug("invalid location: " + latitudeField.getText() 
+                        + "/" + longitudeField.getText());
+            }
+
+            /* get database server, keep the old one if not valid */
+            String serverHost = caller.getConfig().getServerHost();
+            int serverPort = caller.getConfig().getServerPort();
+            try {
+                int port = Integer.parseInt(serverPortField.getText().trim());
+                if (serverHostField.getText().trim().matches("[\\w\\.\\-:]+") 
+                        && port > 0 && port < 65536) {
+                    serverHost = serverHostField.getText().trim();
+                    serverPort = port;
+                }
+            } catch (NumberFormatException ex) {
+                logger.debug("invalid server: " + serverHostField.getText() 
+                        + ":" + serverPortField.getText());
+            }
+
             /* apply new configuration */
-            caller.setConfig(new Configuration(
+            Configuration cfg = new Configuration(
                     (byte) caller.getGUI().getFrame().getView(),
                     (byte) remindBox.getSelectedIndex(), 
                     (byte) onCloseBox.getSelectedIndex(), 
@@ -1177,7 +1343,14 @@ public class Settings
                     moonBox.isSelected(), ownThemeBox.isSelected() ?
                             ownThemeLabel.getToolTipText() : null,
                     systrayBox.isSelected(), playThemeBox.isSelected(),
-                    buttonTextsBox.isSelected()));
+                    buttonTextsBox.isSelected());
+            cfg.setSun(sunBox.isSelected());
+            cfg.setLocation(latitude, longitude);
+            cfg.setJournal(journalBox.isSelected());
+            cfg.setStorage((byte) storageBox.getSelectedIndex());
+            cfg.setServer(serverHost, serverPort);
+            cfg.setArchiveAge(Configuration.ARCHIVE_AGES[archiveBox.getSelectedIndex()]);
+            caller.setConfig(cfg);
 
             /* in case of import/export tab */
             if (tab.getSelectedIndex() == TAB_IMEXPORT)
@@ -1199,6 +1372,14 @@ public class Settings
             styleBox.setSelectedIndex(Configuration.defaultConfig.getStyle());
             autoUpdateBox.setSelected(Configuration.defaultConfig.getAutoUpdate());
             moonBox.setSelected(Configuration.defaultConfig.getMoon());
+            sunBox.setSelected(Configuration.defaultConfig.getSun());
+            journalBox.setSelected(Configuration.defaultConfig.getJournal());
+            storageBox.setSelectedIndex(Configuration.defaultConfig.getStorage());
+            archiveBox.setSelectedIndex(getArchiveIndex(Configuration.defaultConfig.getArchiveAge()));
+            serverHostField.setText(Configuration.defaultConfig.getServerHost());
+            serverPortField.setText("" + Configuration.defaultConfig.getServerPort());
+            latitudeField.setText("" + Configuration.defaultConfig.getLatitude());
+            longitudeField.setText("" + Configuration.defaultConfig.getLongitude());
             ownThemeBox.setSelected(false);
         }
         else if (a.getSource().equals(defaultButtonTab2)) {
@@ -1292,6 +1473,7 @@ public class Settings
         }
         else if (tab.getSelectedIndex() == TAB_IMEXPORT) {
             if (i.getSource().equals(importButton)) {
+                importFile = null;
                 scrollPane.setViewportView(new JPanel());
                 importExportLabel.setText("<html><body>\"Datei...\" klicken,<br>um Datei zum<br>Importieren zu<br>whlen.</body></html>");
                 titleLabel.setText("Noch keine Datei gewhlt...");
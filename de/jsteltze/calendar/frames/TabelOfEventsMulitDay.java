@@ -54,6 +54,7 @@ import de.jsteltze.common.SelectablePanelGroup;
 import de.jsteltze.common.SelectablePanelListener;
 import de.jsteltze.common.calendar.Date;
 import de.jsteltze.common.calendar.Moon;
+import de.jsteltze.common.calendar.Sun;
 
 /**
  * Frame for analyzing a set of selected dates.
@@ -96,6 +97,9 @@ public class TabelOfEventsMulitDay
             num_moon_full, num_moon_half1, num_moon_half2, 
             num_moon_new, num_total;
     
+    /** total, minimal and maximal day length in minutes */
+    private int daylight_total, daylight_min, daylight_max;
+    
     /** Group of selectable panels. */
     private SelectablePanelGroup spg;
     
@@ -133,6 +137,10 @@ public class TabelOfEventsMulitDay
         num_moon_half2 = 0;
         num_moon_new = 0;
         num_total = 0;
+        daylight_total = 0;
+        daylight_min = Integer.MAX_VALUE;
+        daylight_max = 0;
+        Configuration config = cal.getConfig();
         
         /*
          * Analyze selected cells
@@ -158,6 +166,16 @@ public class TabelOfEventsMulitDay
             else if (moon == Moon.MOON_NEW) 
                 num_moon_new++;
             
+            if (config.getSun()) {
+                int daylight = Sun.getDayLength(c.getDate(), 
+                        config.getLatitude(), config.getLongitude());
+                daylight_total += daylight;
+                if (daylight < daylight_min)
+                    daylight_min = daylight;
+                if (daylight > daylight_max)
+                    daylight_max = daylight;
+            }
+            
             /*
              * Collect events and holidays
              */
@@ -295,6 +313,9 @@ public class TabelOfEventsMulitDay
             rows += specialDays.size();
         if (extendEvents)
             rows += events.size();
+        boolean showSun = cal.getConfig().getSun() && num_total > 0;
+        if (showSun)
+            rows++;
         JPanel properties = new JPanel(new BorderLayout());
         JPanel leftProps = new JPanel(new GridLayout(rows, 1));
         JPanel rightProps = new JPanel(new GridLayout(rows, 1));
@@ -322,6 +343,8 @@ public class TabelOfEventsMulitDay
         leftPanels[index++].add(new JLabel("Ereignisse: "));
         if (extendEvents)
             index += events.size();
+        if (showSun)
+            leftPanels[index++].add(new JLabel("Tageslicht: "));
 
         /* Number of events on the right site */
         index = 0;
@@ -402,6 +425,12 @@ public class TabelOfEventsMulitDay
             }
         }
         
+        if (showSun)
+            eventPanels[index++].add(new JLabel(" " + 
+                    Sun.minutesToString(daylight_total / num_total) + " h (" + 
+                    Sun.minutesToString(daylight_min) + " - " + 
+                    Sun.minutesToString(daylight_max) + " h)"));
+        
         properties.add(leftProps, BorderLayout.WEST);
         properties.add(rightProps, BorderLayout.CENTER);
         
@@ -58,6 +58,7 @@ import org.apache.log4j.Logger;
 import de.jsteltze.calendar.Calendar;
 import de.jsteltze.calendar.Event;
 import de.jsteltze.calendar.Frequency;
+import de.jsteltze.calendar.Previews;
 import de.jsteltze.calendar.config.Const;
 import de.jsteltze.common.ImageButton;
 import de.jsteltze.common.ImageButtonListener;
@@ -119,6 +120,9 @@ public class TableOfEventsSingleDay
     /** event table */
     private JTable eventTable;
     
+    /** preview of the attachment of the selected event (null if no event has one) */
+    private JLabel previewLabel;
+    
     /** show holidays or events? */
     private boolean holidaysOnly;
     
@@ -317,6 +321,19 @@ public class TableOfEventsSingleDay
             eventTable.addMouseListener(this);
             
             eventPanel.add(new JScrollPane(eventTable, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED));
+            
+            /*
+             * Reserve space for previews of attachments
+             */
+            Previews previews = Previews.get(caller.getWorkspace());
+            for (Event e : events)
+                if (previews.hasPreview(e.getID())) {
+                    previewLabel = new JLabel();
+                    previewLabel.setHorizontalAlignment(JLabel.CENTER);
+                    previewLabel.setPreferredSize(new Dimension(Previews.SIZE + 10, Previews.SIZE + 10));
+                    eventPanel.add(previewLabel, BorderLayout.EAST);
+                    break;
+                }
         }
         
         add(centerPanel, BorderLayout.CENTER);
@@ -366,7 +383,11 @@ public class TableOfEventsSingleDay
         events = new Vector<Event>();
         holidays = new Vector<Event>();
         filteredEvents = new Vector<Event>();
-        Vector<Event> all = caller.getAllEvents();
+        Vector<Event> all = new Vector<Event>(caller.getAllEvents());
+        if (d != null)
+            all.addAll(caller.getArchivedEvents(d));
+        else if (!holidaysOnly)
+            all.addAll(caller.getArchivedEvents());
         
         if (d == null) {
             if (holidaysOnly) {
@@ -653,6 +674,12 @@ public class TableOfEventsSingleDay
         logger.debug("selected event: id="+id+ " name="+name);
         
         selectedEvent = caller.getEventByIDAndName(Integer.parseInt(id), name);
+        if (previewLabel != null) {
+            previewLabel.setIcon(null);
+            previewLabel.putClientProperty(Previews.class, null);
+            if (selectedEvent != null)
+                Previews.get(caller.getWorkspace()).show(selectedEvent.getID(), previewLabel);
+        }
         if (selectedEvent == null) {
             editButton.setEnabled(false);
             duplicateButton.setEnabled(false);
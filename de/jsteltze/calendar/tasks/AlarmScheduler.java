@@ -0,0 +1,281 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar.tasks;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.Event;
+
+/**
+ * Scheduler of all pending alarms (reminders) of a calendar. One thread
+ * waits for the next alarm of all events; there is at most one alarm
+ * per event, scheduling a new one replaces the old one.<br>
+ * The alarms are indexed by event (hash map) and by the time they fire
+ * (tree), so looking up an alarm takes constant time, scheduling,
+ * moving and cancelling it logarithmic time (also within the executor
+ * queue, which removes cancelled tasks) and listing them in order takes
+ * no sorting.
+ * @author Johannes Steltzer
+ *
+ */
+public class AlarmScheduler {
+
+    /** thread firing the alarms */
+    private ScheduledThreadPoolExecutor executor;
+
+    /** pending alarms by event ID (holidays without ID by event) */
+    private HashMap<Object, AlarmTask> alarms;
+
+    /** pending alarms by the time they fire */
+    private TreeSet<AlarmTask> byTime;
+
+    /** order of the time index (ties by creation) */
+    private static final Comparator<AlarmTask> TIME_ORDER = new Comparator<AlarmTask>() {
+        @Override
+        public int compare(AlarmTask a, AlarmTask b) {
+            if (a.getTime() != b.getTime())
+                return a.getTime() < b.getTime() ? -1 : 1;
+            return Long.valueOf(a.getSequence()).compareTo(b.getSequence());
+        }
+    };
+
+    private static Logger logger = Logger.getLogger(AlarmScheduler.class);
+
+    /**
+     * Construct a new (empty) alarm scheduler.
+     */
+    public AlarmScheduler() {
+        this.alarms = new HashMap<Object, AlarmTask>();
+        this.byTime = new TreeSet<AlarmTask>(TIME_ORDER);
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "alarm");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Gets the key of the alarm of an event.
+     * @param e - Event
+     * @return Event ID or the event itself if it has no ID.
+     */
+    private static Object keyOf(Event e) {
+        return e.getID() == -1 ? e : Integer.valueOf(e.getID());
+    }
+
+    /**
+     * Schedules an alarm. A pending alarm of the same event is
+     * cancelled.
+     * @param task - Alarm to schedule
+     * @param delay - Delay in milliseconds
+     * @return Replaced alarm or null if there was none.
+     */
+    public synchronized AlarmTask schedule(AlarmTask task, long delay) {
+        return scheduleAt(task, System.currentTimeMillis() + delay);
+    }
+
+    /**
+     * Schedules an alarm at a given time. A pending alarm of the same
+     * event is cancelled.
+     * @param task - Alarm to schedule
+     * @param time - Time (ms) to fire
+     * @return Replaced alarm or null if there was none.
+     */
+    public synchronized AlarmTask scheduleAt(AlarmTask task, long time) {
+        AlarmTask old = alarms.put(keyOf(task.getEvent()), task);
+        if (old != null) {
+            byTime.remove(old);
+            old.cancel();
+        }
+        long delay = Math.max(0, time - System.currentTimeMillis());
+        task.setSchedule(executor.schedule(task, delay, TimeUnit.MILLISECONDS), time);
+        byTime.add(task);
+        if (logger.isDebugEnabled())
+            logger.debug("alarm for " + task.getEvent().getName() + " in " + delay + "ms");
+        return old == task ? null : old;
+    }
+
+    /**
+     * Runs a task (other than an alarm) on the thread of this scheduler.
+     * @param r - Task to run
+     * @param delay - Delay in milliseconds
+     */
+    public void runLater(Runnable r, long delay) {
+        executor.schedule(r, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Moves the pending alarm of an event.
+     * @param ID - Event ID
+     * @param delay - New delay in milliseconds
+     * @return True if there was a pending alarm.
+     */
+    public synchronized boolean reschedule(int ID, long delay) {
+        AlarmTask task = alarms.get(ID);
+        if (task == null)
+            return false;
+        schedule(task, delay);
+        return true;
+    }
+
+    /**
+     * Cancels the pending alarm of an event.
+     * @param ID - Event ID
+     * @return Cancelled alarm or null if there was none.
+     */
+    public synchronized AlarmTask cancel(int ID) {
+        AlarmTask task = alarms.remove(ID);
+        if (task != null) {
+            byTime.remove(task);
+            task.cancel();
+        }
+        return task;
+    }
+
+    /**
+     * Cancels the pending alarm of an event (also of events without ID).
+     * @param e - Event
+     * @return Cancelled alarm or null if there was none.
+     */
+    public synchronized AlarmTask cancel(Event e) {
+        AlarmTask task = alarms.remove(keyOf(e));
+        if (task != null) {
+            byTime.remove(task);
+            task.cancel();
+        }
+        return task;
+    }
+
+    /**
+     * Removes an alarm (which has fired) without cancelling it.
+     * @param task - Alarm
+     */
+    public synchronized void remove(AlarmTask task) {
+        Object key = keyOf(task.getEvent());
+        if (alarms.get(key) == task) {
+            alarms.remove(key);
+            byTime.remove(task);
+        }
+    }
+
+    /**
+     * Lets the pending alarm of an event notify of the edited event.
+     * @param oldEvent - Event before editing
+     * @param newEvent - Event after editing
+     */
+    public synchronized void setEvent(Event oldEvent, Event newEvent) {
+        AlarmTask task = alarms.remove(keyOf(oldEvent));
+        if (task != null) {
+            task.setEvent(newEvent);
+            AlarmTask replaced = alarms.put(keyOf(newEvent), task);
+            if (replaced != null && replaced != task) {
+                byTime.remove(replaced);
+                replaced.cancel();
+            }
+        }
+    }
+
+    /**
+     * Files the pending alarm of an event under its new ID.
+     * @param oldID - ID of the event before
+     * @param e - Event with its new ID
+     */
+    public synchronized void renumber(int oldID, Event e) {
+        AlarmTask task = alarms.remove(oldID);
+        if (task != null) {
+            AlarmTask replaced = alarms.put(keyOf(e), task);
+            if (replaced != null && replaced != task) {
+                byTime.remove(replaced);
+                replaced.cancel();
+            }
+        }
+    }
+
+    /**
+     * Gets the pending alarm of an event.
+     * @param ID - Event ID
+     * @return Alarm or null.
+     */
+    public synchronized AlarmTask get(int ID) {
+        return alarms.get(ID);
+    }
+
+    /**
+     * Gets the pending alarm of an event (also of events without ID).
+     * @param e - Event
+     * @return Alarm or null.
+     */
+    public synchronized AlarmTask get(Event e) {
+        return alarms.get(keyOf(e));
+    }
+
+    /**
+     * Gets all pending alarms.
+     * @return Alarms ordered by the time they fire.
+     */
+    public synchronized Vector<AlarmTask> getAlarms() {
+        return new Vector<AlarmTask>(byTime);
+    }
+
+    /**
+     * Gets the next pending alarms.
+     * @param max - Maximum number of alarms
+     * @return Alarms ordered by the time they fire.
+     */
+    public synchronized Vector<AlarmTask> getAlarms(int max) {
+        Vector<AlarmTask> v = new Vector<AlarmTask>(Math.min(max, byTime.size()));
+        for (AlarmTask task : byTime) {
+            if (v.size() == max)
+                break;
+            v.add(task);
+        }
+        return v;
+    }
+
+    /**
+     *
+     * @return Number of pending alarms.
+     */
+    public synchronized int size() {
+        return alarms.size();
+    }
+
+    /**
+     * Cancels all alarms and stops the thread.
+     */
+    public synchronized void shutdown() {
+        for (AlarmTask task : alarms.values())
+            task.cancel();
+        alarms.clear();
+        byTime.clear();
+        executor.shutdownNow();
+    }
+}
@@ -18,19 +18,21 @@
 
 package de.jsteltze.calendar.tasks;
 
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
 
 import de.jsteltze.calendar.Calendar;
 import de.jsteltze.calendar.Event;
 import de.jsteltze.calendar.frames.Notification;
 
 /**
- * Task thread for a notification.
+ * Task for a notification (scheduled by AlarmScheduler).
  * @author Johannes Steltzer
  *
  */
-public class AlarmTask 
-    extends TimerTask 
+public class AlarmTask
     implements Runnable {
 
     /** event to notify of */
@@ -39,6 +41,21 @@ public class AlarmTask
     /** parent calendar object */
     private Calendar caller;
 
+    /** time (ms) this task fires */
+    private long time;
+
+    /** scheduled execution (null if not scheduled) */
+    private ScheduledFuture<?> future;
+
+    /** true if planned by ReminderPlanner, false if set by the user */
+    private boolean planned;
+
+    /** creation order (orders tasks firing at the same time) */
+    private final long sequence = counter.getAndIncrement();
+
+    /** number of tasks created */
+    private static final AtomicLong counter = new AtomicLong();
+
     /**
      * Construct a new alarm task.
      * @param c - Parent calendar object
@@ -51,7 +68,7 @@ public class AlarmTask
     }
 
     /**
-     * 
+     *
      * @return Event that is subject of this AlarmTask.
      */
     public Event getEvent() {
@@ -66,9 +83,66 @@ public class AlarmTask
         this.event = x;
     }
 
+    /**
+     *
+     * @return Time (ms) this task fires.
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    /**
+     *
+     * @return Creation order of this task.
+     */
+    long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * Set the scheduled execution of this task.
+     * @param f - Scheduled execution
+     * @param t - Time (ms) this task fires
+     */
+    void setSchedule(ScheduledFuture<?> f, long t) {
+        this.future = f;
+        this.time = t;
+    }
+
+    /**
+     *
+     * @return True if planned by ReminderPlanner, false if set by the user.
+     */
+    public boolean isPlanned() {
+        return this.planned;
+    }
+
+    /**
+     * Set whether this task is planned by ReminderPlanner.
+     * @param x - True if planned, false if set by the user
+     */
+    public void setPlanned(boolean x) {
+        this.planned = x;
+    }
+
+    /**
+     * Cancel this task (if not yet fired).
+     * @return True if cancelled.
+     */
+    public boolean cancel() {
+        return future != null && future.cancel(false);
+    }
+
     @Override
     public void run() {
         caller.removeAlarmTask(this);
-        new Notification(caller, event);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                new Notification(caller, event);
+                /* next occurrence */
+                caller.getReminderPlanner().plan(event);
+            }
+        });
     }
-}
\ No newline at end of file
+}
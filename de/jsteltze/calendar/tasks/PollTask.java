@@ -0,0 +1,52 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar.tasks;
+
+import java.util.TimerTask;
+
+import de.jsteltze.calendar.Calendar;
+
+/**
+ * Task for fetching changes other calendars made to a shared
+ * event database.
+ * @author Johannes Steltzer
+ *
+ */
+public class PollTask
+    extends TimerTask {
+
+    /** interval (ms) for polling */
+    public static final long INTERVAL = 5000;
+
+    /** calendar to update */
+    private Calendar caller;
+
+    /**
+     * Construct a new poll task.
+     * @param caller - Calendar to update
+     */
+    public PollTask(Calendar caller) {
+        this.caller = caller;
+    }
+
+    @Override
+    public void run() {
+        caller.pollDatabase();
+    }
+}
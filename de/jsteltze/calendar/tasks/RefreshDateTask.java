@@ -20,21 +20,21 @@ package de.jsteltze.calendar.tasks;
 
 import javax.swing.JLabel;
 
+import de.jsteltze.common.Clock;
+import de.jsteltze.common.ClockListener;
 import de.jsteltze.common.calendar.Date;
 
 /**
- * Thread for refreshing a date and time label each minute. 
+ * Task for refreshing a date and time label each minute (called by
+ * the Clock).
  * @author Johannes Steltzer
  *
  */
 public class RefreshDateTask 
-    extends Thread {
+    implements ClockListener {
     
     /** label for showing date and time */
     private JLabel label;
-    
-    /** set to false to stop this thread */
-    private boolean running;
 
     /**
      * Construct a new task to display accurate date and
@@ -43,42 +43,24 @@ public class RefreshDateTask
      */
     public RefreshDateTask(JLabel label) {
         this.label = label;
-        this.running = true;
     }
     
     /**
-     * Stop this thread.
+     * Start refreshing the label.
+     */
+    public void start() {
+        Clock.get().addListener(this);
+    }
+    
+    /**
+     * Stop refreshing the label.
      */
     public void stopit() {
-        this.running = false;
-        this.interrupt();
+        Clock.get().removeListener(this);
     }
     
     @Override
-    public void run() {
-        /*
-         * Fill the running minute
-         */
-        Date date = new Date();
-        try {
-            Thread.sleep(1000 * (60 - date.get(Date.SECOND)));
-        } catch (InterruptedException e) {
-            return;
-        }
-        date = new Date();
-        label.setText(date.dateToString(true) + " " + date.timeToString());
-
-        /*
-         * Refresh date and time in the label each minute
-         */
-        while (running) {
-            try {
-                Thread.sleep(1000 * 60);
-            } catch (InterruptedException e) {
-                return;
-            }
-            date = new Date();
-            label.setText(date.dateToString(true) + " " + date.timeToString());
-        }
+    public void minuteChanged(Date now) {
+        label.setText(now.dateToString(true) + " " + now.timeToString());
     }
-}
\ No newline at end of file
+}
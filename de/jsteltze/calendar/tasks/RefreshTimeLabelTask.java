@@ -6,17 +6,19 @@ import org.apache.log4j.Logger;
 
 import de.jsteltze.calendar.Event;
 import de.jsteltze.calendar.frames.Notification;
+import de.jsteltze.common.Clock;
+import de.jsteltze.common.ClockListener;
 import de.jsteltze.common.calendar.Date;
 
 /**
  * Task to refresh the header of a launched notification each minute.
  * The Headers shows the time left until the events starts.
- * This time has to be refreshed each minute.
+ * This time has to be refreshed each minute (called by the Clock).
  * @author Johannes Steltzer
  *
  */
 public class RefreshTimeLabelTask 
-    extends Thread {
+    implements ClockListener {
     
     /** notification frame */
     private Notification noti;
@@ -27,16 +29,19 @@ public class RefreshTimeLabelTask
     /** event of interest */
     private Event event;
     
-    /** stop thread flag */
-    private boolean stop;
+    /** date of the event (occurrence notified of) */
+    private Date date;
     
     /** add a trailing colon */
     private boolean addColon;
     
+    /** true once the label has been shown */
+    private boolean shown;
+    
     private static Logger logger = Logger.getLogger(RefreshTimeLabelTask.class);
     
     /**
-     * Construct a new refresher thread. This will recalculate the
+     * Construct a new refresher. This will recalculate the
      * time difference to the event each minute and refresh the
      * timeLabel.
      * @param noti - Notification frame to refresh
@@ -46,12 +51,12 @@ public class RefreshTimeLabelTask
         this.noti = noti;
         this.text = null;
         this.event = noti.getEvent();
-        this.stop = false;
+        this.date = event.getNextDate();
         this.addColon = addColon;
     }
     
     /**
-     * Construct a new refresher thread. This will recalculate the
+     * Construct a new refresher. This will recalculate the
      * time difference to the event each minute and refresh the
      * timeLabel.
      * @param text - JLabel which text to refresh
@@ -61,64 +66,55 @@ public class RefreshTimeLabelTask
         this.text = text;
         this.noti = null;
         this.event = event;
-        this.stop = false;
+        this.date = event.getNextDate();
         this.addColon = true;
     }
     
+    /**
+     * Start the refreshments.
+     */
+    public void start() {
+        Clock.get().addListener(this);
+    }
+    
     @Override
-    public void run() {
-        String upperString;
-        Date date = event.getNextDate();
-        
-        /*
-         * Initial sleep to fill the full minute
-         */
-        Date dateNow = new Date();
-        try {
-            Thread.sleep(1000 * (60 - dateNow.get(Date.SECOND)));
-        } catch (InterruptedException e) {
+    public void minuteChanged(Date now) {
+        /* stop once the window of the label has been closed */
+        boolean showing = text == null ? noti.isShowing() : text.isShowing();
+        if (showing)
+            shown = true;
+        else if (shown) {
+            quit();
             return;
         }
+        logger.debug("Refresh timeLabel...");
         
-        long minDiff = date.minDiff(new Date());
-        
-        while (!stop) {
-            logger.debug("Refresh timeLabel...");
-            
-            long hours = minDiff / 60;
-            long minut = minDiff - hours * 60;
+        long minDiff = date.minDiff(now);
+        long hours = minDiff / 60;
+        long minut = minDiff - hours * 60;
 
-            if (minDiff < 0)
-                upperString = "vor "
-                        + (hours == 0 ? "" : (-hours) + "h ") + (-minut) + "min";
-            else if (minDiff > 0)
-                upperString = "in "
-                        + (hours == 0 ? "" : (hours) + "h ") + (minut) + "min";
-            else
-                upperString = "JETZT";
-            
-            if (text == null)
-                noti.refreshTimeLabel(upperString + (addColon ? ":" : ""));
-            else {
-                upperString += ": " + event.getName();
-                text.setText(upperString);
-            }
-            
-            /* Sleep one minute */
-            try {
-                Thread.sleep(1000 * 60);
-            } catch (InterruptedException e) {
-                return;
-            }
-            
-            minDiff--;
+        String upperString;
+        if (minDiff < 0)
+            upperString = "vor "
+                    + (hours == 0 ? "" : (-hours) + "h ") + (-minut) + "min";
+        else if (minDiff > 0)
+            upperString = "in "
+                    + (hours == 0 ? "" : (hours) + "h ") + (minut) + "min";
+        else
+            upperString = "JETZT";
+        
+        if (text == null)
+            noti.refreshTimeLabel(upperString + (addColon ? ":" : ""));
+        else {
+            upperString += ": " + event.getName();
+            text.setText(upperString);
         }
     }
     
     /**
-     * Stop this Thread. This will stop the refreshments.
+     * Stop the refreshments.
      */
     public void quit() {
-        this.stop = true;
+        Clock.get().removeListener(this);
     }
 }
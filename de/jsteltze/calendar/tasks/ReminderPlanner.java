@@ -0,0 +1,288 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar.tasks;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.Calendar;
+import de.jsteltze.calendar.Event;
+import de.jsteltze.calendar.config.Configuration;
+import de.jsteltze.common.calendar.Date;
+
+/**
+ * Plans the reminders of all events for the next HORIZON milliseconds.
+ * For each event the first of its reminders within this window is
+ * scheduled at the AlarmScheduler (one pending alarm per event, however
+ * many reminders it has); the window is topped up after midnight, when an
+ * event is edited and when a reminder has fired (so recurring events are
+ * reminded of each occurrence, however long the calendar keeps running).
+ * @author Johannes Steltzer
+ *
+ */
+public class ReminderPlanner {
+
+    /** length (ms) of the planned window */
+    public static final long HORIZON = 48L * 60 * 60 * 1000;
+
+    /** delay (ms) after midnight before topping up */
+    private static final long ROLLOVER_DELAY = 10 * 1000;
+
+    /** parent calendar object */
+    private Calendar caller;
+
+    /** scheduler of the reminders */
+    private AlarmScheduler alarms;
+
+    private static Logger logger = Logger.getLogger(ReminderPlanner.class);
+
+    /**
+     * Construct a new reminder planner.
+     * @param c - Parent calendar object
+     * @param alarms - Scheduler of the reminders
+     */
+    public ReminderPlanner(Calendar c, AlarmScheduler alarms) {
+        this.caller = c;
+        this.alarms = alarms;
+    }
+
+    /**
+     * Start topping up the window after each midnight.
+     */
+    public void start() {
+        Date midnight = new Date(0, 0);
+        midnight.set(java.util.Calendar.SECOND, 0);
+        midnight.set(java.util.Calendar.MILLISECOND, 0);
+        midnight.add(java.util.Calendar.DAY_OF_MONTH, 1);
+        alarms.runLater(new Runnable() {
+            @Override
+            public void run() {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        planAll();
+                    }
+                });
+                start();
+            }
+        }, midnight.getTimeInMillis() - System.currentTimeMillis() + ROLLOVER_DELAY);
+    }
+
+    /**
+     * Plans the reminders of all events.
+     */
+    public void planAll() {
+        long start = System.currentTimeMillis();
+        Vector<Event> events = caller.getAllEvents();
+        for (Event e : events)
+            plan(e);
+        logger.debug("planned reminders of " + events.size() + " events in " +
+                (System.currentTimeMillis() - start) + "ms, " + alarms.size() + " pending");
+    }
+
+    /**
+     * Plans the next reminder of an event (if within the window). A
+     * reminder set by the user (snooze) is not replaced.
+     * @param e - Event
+     */
+    public void plan(Event e) {
+        long now = System.currentTimeMillis();
+        long time = getNextReminder(e, now, now + HORIZON);
+        AlarmTask pending = alarms.get(e);
+
+        if (pending != null && !pending.isPlanned())
+            return;
+        if (time == -1) {
+            if (pending != null)
+                alarms.cancel(e);
+            return;
+        }
+        if (pending != null && pending.getTime() == time && pending.getEvent() == e)
+            return;
+
+        AlarmTask task = new AlarmTask(caller, e);
+        task.setPlanned(true);
+        alarms.scheduleAt(task, time);
+    }
+
+    /**
+     * Checks whether an event is to be notified right now: a reminder
+     * of its next occurrence has passed, or (if no holiday) it is in the
+     * past.
+     * @param e - Event
+     * @return True if the event is to be notified now.
+     */
+    public boolean isDue(Event e) {
+        Date next = e.getNextDate();
+        Date today = new Date();
+        if (next.dayDiff(today) < 0)
+            return !e.isHoliday() && !e.isSpecial();
+
+        for (int offset : getOffsets(e))
+            if (getReminderTime(next, offset) <= today.getTimeInMillis())
+                return true;
+        return false;
+    }
+
+    /**
+     * Gets all reminders of an event as offsets (see
+     * Event.getOffsetAsString), applying the configured default.
+     * @param e - Event
+     * @return Offsets (empty if the event is not reminded of).
+     */
+    private int[] getOffsets(Event e) {
+        int remind = e.getRemind();
+        if (remind == Configuration.defaultConfig.getReminder())
+            remind = caller.getConfig().getReminder();
+        int[] further = e.getReminders();
+        if (remind == Event.NO_REMIND)
+            return further;
+        int[] offsets = Arrays.copyOf(further, further.length + 1);
+        offsets[further.length] = Event.getReminderOffset(remind);
+        return offsets;
+    }
+
+    /**
+     * Gets the first reminder of an event within a time window.
+     * Only the occurrences whose reminders may fall into the window
+     * are checked (not every day up to the largest remind offset), each
+     * of them once for all reminders.
+     * @param e - Event
+     * @param after - Begin of the window (ms, exclusive)
+     * @param until - End of the window (ms, inclusive)
+     * @return Reminder time (ms) or -1 if there is none.
+     */
+    private long getNextReminder(Event e, long after, long until) {
+        int[] offsets = getOffsets(e);
+        if (offsets.length == 0)
+            return -1;
+
+        Date first = new Date();
+        first.setTimeInMillis(after);
+        first = new Date(first.get(java.util.Calendar.YEAR),
+                first.get(java.util.Calendar.MONTH),
+                first.get(java.util.Calendar.DAY_OF_MONTH));
+        Date last = new Date();
+        last.setTimeInMillis(until);
+        long windowDays = last.dayDiff(first);
+
+        Vector<Date> days = new Vector<Date>();
+        for (int offset : offsets) {
+            Date day = (Date) first.clone();
+            if (offset < 0)
+                day.add(java.util.Calendar.MONTH, -offset);
+            else
+                day.add(java.util.Calendar.DAY_OF_MONTH, offset / 1440);
+            /* minutes before a begin up to a day later */
+            long n = windowDays + (offset > 0 && offset % 1440 != 0 ? 1 : 0);
+            for (int i = 0; i <= n; i++) {
+                boolean seen = false;
+                for (Date d : days)
+                    seen |= d.sameDateAs(day);
+                if (!seen)
+                    days.add((Date) day.clone());
+                day.add(java.util.Calendar.DAY_OF_MONTH, 1);
+            }
+        }
+
+        long best = -1;
+        for (Date day : days) {
+            if (!startsOn(e, day))
+                continue;
+            Date occurrence = getOccurrence(e, day);
+            for (int offset : offsets) {
+                long time = getReminderTime(occurrence, offset);
+                if (time > after && time <= until && (best == -1 || time < best))
+                    best = time;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Checks whether an occurrence of an event starts on a day.
+     * @param e - Event
+     * @param day - Day
+     * @return True if the event takes place on this day but not on the
+     *      day before (events lasting several days are reminded of once).
+     */
+    private static boolean startsOn(Event e, Date day) {
+        if (!e.match(day))
+            return false;
+        if (e.getEndDate() == null)
+            return true;
+        Date before = (Date) day.clone();
+        before.add(java.util.Calendar.DAY_OF_MONTH, -1);
+        return !e.match(before);
+    }
+
+    /**
+     * Gets the begin of an occurrence of an event.
+     * @param e - Event
+     * @param day - Day of the occurrence
+     * @return Date (with the time of the event, if it has one).
+     */
+    private static Date getOccurrence(Event e, Date day) {
+        if (!e.getDate().hasTime())
+            return day;
+        Date d = new Date(day.get(java.util.Calendar.YEAR),
+                day.get(java.util.Calendar.MONTH),
+                day.get(java.util.Calendar.DAY_OF_MONTH),
+                e.getDate().get(java.util.Calendar.HOUR_OF_DAY),
+                e.getDate().get(java.util.Calendar.MINUTE));
+        d.setHasTime(true);
+        return d;
+    }
+
+    /**
+     * Gets the time to remind of an occurrence. Reminders of whole days
+     * (or months) fire at midnight that many days (or months) before,
+     * others that many minutes before the begin.
+     * @param occurrence - Begin of the occurrence
+     * @param offset - Reminder offset (see Event.getOffsetAsString)
+     * @return Time (ms).
+     */
+    private static long getReminderTime(Date occurrence, int offset) {
+        Date d;
+        if (offset == 0 || (offset > 0 && offset % 1440 != 0)) {
+            d = (Date) occurrence.clone();
+            if (!occurrence.hasTime()) {
+                d.set(java.util.Calendar.HOUR_OF_DAY, 0);
+                d.set(java.util.Calendar.MINUTE, 0);
+            }
+            d.add(java.util.Calendar.MINUTE, -offset);
+        }
+        else {
+            d = new Date(occurrence.get(java.util.Calendar.YEAR),
+                    occurrence.get(java.util.Calendar.MONTH),
+                    occurrence.get(java.util.Calendar.DAY_OF_MONTH));
+            if (offset < 0)
+                d.add(java.util.Calendar.MONTH, offset);
+            else
+                d.add(java.util.Calendar.DAY_OF_MONTH, -offset / 1440);
+        }
+        d.set(java.util.Calendar.SECOND, 0);
+        d.set(java.util.Calendar.MILLISECOND, 0);
+        return d.getTimeInMillis();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar.tasks;
+
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.Calendar;
+import de.jsteltze.common.Trans;
+
+/**
+ * Thread for saving the calendar in background. Save requests
+ * arriving in a burst are coalesced into one write, which takes
+ * place when no further request came in for DEBOUNCE milliseconds
+ * (but at latest MAX_DELAY milliseconds after the first request).
+ * The snapshot handed over with the last request is written, the
+ * live events and settings are never touched by this thread.
+ * @author Johannes Steltzer
+ *
+ */
+public class SaveTask
+    extends Thread {
+
+    /** quiet time (ms) after the last request before writing */
+    private static final long DEBOUNCE = 300;
+
+    /** maximum time (ms) a request may be delayed */
+    private static final long MAX_DELAY = 2000;
+
+    /** calendar to save */
+    private Calendar caller;
+
+    /** set to false to stop this thread */
+    private boolean running;
+
+    /** true if a save has been requested but not yet started */
+    private boolean pending;
+
+    /** time of the first and the last pending request */
+    private long firstRequest, lastRequest;
+
+    /** copy of the events and settings to write */
+    private Calendar.Snapshot snapshot;
+
+    /** true if the last save failed */
+    private boolean failed;
+
+    private static Logger logger = Logger.getLogger(SaveTask.class);
+
+    /**
+     * Construct a new save thread.
+     * @param caller - Calendar to save
+     */
+    public SaveTask(Calendar caller) {
+        super("save");
+        this.caller = caller;
+        this.running = true;
+        this.pending = false;
+        this.failed = false;
+        setPriority(Thread.NORM_PRIORITY - 1);
+    }
+
+    /**
+     * Request a save. Returns immediately.
+     * @param x - Copy of the events and settings to save (replaces the
+     *            one of a pending request)
+     */
+    public synchronized void request(Calendar.Snapshot x) {
+        snapshot = x;
+        long now = System.currentTimeMillis();
+        if (!pending)
+            firstRequest = now;
+        lastRequest = now;
+        pending = true;
+        notifyAll();
+    }
+
+    /**
+     * Writes a pending save on the calling thread (e.g. on shutdown).
+     */
+    public void flush() {
+        Calendar.Snapshot x;
+        synchronized (this) {
+            if (!pending)
+                return;
+            pending = false;
+            x = snapshot;
+            snapshot = null;
+        }
+        doSave(x);
+    }
+
+    /**
+     * Stop this thread. Pending requests are not written, call
+     * flush for that.
+     */
+    public synchronized void stopit() {
+        running = false;
+        notifyAll();
+    }
+
+    /**
+     *
+     * @return True if the last save failed.
+     */
+    public synchronized boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Saves the calendar and reports failures to the GUI.
+     * @param x - Snapshot to write
+     */
+    private void doSave(Calendar.Snapshot x) {
+        final boolean ok = caller.saveNow(x);
+        final boolean wasFailed;
+        synchronized (this) {
+            wasFailed = failed;
+            failed = !ok;
+        }
+
+        if (ok && !wasFailed)
+            return;
+
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (ok)
+                    caller.getGUI().putMessage(Trans.getMessage("guiMessageSaved"));
+                else {
+                    caller.getGUI().putMessage(Trans.getMessage("guiMessageSaveFailed"));
+
+                    /* show the dialog only once for a series of failures */
+                    if (!wasFailed)
+                        JOptionPane.showMessageDialog(caller.getGUI().getFrame(),
+                                Trans.getMessage("errorMessageCannotSave"),
+                                Trans.getMessage("errorMessageCannotSaveTitle"),
+                                JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Calendar.Snapshot x;
+            synchronized (this) {
+                try {
+                    while (running && !pending)
+                        wait();
+
+                    /* wait for the burst to settle */
+                    long now = System.currentTimeMillis();
+                    while (running && pending && now - lastRequest < DEBOUNCE
+                            && now - firstRequest < MAX_DELAY) {
+                        wait(Math.min(DEBOUNCE - (now - lastRequest),
+                                MAX_DELAY - (now - firstRequest)));
+                        now = System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    logger.warn("wait interrupted: " + e.toString());
+                    return;
+                }
+
+                if (!running)
+                    return;
+                if (!pending)
+                    continue;
+                pending = false;
+                x = snapshot;
+                snapshot = null;
+            }
+
+            doSave(x);
+        }
+    }
+}
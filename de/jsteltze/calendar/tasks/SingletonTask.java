@@ -20,6 +20,11 @@ package de.jsteltze.calendar.tasks;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+import javax.swing.SwingUtilities;
 
 import org.apache.log4j.Logger;
 
@@ -27,67 +32,107 @@ import de.jsteltze.calendar.config.Const;
 import de.jsteltze.calendar.frames.CalendarFrame;
 
 /**
- * Thread to make sure the calendar is only started once.
+ * Makes sure the calendar is only started once. The running calendar
+ * holds a lock on the lock file, so a lock file left behind by a crashed
+ * calendar does not count. A calendar launched on the same workspace
+ * creates a maximize file, which makes the running one appear.
  * @author Johannes Steltzer
  *
  */
-public class SingletonTask 
-    extends Thread {
+public class SingletonTask {
     
     /** calendar frame to observe */
     private CalendarFrame cal;
     
-    /** set to false to stop this thread */
-    private boolean running;
+    /** opened lock file and the lock held on it (null if not locked) */
+    private RandomAccessFile lockFile;
+    private FileLock lock;
     
     private static Logger logger = Logger.getLogger(SingletonTask.class);
     
     /**
-     * Construct a new thread to make sure the calendar
+     * Construct a new task to make sure the calendar
      * is only started once.
      * @param c - Calendar frame to observe
      */
     public SingletonTask(CalendarFrame c) {
-        super();
         cal = c;
-        running = true;
         
         try {
             /*
-             * Create lock file
+             * Create and lock the lock file
              */
             logger.debug("create Lock");
-            new File(c.getPath(Const.LOCKFILE)).createNewFile();
+            lockFile = new RandomAccessFile(c.getPath(Const.LOCKFILE), "rw");
+            lock = lockFile.getChannel().tryLock();
+            if (lock == null)
+                logger.warn("lock file is locked by another calendar");
         } catch (IOException e) {
             logger.error("cannot create lock file...", e);
         }
     }
     
     /**
-     * Stop this thread.
+     * Checks whether a calendar is running on a workspace.
+     * @param workspace - Workspace directory
+     * @return True if the lock file of the workspace is locked.
+     */
+    public static boolean isRunning(String workspace) {
+        File f = new File(workspace + File.separator + Const.LOCKFILE);
+        if (!f.exists())
+            return false;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                FileLock l = raf.getChannel().tryLock();
+                if (l == null)
+                    return true;
+                l.release();
+                logger.info("lock file left behind, not locked");
+                return false;
+            } finally {
+                raf.close();
+            }
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            logger.warn("cannot check lock file: " + e.getMessage());
+            return true;
+        }
+    }
+    
+    /**
+     * Release the lock.
      */
     public void stopit() {
-        this.running = false;
-        this.interrupt();
+        try {
+            if (lock != null)
+                lock.release();
+            if (lockFile != null)
+                lockFile.close();
+        } catch (IOException e) {
+            logger.warn("cannot release lock file: " + e.getMessage());
+        }
+        lock = null;
+        lockFile = null;
     }
     
-    @Override
-    public void run() {
+    /**
+     * Looks for a maximize file (created by a calendar launched on the
+     * same workspace) and brings the calendar frame to front. Called by
+     * WatchTask when the file is created.
+     */
+    public void checkMaximize() {
         File maxfile = new File(cal.getPath(Const.MAXIMIZEFILE));
-        while (running)
-            /*
-             * Check for a maximize file
-             */
-            try {
-                if (maxfile.exists()) {
-                    logger.debug("New calendar tries to launch. Maximize.");
-                    maxfile.delete();
-                    cal.maximize();
-                }
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                logger.warn("sleep interrupted: "+e.toString());
-                return;
+        if (!maxfile.exists())
+            return;
+        logger.debug("New calendar tries to launch. Maximize.");
+        maxfile.delete();
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                cal.maximize();
             }
+        });
     }
 }
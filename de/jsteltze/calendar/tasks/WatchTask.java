@@ -0,0 +1,214 @@
+/*
+ *  java-calendar - a java calendar for Germany
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.calendar.tasks;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import de.jsteltze.calendar.Calendar;
+import de.jsteltze.calendar.config.Const;
+
+/**
+ * Thread watching the workspace for changes made outside this
+ * application (e.g. by sync tools or scripts). Changes of the xml-file
+ * and of the event folders (notes, attachments) arriving in a burst are
+ * reported once, when no further change came in for DELAY milliseconds.
+ * A maximize file (see SingletonTask) is reported at once.
+ * @author Johannes Steltzer
+ *
+ */
+public class WatchTask
+    extends Thread {
+
+    /** quiet time (ms) after the last change before reporting */
+    private static final long DELAY = 1000;
+
+    /** calendar to update */
+    private Calendar caller;
+
+    /** watch service (closed to stop this thread) */
+    private WatchService watcher;
+
+    /** workspace and event folder */
+    private Path workspace, eventDir;
+
+    /** true if the xml-file resp. an event folder changed since the last report */
+    private boolean xmlChanged, eventDirChanged;
+    
+    /** IDs of the events whose folders changed (null for all) */
+    private HashSet<Integer> changedIDs;
+
+    private static Logger logger = Logger.getLogger(WatchTask.class);
+
+    /**
+     * Construct a new watch thread.
+     * @param caller - Calendar to update
+     * @throws IOException if the workspace cannot be watched
+     */
+    public WatchTask(Calendar caller) throws IOException {
+        super("watch");
+        this.caller = caller;
+        this.workspace = Paths.get(caller.getWorkspace()).toAbsolutePath();
+        this.eventDir = workspace.resolve(Const.EVENT_DIR);
+        this.watcher = FileSystems.getDefault().newWatchService();
+        setDaemon(true);
+        setPriority(Thread.NORM_PRIORITY - 1);
+
+        register(workspace);
+        registerEventDir();
+    }
+
+    /**
+     * Register a directory at the watch service.
+     * @param dir - Directory to watch
+     */
+    private void register(Path dir) {
+        try {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            logger.warn("cannot watch " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Register the event folder and the folders of all events (the
+     * watch service does not watch sub-directories).
+     */
+    private void registerEventDir() {
+        if (!Files.isDirectory(eventDir))
+            return;
+        register(eventDir);
+        try {
+            DirectoryStream<Path> dirs = Files.newDirectoryStream(eventDir);
+            try {
+                for (Path dir : dirs)
+                    if (Files.isDirectory(dir))
+                        register(dir);
+            } finally {
+                dirs.close();
+            }
+        } catch (IOException e) {
+            logger.warn("cannot list " + eventDir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop this thread.
+     */
+    public void stopit() {
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            logger.warn("cannot close watch service: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Notes the changes of a watch key.
+     * @param key - Signalled key
+     */
+    private void collect(WatchKey key) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                xmlChanged = true;
+                eventDirChanged = true;
+                changedIDs = null;
+                continue;
+            }
+
+            Path name = (Path) event.context();
+            if (dir.equals(workspace)) {
+                if (name.toString().equals(Const.XMLFILE))
+                    xmlChanged = true;
+                else if (name.toString().equals(Const.MAXIMIZEFILE)) {
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+                        caller.maximizeRequested();
+                }
+                else if (name.toString().equals(Const.EVENT_DIR)) {
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+                        registerEventDir();
+                    eventDirChanged = true;
+                    changedIDs = null;
+                }
+            }
+            else {
+                Path child = dir.resolve(name);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE &&
+                        dir.equals(eventDir) && Files.isDirectory(child))
+                    register(child);
+                
+                /* folder of an event or a file within */
+                String folder = (dir.equals(eventDir) ? name : dir.getFileName()).toString();
+                if (!eventDirChanged)
+                    changedIDs = new HashSet<Integer>();
+                eventDirChanged = true;
+                if (changedIDs != null)
+                    try {
+                        changedIDs.add(Integer.parseInt(folder));
+                    } catch (NumberFormatException e) {
+                        logger.debug("not an event folder: " + folder);
+                    }
+            }
+        }
+        key.reset();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = xmlChanged || eventDirChanged ?
+                        watcher.poll(DELAY, TimeUnit.MILLISECONDS) : watcher.take();
+                if (key != null) {
+                    collect(key);
+                    continue;
+                }
+
+                /* quiet for DELAY ms, report */
+                if (xmlChanged)
+                    caller.reloadEvents();
+                if (eventDirChanged)
+                    caller.eventFilesChanged(changedIDs);
+                xmlChanged = false;
+                eventDirChanged = false;
+                changedIDs = null;
+            }
+        } catch (ClosedWatchServiceException e) {
+            logger.debug("watch service closed");
+        } catch (InterruptedException e) {
+            logger.warn("wait interrupted: " + e.toString());
+        }
+    }
+}
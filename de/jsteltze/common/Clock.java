@@ -0,0 +1,115 @@
+/*
+ *  common-package - various java utilities
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.common;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Vector;
+
+import javax.swing.Timer;
+
+import de.jsteltze.common.calendar.Date;
+
+/**
+ * Clock of the application ticking on each full minute. One Swing timer
+ * calls all registered listeners on the event dispatch thread, one after
+ * the other within the same tick, so the labels they update are painted
+ * together in one repaint. The timer only runs while there are listeners.
+ * @author Johannes Steltzer
+ *
+ */
+public class Clock 
+	implements ActionListener {
+	
+	/** delay (ms) after the full minute (to be safely past it) */
+	private static final int MARGIN = 50;
+	
+	/** the clock (created on demand) */
+	private static Clock clock;
+	
+	/** timer firing at the next full minute */
+	private Timer timer;
+	
+	/** registered listeners */
+	private Vector<ClockListener> listeners;
+	
+	/**
+	 * Construct a new (stopped) clock.
+	 */
+	private Clock() {
+		this.listeners = new Vector<ClockListener>();
+		this.timer = new Timer(0, this);
+		this.timer.setRepeats(false);
+	}
+	
+	/**
+	 * 
+	 * @return The clock.
+	 */
+	public static synchronized Clock get() {
+		if (clock == null)
+			clock = new Clock();
+		return clock;
+	}
+	
+	/**
+	 * Register a listener to be called on each full minute.
+	 * @param l - Listener to add
+	 */
+	public synchronized void addListener(ClockListener l) {
+		if (listeners.contains(l))
+			return;
+		listeners.add(l);
+		if (listeners.size() == 1)
+			schedule();
+	}
+	
+	/**
+	 * Remove a listener.
+	 * @param l - Listener to remove
+	 */
+	public synchronized void removeListener(ClockListener l) {
+		listeners.remove(l);
+		if (listeners.isEmpty())
+			timer.stop();
+	}
+	
+	/**
+	 * Start the timer for the next full minute.
+	 */
+	private void schedule() {
+		long now = System.currentTimeMillis();
+		timer.setInitialDelay((int) (60 * 1000 - now % (60 * 1000)) + MARGIN);
+		timer.restart();
+	}
+	
+	@Override
+	public void actionPerformed(ActionEvent a) {
+		Vector<ClockListener> toCall;
+		synchronized (this) {
+			if (listeners.isEmpty())
+				return;
+			toCall = new Vector<ClockListener>(listeners);
+			schedule();
+		}
+		Date now = new Date();
+		for (ClockListener l : toCall)
+			l.minuteChanged(now);
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ *  common-package - various java utilities
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.common;
+
+import de.jsteltze.common.calendar.Date;
+
+/**
+ * Interface to notify about the minutes of the Clock.
+ * @author Johannes Steltzer
+ *
+ */
+public interface ClockListener {
+	
+	/**
+	 * This will be invoked on each full minute (on the event
+	 * dispatch thread).
+	 * @param now - Current date and time
+	 */
+	public void minuteChanged(Date now);
+}
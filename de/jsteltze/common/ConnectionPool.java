@@ -0,0 +1,161 @@
+/*
+ *  common-package - various java utilities
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.common;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Small pool of JDBC connections. Idle connections are kept for
+ * reuse together with the statements prepared on them, so a
+ * statement is prepared only once per connection.
+ * @author Johannes Steltzer
+ *
+ */
+public class ConnectionPool {
+
+	/** JDBC URL */
+	private String url;
+
+	/** maximum number of idle connections kept */
+	private int maxIdle;
+
+	/** idle connections */
+	private Vector<Connection> idle;
+
+	/** prepared statements of each connection */
+	private HashMap<Connection, HashMap<String, PreparedStatement>> statements;
+
+	/** true if closed */
+	private boolean closed;
+
+	private static Logger logger = Logger.getLogger(ConnectionPool.class);
+
+	/**
+	 * Construct a new connection pool.
+	 * @param url - JDBC URL
+	 * @param maxIdle - Maximum number of idle connections kept
+	 */
+	public ConnectionPool(String url, int maxIdle) {
+		this.url = url;
+		this.maxIdle = maxIdle;
+		this.idle = new Vector<Connection>();
+		this.statements = new HashMap<Connection, HashMap<String, PreparedStatement>>();
+		this.closed = false;
+	}
+
+	/**
+	 * Takes an idle connection or opens a new one. Every connection
+	 * taken must be given back by release.
+	 * @return Connection (auto commit on).
+	 * @throws SQLException if no connection can be opened
+	 */
+	public Connection getConnection() throws SQLException {
+		synchronized (this) {
+			if (closed)
+				throw new SQLException("connection pool closed");
+			if (!idle.isEmpty())
+				return idle.remove(idle.size() - 1);
+		}
+		Connection con = DriverManager.getConnection(url);
+		synchronized (this) {
+			statements.put(con, new HashMap<String, PreparedStatement>());
+		}
+		return con;
+	}
+
+	/**
+	 * Returns a prepared statement for a connection of this pool.
+	 * The statement is prepared on first use only.
+	 * @param con - Connection taken from this pool
+	 * @param sql - SQL statement
+	 * @return Prepared statement.
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare(Connection con, String sql) throws SQLException {
+		HashMap<String, PreparedStatement> cache;
+		synchronized (this) {
+			cache = statements.get(con);
+		}
+		PreparedStatement ps = cache.get(sql);
+		if (ps == null) {
+			ps = con.prepareStatement(sql);
+			cache.put(sql, ps);
+		}
+		return ps;
+	}
+
+	/**
+	 * Gives a connection back. Broken connections (e.g. after a
+	 * network failure) are closed instead of being kept.
+	 * @param con - Connection taken from this pool
+	 */
+	public void release(Connection con) {
+		boolean keep;
+		try {
+			if (!con.getAutoCommit()) {
+				con.rollback();
+				con.setAutoCommit(true);
+			}
+			keep = con.isValid(2);
+		} catch (SQLException e) {
+			keep = false;
+		}
+
+		synchronized (this) {
+			if (keep && !closed && idle.size() < maxIdle) {
+				idle.add(con);
+				return;
+			}
+			statements.remove(con);
+		}
+		close(con);
+	}
+
+	/**
+	 * Closes a connection.
+	 * @param con - Connection to close
+	 */
+	private static void close(Connection con) {
+		try {
+			con.close();
+		} catch (SQLException e) {
+			logger.debug("cannot close connection: " + e.toString());
+		}
+	}
+
+	/**
+	 * Closes all idle connections. Connections in use are closed
+	 * when given back.
+	 */
+	public synchronized void close() {
+		closed = true;
+		for (Connection con : idle) {
+			statements.remove(con);
+			close(con);
+		}
+		idle.clear();
+	}
+}
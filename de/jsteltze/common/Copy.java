@@ -23,28 +23,62 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.channels.ByteChannel;
 import java.nio.channels.FileChannel;
-import java.lang.Math;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 import org.apache.log4j.Logger;
 
 /**
- * Copies a file in the background. Launches a progress bar.
+ * Copies files in the background. All copy operations share a small
+ * pool of worker threads, the files of one operation are copied in
+ * parallel. One progress bar is shown per operation (summing up the
+ * bytes of all its files), cancelling it stops all its files.
  * @author Johannes Steltzer
  *
  */
-public class Copy 
-	implements Runnable {
-	
-	/** source and destination file */
-	private File in, out;
-	
+public class Copy {
+
+	/** maximum number of files copied at the same time */
+	private static final int WORKERS = java.lang.Math.max(2,
+			java.lang.Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	/** bytes transferred by one call (progress is updated in between) */
+	private static final long CHUNK_SIZE = 1024 * 1024 * 32;
+
+	/** operations of at least this size (bytes) show a progress bar */
+	private static final long PROGRESS_MIN_SIZE = 102400L;
+
+	/** worker pool (created on demand) */
+	private static ExecutorService pool;
+
+	/** source and destination files */
+	private Vector<File> in, out;
+
 	/** calling frame (can be null) */
 	private Window caller;
-	
+
+	/** total size and bytes copied so far */
+	private long total;
+	private AtomicLong done;
+
+	/** number of files not yet finished */
+	private int pending;
+
+	/** true if cancelled or failed */
+	private volatile boolean cancelled, failed;
+
+	/** progress bar (null if none) */
+	private volatile ProgressBar pbar;
+
 	private static Logger logger = Logger.getLogger(Copy.class);
 
 	/**
@@ -56,34 +90,115 @@ public class Copy
 	 *     is a directory the file will be copied with the same name
 	 */
 	public Copy(Window caller, File in, File out) {
-		this.in = in;
-		this.out = out.isDirectory() ? new File(out.getAbsolutePath() + 
-		        File.separator + in.getName()) : out;
+		this(caller);
+		add(in, out.isDirectory() ? new File(out, in.getName()) : out);
+		start();
+	}
+
+	/**
+	 * Construct a new (empty) copy operation.
+	 * @param caller - Calling frame for a progress bar or null
+	 */
+	private Copy(Window caller) {
 		this.caller = caller;
-		new Thread(this).start();
+		this.in = new Vector<File>();
+		this.out = new Vector<File>();
+		this.done = new AtomicLong();
+	}
+
+	/**
+	 *
+	 * @return Worker pool.
+	 */
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			ThreadPoolExecutor p = new ThreadPoolExecutor(WORKERS, WORKERS,
+					30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "copy");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			p.allowCoreThreadTimeOut(true);
+			pool = p;
+		}
+		return pool;
+	}
+
+	/**
+	 * Add a file to this operation.
+	 * @param src - Source file
+	 * @param dst - Destination file
+	 */
+	private void add(File src, File dst) {
+		in.add(src);
+		out.add(dst);
+		total += src.length();
+	}
+
+	/**
+	 * Submit all files of this operation to the worker pool.
+	 */
+	private void start() {
+		pending = in.size();
+		if (pending == 0)
+			return;
+		if (caller != null && total >= PROGRESS_MIN_SIZE)
+			pbar = new ProgressBar(caller, in.size() == 1 ?
+					"Kopiere \"" + in.firstElement().getName() + "\"..." :
+					"Kopiere " + in.size() + " Dateien...", false);
+
+		for (int i = 0; i < in.size(); i++) {
+			final File src = in.elementAt(i), dst = out.elementAt(i);
+			getPool().execute(new Runnable() {
+				@Override
+				public void run() {
+					copy(src, dst);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Cancel this operation. Files being copied are stopped after
+	 * their current chunk, files not yet started are skipped.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Wait for this operation to finish.
+	 * @return True if all files have been copied.
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean waitFor() throws InterruptedException {
+		while (pending > 0)
+			wait();
+		return !cancelled && !failed;
 	}
 
-	@Override
-	public void run() {
+	/**
+	 * Copy one file of this operation (on a worker thread).
+	 * @param src - Source file
+	 * @param dst - Destination file
+	 */
+	private void copy(File src, File dst) {
 		FileChannel inChannel = null, outChannel = null;
-		
-		/* Progress bar for files greater than 100KB only! */
-		ProgressBar pbar = null;
-		if (in.length() > 102400L)
-		    pbar = caller == null ? null : new ProgressBar(caller, 
-		            "Kopiere \"" + in.getName() + "\"...", false);
-		
 		try {
-			inChannel = new FileInputStream(in).getChannel();
-			outChannel = new FileOutputStream(out).getChannel();
-            transfer(inChannel, outChannel, in.length(), 1024 * 1024 * 32, pbar);
-		} 
+			if (!isCancelled()) {
+				inChannel = new FileInputStream(src).getChannel();
+				outChannel = new FileOutputStream(dst).getChannel();
+				transfer(inChannel, outChannel);
+			}
+		}
 		catch (IOException i) {
-			logger.error("copy: " + i.toString());
-			JOptionPane.showMessageDialog(caller,
-					"Das Kopieren ist fehlgeschlagen!", "Fehler...",
-					JOptionPane.ERROR_MESSAGE);
-		} 
+			logger.error("copy " + src.getPath() + ": " + i.toString());
+			failed = true;
+		}
 		finally {
 			try {
 				if (inChannel != null)
@@ -91,77 +206,117 @@ public class Copy
 				if (outChannel != null)
 					outChannel.close();
 			} catch (IOException e) {
-			    logger.error("file channel cannot be closed in finally statement...", e);
+				logger.error("file channel cannot be closed in finally statement...", e);
 			}
-			if (pbar != null)
-			    pbar.close();
+			if (outChannel != null && isCancelled() && !dst.delete())
+				logger.warn("cannot delete incomplete copy " + dst.getPath());
+			finished();
 		}
 	}
-	
+
 	/**
-	 * Start a file transfer.
-	 * @param fileChannel - Source channel
-	 * @param byteChannel - Destination channel
-	 * @param lengthInBytes - File size in bytes
-	 * @param bufferSize - Buffer size for copying
-	 * @param pbar - Progress bar or null
+	 * Transfer a file chunk by chunk, advancing the position.
+	 * @param src - Source channel
+	 * @param dst - Destination channel
 	 * @throws IOException
 	 */
-    private static void transfer(FileChannel fileChannel, ByteChannel byteChannel, 
-    		long lengthInBytes, long bufferSize, ProgressBar pbar)
-            throws IOException {
- 
-        long overallBytesTransfered = 0L;
-        while (overallBytesTransfered < lengthInBytes) {
-            long bytesTransfered = 0L;
-            bytesTransfered = fileChannel.transferTo(0, 
-            		Math.min(bufferSize, lengthInBytes - overallBytesTransfered), 
-            		byteChannel);
- 
-            overallBytesTransfered += bytesTransfered;
-            int progress = (int) Math.round(overallBytesTransfered / 
-            		((double) lengthInBytes) * 100.0);
-            logger.debug("copy: bytes transferred: " + overallBytesTransfered +
-                    " (" + progress + ")");
-            
-            if (pbar != null) {
-            	pbar.setValue(progress);
-            	if (pbar.isCancelled()) {
-            		pbar.close();
-            		return;
-            	}
-            }
-        }
-    }
-    
-    /**
-     * Copy all files from one directory to another.
-     * @param caller - Parent frame or null; if this is not null
-     *      a progress bar will appear
-     * @param srcFolder - Source directory
-     * @param dstFolder - Destination directory
-     */
-    public static void copyAll(Window caller, File srcFolder, File dstFolder) {
-        File files[] = null;
-        if (srcFolder.exists() && srcFolder.isDirectory())
-            files = srcFolder.listFiles();
-        else {
-            logger.error("[copyAll] cannot copy: srcFolder is not a valid directory");
-            return;
-        }
-        
-        if (!dstFolder.exists() && !dstFolder.mkdir()) {
-            logger.error("[copyAll] cannot copy: dstFolder cannot be created");
-            return;
-        }
-        
-        if (files != null) {
-            logger.debug("copy " + files.length + " files from " + 
-                    srcFolder.getAbsolutePath() + " to " + dstFolder.getAbsolutePath());
-            for (File f : files) {
-                logger.debug("copy file: " + f.getName());
-                new Copy(caller, f, dstFolder);
-            }
-        }
-    }
+	private void transfer(FileChannel src, FileChannel dst) throws IOException {
+		long length = src.size();
+		long position = 0L;
+		while (position < length && !isCancelled()) {
+			long n = src.transferTo(position, java.lang.Math.min(CHUNK_SIZE, length - position), dst);
+			if (n <= 0 && src.size() <= position)
+				break; /* file shrank meanwhile */
+			position += n;
+			progress(n);
+		}
+	}
+
+	/**
+	 *
+	 * @return True if cancelled (by cancel or the progress bar).
+	 */
+	private boolean isCancelled() {
+		ProgressBar p = pbar;
+		if (p != null && p.isCancelled())
+			cancelled = true;
+		return cancelled || failed;
+	}
+
+	/**
+	 * Count copied bytes and update the progress bar.
+	 * @param bytes - Bytes copied
+	 */
+	private void progress(long bytes) {
+		final long d = done.addAndGet(bytes);
+		logger.debug("copy: bytes transferred: " + d + " of " + total);
+		if (pbar != null)
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (pbar != null)
+						pbar.setValue((int) java.lang.Math.round(d / (double) total * 100.0));
+				}
+			});
+	}
+
+	/**
+	 * Called when a file of this operation is finished. Closes the
+	 * progress bar and reports a failure after the last file.
+	 */
+	private void finished() {
+		synchronized (this) {
+			if (--pending > 0)
+				return;
+			notifyAll();
+		}
+
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (pbar != null)
+					pbar.close();
+				pbar = null;
+				if (failed)
+					JOptionPane.showMessageDialog(caller,
+							"Das Kopieren ist fehlgeschlagen!", "Fehler...",
+							JOptionPane.ERROR_MESSAGE);
+			}
+		});
+	}
+
+	/**
+	 * Copy all files from one directory to another as one operation.
+	 * @param caller - Parent frame or null; if this is not null
+	 *      a progress bar will appear
+	 * @param srcFolder - Source directory
+	 * @param dstFolder - Destination directory
+	 * @return Copy operation (to wait for or cancel) or null if the
+	 *      directories are not valid.
+	 */
+	public static Copy copyAll(Window caller, File srcFolder, File dstFolder) {
+		File files[] = null;
+		if (srcFolder.exists() && srcFolder.isDirectory())
+			files = srcFolder.listFiles();
+		else {
+			logger.error("[copyAll] cannot copy: srcFolder is not a valid directory");
+			return null;
+		}
+
+		if (!dstFolder.exists() && !dstFolder.mkdir()) {
+			logger.error("[copyAll] cannot copy: dstFolder cannot be created");
+			return null;
+		}
+
+		Copy c = new Copy(caller);
+		if (files != null) {
+			logger.debug("copy " + files.length + " files from " +
+					srcFolder.getAbsolutePath() + " to " + dstFolder.getAbsolutePath());
+			for (File f : files)
+				if (f.isFile())
+					c.add(f, new File(dstFolder, f.getName()));
+		}
+		c.start();
+		return c;
+	}
 }
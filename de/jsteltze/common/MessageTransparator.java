@@ -19,55 +19,80 @@
 package de.jsteltze.common;
 
 import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
 import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
- * Make a label transparent slowly.
+ * Make a label transparent slowly. The steps are done by a Swing timer
+ * that only runs while fading.
  * @author Johannes Steltzer
  *
  */
 public class MessageTransparator 
-	extends Thread {
+	implements ActionListener {
+	
+	/** time (ms) the label is shown opaque */
+	private static final int SHOW_TIME = 1000;
+	
+	/** number and time (ms) of the fading steps */
+	private static final int STEPS = 20, STEP_TIME = 100;
 	
 	/** label to make transparent */
 	private JLabel messageLabel;
 	
-	/** set to false to stop this thread */
-	private boolean running;
+	/** timer doing the steps */
+	private Timer timer;
+	
+	/** remaining steps */
+	private int step;
 	
 	/**
-	 * Construct a new thread to make a label
+	 * Construct a new fader to make a label
 	 * transparent slowly.
-	 * Call interrupt to repeat this process.
+	 * Call start to (re)start this process.
 	 * @param messageLabel - Label of interest
 	 */
 	public MessageTransparator(JLabel messageLabel) {
 		this.messageLabel = messageLabel;
-		this.running = true;
+		this.timer = new Timer(STEP_TIME, this);
+		this.timer.setInitialDelay(SHOW_TIME);
 	}
 	
 	/**
-	 * Stop this thread.
+	 * Show the label opaque and make it transparent slowly
+	 * (again).
+	 */
+	public void start() {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					start();
+				}
+			});
+			return;
+		}
+		step = STEPS;
+		messageLabel.setForeground(new Color(.5f, .5f, .5f, 1f));
+		timer.restart();
+	}
+	
+	/**
+	 * Stop fading.
 	 */
 	public void stopit() {
-		this.running = false;
-		this.interrupt();
+		timer.stop();
 	}
 	
 	@Override
-	public void run() {
-		while (running) {
-			try {
-				messageLabel.setForeground(new Color(.5f, .5f, .5f, 1f));
-				Thread.sleep(1000);
-				for (int i = 20; i >= 0; i--) {
-					Thread.sleep(100);
-					messageLabel.setForeground(new Color(.5f, .5f, .5f, ((float) i) / 20f));
-				}
-				Thread.sleep(Integer.MAX_VALUE);
-			}
-			catch (InterruptedException e) {}
-		}
+	public void actionPerformed(ActionEvent a) {
+		step--;
+		messageLabel.setForeground(new Color(.5f, .5f, .5f, ((float) step) / STEPS));
+		if (step <= 0)
+			timer.stop();
 	}
 }
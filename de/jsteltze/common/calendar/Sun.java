@@ -0,0 +1,196 @@
+/*
+ *  common-package - various java utilities
+ *  Copyright (C) 2012  Johannes Steltzer
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.jsteltze.common.calendar;
+
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Sunrise, sunset and day length for a geographic location.
+ * Values are computed for a whole year at once (NOAA approximation)
+ * and kept in a small cache, so painting a view only costs an
+ * array lookup per day.
+ * @author Johannes Steltzer
+ *
+ */
+public final class Sun {
+
+    /**
+     * Constructor not for public use.
+     */
+    private Sun() { }
+
+    /** sun does not rise on this day (polar night) */
+    public static final int SUN_NEVER_RISES = -1;
+
+    /** sun does not set on this day (midnight sun) */
+    public static final int SUN_NEVER_SETS = -2;
+
+    /** minutes of one day */
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    /** zenith of sunrise/sunset incl. refraction (degree) */
+    private static final double ZENITH = 90.833;
+
+    /** maximum number of yearly tables held in cache */
+    private static final int MAX_TABLES = 8;
+
+    /** cache of yearly tables, least recently used first */
+    private static final Map<String, int[][]> tables =
+        new LinkedHashMap<String, int[][]>(MAX_TABLES, .75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, int[][]> eldest) {
+                return size() > MAX_TABLES;
+            }
+        };
+
+    /**
+     *
+     * @param date - Date of interest
+     * @param latitude - Latitude of the location (north positive)
+     * @param longitude - Longitude of the location (east positive)
+     * @return Local time of sunrise in minutes after midnight or
+     *      SUN_NEVER_RISES/SUN_NEVER_SETS.
+     */
+    public static int getSunrise(Date date, double latitude, double longitude) {
+        return getTable(date.get(Calendar.YEAR), latitude, longitude)
+            [0][date.get(Calendar.DAY_OF_YEAR) - 1];
+    }
+
+    /**
+     *
+     * @param date - Date of interest
+     * @param latitude - Latitude of the location (north positive)
+     * @param longitude - Longitude of the location (east positive)
+     * @return Local time of sunset in minutes after midnight or
+     *      SUN_NEVER_RISES/SUN_NEVER_SETS.
+     */
+    public static int getSunset(Date date, double latitude, double longitude) {
+        return getTable(date.get(Calendar.YEAR), latitude, longitude)
+            [1][date.get(Calendar.DAY_OF_YEAR) - 1];
+    }
+
+    /**
+     *
+     * @param date - Date of interest
+     * @param latitude - Latitude of the location (north positive)
+     * @param longitude - Longitude of the location (east positive)
+     * @return Time between sunrise and sunset in minutes.
+     */
+    public static int getDayLength(Date date, double latitude, double longitude) {
+        return getTable(date.get(Calendar.YEAR), latitude, longitude)
+            [2][date.get(Calendar.DAY_OF_YEAR) - 1];
+    }
+
+    /**
+     * Converts minutes to a string of the form H:MM.
+     * @param minutes - Minutes after midnight (or duration)
+     * @return Formatted string or "-" for SUN_NEVER_XXX.
+     */
+    public static String minutesToString(int minutes) {
+        if (minutes < 0)
+            return "-";
+        int m = minutes % 60;
+        return (minutes / 60) + ":" + (m < 10 ? "0" : "") + m;
+    }
+
+    /**
+     * Returns the table for a year and a location. Computes it
+     * if not yet cached.
+     * @param year - Year
+     * @param latitude - Latitude of the location
+     * @param longitude - Longitude of the location
+     * @return Table with sunrise [0], sunset [1] and day length [2]
+     *      for each day of the year.
+     */
+    private static int[][] getTable(int year, double latitude, double longitude) {
+        String key = year + "/" + latitude + "/" + longitude;
+        synchronized (tables) {
+            int[][] table = tables.get(key);
+            if (table == null) {
+                table = computeTable(year, latitude, longitude);
+                tables.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Computes sunrise, sunset and day length for each day of a year.
+     * @param year - Year
+     * @param latitude - Latitude of the location
+     * @param longitude - Longitude of the location
+     * @return Table (see getTable).
+     */
+    private static int[][] computeTable(int year, double latitude, double longitude) {
+        Date cal = new Date(year, Calendar.JANUARY, 1);
+        int days = cal.getActualMaximum(Calendar.DAY_OF_YEAR);
+        int[][] table = new int[3][days];
+        TimeZone zone = TimeZone.getDefault();
+        double lat = Math.toRadians(latitude);
+        double cosZenith = Math.cos(Math.toRadians(ZENITH));
+
+        for (int day = 0; day < days; day++) {
+            /* fractional year in radians */
+            double g = 2. * Math.PI / days * day;
+
+            /* equation of time (minutes) and declination (radians) */
+            double eqTime = 229.18 * (0.000075 + 0.001868 * Math.cos(g)
+                    - 0.032077 * Math.sin(g) - 0.014615 * Math.cos(2 * g)
+                    - 0.040849 * Math.sin(2 * g));
+            double decl = 0.006918 - 0.399912 * Math.cos(g) + 0.070257 * Math.sin(g)
+                    - 0.006758 * Math.cos(2 * g) + 0.000907 * Math.sin(2 * g)
+                    - 0.002697 * Math.cos(3 * g) + 0.00148 * Math.sin(3 * g);
+
+            double cosHA = cosZenith / (Math.cos(lat) * Math.cos(decl))
+                    - Math.tan(lat) * Math.tan(decl);
+            if (cosHA > 1) {
+                table[0][day] = table[1][day] = SUN_NEVER_RISES;
+                table[2][day] = 0;
+                continue;
+            }
+            else if (cosHA < -1) {
+                table[0][day] = table[1][day] = SUN_NEVER_SETS;
+                table[2][day] = MINUTES_PER_DAY;
+                continue;
+            }
+
+            /* hour angle (degree) and solar noon in UTC (minutes) */
+            double ha = Math.toDegrees(Math.acos(cosHA));
+            double noon = 720. - 4. * longitude - eqTime;
+
+            /* offset of local time at noon, including daylight saving */
+            cal.set(Calendar.DAY_OF_YEAR, day + 1);
+            cal.set(Calendar.HOUR_OF_DAY, 12);
+            int offset = zone.getOffset(cal.getTimeInMillis()) / 60000;
+
+            int rise = (int) Math.round(noon - 4. * ha) + offset;
+            int set = (int) Math.round(noon + 4. * ha) + offset;
+            table[0][day] = (rise + MINUTES_PER_DAY) % MINUTES_PER_DAY;
+            table[1][day] = (set + MINUTES_PER_DAY) % MINUTES_PER_DAY;
+            table[2][day] = set - rise;
+        }
+
+        return table;
+    }
+}
@@ -1,6 +1,26 @@
-/* CREATE SCHEMA Kalender; */
-
-CREATE TABLE Kalender.MyTabelle (ID INTEGER NOT NULL,
-    MyKey INTEGER NOT NULL,
-    Content VARCHAR(20) NOT NULL,
-    PRIMARY KEY (ID)); 
\ No newline at end of file
+/* Schema of the event database (see de.jsteltze.calendar.EventDatabase) */
+CREATE SCHEMA KALENDER;
+CREATE TABLE KALENDER.EVENTS (ID INTEGER NOT NULL PRIMARY KEY,
+    NAME VARCHAR(32672) NOT NULL, START_DATE DATE NOT NULL,
+    START_TIME SMALLINT, END_DATE DATE);
+CREATE INDEX KALENDER.EVENTS_START ON KALENDER.EVENTS (START_DATE);
+CREATE INDEX KALENDER.EVENTS_END ON KALENDER.EVENTS (END_DATE);
+CREATE TABLE KALENDER.RECURRENCE (EVENT_ID INTEGER NOT NULL PRIMARY KEY
+    REFERENCES KALENDER.EVENTS (ID) ON DELETE CASCADE,
+    FREQUENCY SMALLINT NOT NULL);
+/* One row per reminder, further reminders are negative (see EventDatabase.toSQLReminder) */
+CREATE TABLE KALENDER.REMINDERS (EVENT_ID INTEGER NOT NULL
+    REFERENCES KALENDER.EVENTS (ID) ON DELETE CASCADE,
+    REMIND SMALLINT NOT NULL);
+CREATE TABLE KALENDER.ATTACHMENTS (EVENT_ID INTEGER NOT NULL PRIMARY KEY
+    REFERENCES KALENDER.EVENTS (ID) ON DELETE CASCADE,
+    FILE_NAME VARCHAR(1024) NOT NULL, FILE_SIZE BIGINT NOT NULL,
+    IS_LINK SMALLINT NOT NULL);
+/* Change tracking for calendars sharing the database */
+ALTER TABLE KALENDER.EVENTS ADD COLUMN VERSION BIGINT NOT NULL DEFAULT 0;
+CREATE INDEX KALENDER.EVENTS_VERSION ON KALENDER.EVENTS (VERSION);
+CREATE TABLE KALENDER.DELETED (EVENT_ID INTEGER NOT NULL PRIMARY KEY,
+    VERSION BIGINT NOT NULL);
+CREATE INDEX KALENDER.DELETED_VERSION ON KALENDER.DELETED (VERSION);
+CREATE TABLE KALENDER.COUNTER (VERSION BIGINT NOT NULL, NEXT_ID INTEGER NOT NULL);
+INSERT INTO KALENDER.COUNTER (VERSION, NEXT_ID) VALUES (0, 0);
\ No newline at end of file